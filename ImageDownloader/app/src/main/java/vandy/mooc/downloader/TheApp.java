@@ -0,0 +1,24 @@
+package vandy.mooc.downloader;
+
+import android.app.Application;
+
+import vandy.mooc.downloader.utils.DownloadClient;
+
+/**
+ * The Application class for the ImageDownloader app.
+ */
+public class TheApp
+       extends Application {
+    /**
+     * Hook method called when the app starts, before any of its
+     * components (including a DownloadImageActivity started by
+     * another app), which configures the platform's HTTP connection
+     * pool before the first download opens a connection.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        DownloadClient.configureConnectionPool();
+    }
+}
@@ -24,6 +24,13 @@ public class DownloadImageActivity
     public static String ACTION_DOWNLOAD_IMAGE =
             "vandy.mooc.action.DOWNLOAD_IMAGE";
 
+    /**
+     * Name of the Intent extra that gives the format the image is
+     * stored in, i.e., "format[:quality]" as parsed by
+     * DownloadUtils.setCompressFormat().
+     */
+    public static String EXTRA_COMPRESS_FORMAT = "compressFormat";
+
     /**
      * Display progress.
      */
@@ -53,6 +60,16 @@ public class DownloadImageActivity
                           url);
     }
 
+    /**
+     * Factory method that returns an implicit Intent for downloading
+     * an image and storing it in the given @a compressFormat.
+     */
+    public static Intent makeIntent(Uri url,
+                                    String compressFormat) {
+        return makeIntent(url).putExtra(EXTRA_COMPRESS_FORMAT,
+                                        compressFormat);
+    }
+
     /**
      * Hook method called when a new instance of Activity is
      * created. One time initialization code goes here, e.g., UI
@@ -84,6 +101,16 @@ public class DownloadImageActivity
             mRetainedFragmentManager.put(URL,
                     getIntent().getData());
 
+            // Store the image in the requested format, if any.
+            String compressFormat =
+                getIntent().getStringExtra(EXTRA_COMPRESS_FORMAT);
+            if (compressFormat != null)
+                try {
+                    DownloadUtils.setCompressFormat(compressFormat);
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+
             Log.d(TAG,
                     "first time onCreate() "
                             + mRetainedFragmentManager.get(URL));
@@ -174,9 +174,12 @@ public class MainActivity
                 // Disable processing of a button click.
                 mProcessButtonClick = false;
 
-                // Make an intent to download the image.
+                // Make an intent to download the image and store it
+                // in the configured format.
                 final Intent intent =
-                    DownloadImageActivity.makeIntent(url);
+                    DownloadImageActivity.makeIntent
+                    (url,
+                     getString(R.string.compress_format));
 
                 // Start the Activity associated with the Intent,
                 // which will download the image and then return the
@@ -28,6 +28,55 @@ public class DownloadUtils {
      */
     private final static String TAG = 
         DownloadUtils.class.getCanonicalName();
+
+    /**
+     * The format and quality that downloaded images are stored in
+     * (defaults to JPEG at quality 100).
+     */
+    private static volatile Bitmap.CompressFormat mCompressFormat =
+        Bitmap.CompressFormat.JPEG;
+    private static volatile int mQuality = 100;
+
+    /**
+     * Set the @a format and @a quality (0 to 100, which is ignored by
+     * PNG) that downloaded images are stored in, e.g., WEBP at a
+     * lower quality to trade CPU time for less storage I/O.
+     */
+    public static void setCompressFormat(Bitmap.CompressFormat format,
+                                         int quality) {
+        if (quality < 0 || quality > 100)
+            throw new IllegalArgumentException("quality must be 0..100");
+        mCompressFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * Set the format and quality that downloaded images are stored in
+     * from a @a spec of the form "format[:quality]", where the format
+     * is "png", "jpeg", or "webp" and the quality defaults to 100.
+     *
+     * @throws IllegalArgumentException if the @a spec is invalid.
+     */
+    public static void setCompressFormat(String spec) {
+        String[] parts = spec.toLowerCase(Locale.US).split(":", 2);
+        int quality = parts.length > 1
+            ? Integer.parseInt(parts[1])
+            : 100;
+
+        switch (parts[0]) {
+        case "png":
+            setCompressFormat(Bitmap.CompressFormat.PNG, quality);
+            break;
+        case "jpeg":
+            setCompressFormat(Bitmap.CompressFormat.JPEG, quality);
+            break;
+        case "webp":
+            setCompressFormat(Bitmap.CompressFormat.WEBP, quality);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown format " + parts[0]);
+        }
+    }
     
     /**
      * Download the image located at the provided Internet url using
@@ -49,14 +98,17 @@ public class DownloadUtils {
             return null;
         }
 
-        // Download the contents at the URL, which should
-        // reference an image.
-        try (InputStream inputStream = (InputStream)
-             new URL(url.toString()).getContent()) {
-                // Create an output file and save the image into it.
-                return DownloadUtils.createDirectoryAndSaveFile
-                    (context, inputStream, url.toString());
-            } catch (Exception e) {
+        // Download the contents at the URL, which should reference
+        // an image, via the shared DownloadClient so connections to
+        // the same server are reused.
+        try {
+            return DownloadClient.instance().download
+                (new URL(url.toString()),
+                 (connection, inputStream) ->
+                 // Create an output file and save the image into it.
+                 DownloadUtils.createDirectoryAndSaveFile
+                 (context, inputStream, url.toString()));
+        } catch (Exception e) {
             Log.e(TAG,
                   "Exception while downloading. Returning null."
                   + e.toString());
@@ -97,21 +149,36 @@ public class DownloadUtils {
             newDirectory.mkdirs();
         }
 
+        // The extension of the file says which format it's stored
+        // in, so the Gallery knows how to decode it.
+        Bitmap.CompressFormat format = mCompressFormat;
         File file = new File(directory, 
-                             getTemporaryFilename(fileName));
+                             getTemporaryFilename(fileName)
+                             + getExtension(format));
         if (file.exists())
             file.delete();
+        long start = System.nanoTime();
         try (FileOutputStream outputStream =
              new FileOutputStream(file)) {
-            imageToSave.compress(Bitmap.CompressFormat.JPEG,
-                                 100,
-                                 outputStream);
+            if (!imageToSave.compress(format,
+                                      mQuality,
+                                      outputStream))
+                return null;
             outputStream.flush();
         } catch (Exception e) {
             // Indicate a failure.
             return null;
         }
 
+        Log.d(TAG,
+              "encoded as "
+              + format
+              + " in "
+              + (System.nanoTime() - start) / 1_000
+              + " usecs, "
+              + file.length()
+              + " bytes written");
+
         // Get the absolute path of the image.
         String absolutePathToImage = file.getAbsolutePath();
 
@@ -123,6 +190,8 @@ public class DownloadUtils {
                    fileName);
         values.put(Images.Media.DESCRIPTION,
                    fileName);
+        values.put(Images.Media.MIME_TYPE,
+                   getMimeType(format));
         values.put(Images.Media.DATE_TAKEN,
                    System.currentTimeMillis ());
         values.put(Images.ImageColumns.BUCKET_DISPLAY_NAME,
@@ -154,6 +223,35 @@ public class DownloadUtils {
             (Environment.getExternalStorageState());
     }
 
+    /**
+     * @return The file extension (including the dot) of images
+     * stored in the given @a format.
+     */
+    private static String getExtension(Bitmap.CompressFormat format) {
+        switch (format) {
+        case PNG:
+            return ".png";
+        case JPEG:
+            return ".jpg";
+        default:
+            return ".webp";
+        }
+    }
+
+    /**
+     * @return The MIME type of images stored in the given @a format.
+     */
+    private static String getMimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+        case PNG:
+            return "image/png";
+        case JPEG:
+            return "image/jpeg";
+        default:
+            return "image/webp";
+        }
+    }
+
     /**
      * Create a temporary filename to store the result of a download.
      * 
@@ -3,6 +3,8 @@ package livelessons.imagestreamgang;
 import android.app.Application;
 import android.content.Context;
 
+import livelessons.imagestreamgang.utils.DownloadClient;
+
 /**
  * The Application class for the ImageStreamGangApp.
  */
@@ -20,6 +22,18 @@ public class TheApp
         sTheApp = this;
     }
 
+    /**
+     * Hook method called when the app starts, before any of its
+     * components, which configures the platform's HTTP connection
+     * pool before the first download opens a connection.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        DownloadClient.configureConnectionPool();
+    }
+
     /**
      * Returns application instance.
      *
@@ -242,7 +242,8 @@ public class ResultsActivity
             mBitmaps = new ArrayList<Bitmap>();
 
             for (File bitmap : bitmaps){
-                if (bitmap != null) {
+                // Skip the temporary files of the ImageWriter.
+                if (bitmap != null && !bitmap.isHidden()) {
                     mBitmaps.add
                         (BitmapFactory.decodeFile(bitmap.getAbsolutePath()));
                 }
@@ -1,6 +1,7 @@
 package livelessons.imagestreamgang.filters;
 
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.Metrics;
 
 /**
  * An abstract class that defines an interface for applying filtering
@@ -21,6 +22,12 @@ public abstract class Filter {
      */
     protected String mName;
 
+    /**
+     * The latency of this filter, which is looked up in the Metrics
+     * on first use.
+     */
+    private Metrics.Histogram mFilterNanos;
+
     /**
      * Constructs the filter with the default name.
      */
@@ -45,12 +52,21 @@ public abstract class Filter {
     /**
      * This template method calls the applyFilter() hook method (which
      * must be defined by a subclass) to filter the @a imageEntity
-     * parameter and sets the filterName of the result to the name of
-     * the filter.
+     * parameter, records the time it took in the
+     * "filter.<name>.nanos" Histogram, and sets the filterName of the
+     * result to the name of the filter.
      */
     public Image filter(Image image) {
+        long start = System.nanoTime();
+
         // Call the applyFilter() hook method.
         Image filteredResult = applyFilter(image);
+
+        if (mFilterNanos == null)
+            mFilterNanos =
+                Metrics.instance().histogram("filter." + mName + ".nanos");
+        mFilterNanos.recordSince(start);
+
         filteredResult.setFilterName(this);
         return filteredResult;
     }
@@ -60,6 +76,7 @@ public abstract class Filter {
      */
     public void setName(String filterName) {
         mName = filterName;
+        mFilterNanos = null;
     }
 
     /**
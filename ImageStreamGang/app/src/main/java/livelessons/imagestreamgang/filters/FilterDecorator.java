@@ -1,5 +1,7 @@
 package livelessons.imagestreamgang.filters;
 
+import java.util.concurrent.CompletableFuture;
+
 import livelessons.imagestreamgang.utils.Image;
 
 /**
@@ -31,6 +33,42 @@ public abstract class FilterDecorator
      */
     protected abstract Image decorate(Image imageEntity);
 
+    /**
+     * This hook method can be overridden by a subclass whose
+     * decorate() method finishes asynchronously, e.g., by storing the
+     * image on another Thread.
+     *
+     * @return A future that completes once decorate() has finished
+     * with the image (by default it has as soon as it returns).
+     */
+    public CompletableFuture<Void> whenDone() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * This template method forwards to the decorated filter to filter
+     * the @a imageEntity parameter and decorates the result.  Unlike
+     * Filter.filter() it doesn't record the time it took, since the
+     * decorated filter records its own time under the same name.
+     */
+    @Override
+    public Image filter(Image image) {
+        Image decoratedResult = applyFilter(image);
+        decoratedResult.setFilterName(this);
+        return decoratedResult;
+    }
+
+    /**
+     * Decorates the @a filteredImage, which the decorated filter has
+     * already produced elsewhere, e.g., in a fused pass or the filter
+     * stage of a pipeline, without filtering it again.
+     */
+    public Image decorateFiltered(Image filteredImage) {
+        Image decoratedResult = decorate(filteredImage);
+        decoratedResult.setFilterName(this);
+        return decoratedResult;
+    }
+
     /**
      * This hook method is also a template method that forwards to the
      * decorated filter to filter the @a imageEntity parameter.
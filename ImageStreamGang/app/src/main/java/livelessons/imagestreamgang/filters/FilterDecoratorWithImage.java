@@ -1,5 +1,7 @@
 package livelessons.imagestreamgang.filters;
 
+import java.util.concurrent.CompletableFuture;
+
 import livelessons.imagestreamgang.utils.Image;
 
 /**
@@ -16,19 +18,63 @@ public class FilterDecoratorWithImage {
      */
     public Image mImage;
 
+    /**
+     * True if the image has already been filtered, so it only needs
+     * to be decorated.
+     */
+    public boolean mFiltered;
+
     /**
      * Constructor initializes the fields.
      */
     public FilterDecoratorWithImage(FilterDecorator filterDecorator,
                                     Image image) {
+        this(filterDecorator, image, false);
+    }
+
+    /**
+     * Constructor initializes the fields, where @a filtered is true
+     * if the @a image has already been filtered.
+     */
+    public FilterDecoratorWithImage(FilterDecorator filterDecorator,
+                                    Image image,
+                                    boolean filtered) {
         mFilterDecorator = filterDecorator;
         mImage = image;
+        mFiltered = filtered;
     }
 
     /**
-     * Run the filter decorator on the image.
+     * Run the filter decorator on the image, or just decorate it if
+     * it has already been filtered.
      */
     public Image run() {
-        return mFilterDecorator.filter(mImage);
+        return decorate(filter());
+    }
+
+    /**
+     * Filter the image with the decorated filter without decorating
+     * it, unless it has already been filtered.
+     */
+    public Image filter() {
+        return mFiltered
+            ? mImage
+            : mFilterDecorator.mFilter.filter(mImage);
+    }
+
+    /**
+     * Decorate the @a filteredImage returned by filter(), e.g., by
+     * storing it, which may block.
+     */
+    public Image decorate(Image filteredImage) {
+        return mFilterDecorator.decorateFiltered(filteredImage);
+    }
+
+    /**
+     * @return A future that completes once the filter decorator has
+     * finished with the image, e.g., once it's stored.
+     */
+    public CompletableFuture<Void> whenDone() {
+        return mFilterDecorator.whenDone();
     }
 }
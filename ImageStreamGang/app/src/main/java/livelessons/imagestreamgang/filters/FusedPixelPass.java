@@ -0,0 +1,34 @@
+package livelessons.imagestreamgang.filters;
+
+/**
+ * The platform-independent core of fusing several PixelKernels,
+ * which computes all their outputs in a single pass over the source
+ * pixels, so each source pixel is read from memory once no matter
+ * how many filters are applied.
+ */
+public final class FusedPixelPass {
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private FusedPixelPass() {
+    }
+
+    /**
+     * Apply each of the @a kernels to the pixels in the range [@a
+     * from, @a to) of the @a source array and store the results in
+     * the same range of the corresponding @a outputs array.
+     */
+    public static void apply(int[] source,
+                             int[][] outputs,
+                             PixelKernel[] kernels,
+                             int from,
+                             int to,
+                             boolean hasTransparent) {
+        for (int i = from; i < to; ++i) {
+            int pixel = source[i];
+
+            for (int k = 0; k < kernels.length; ++k)
+                outputs[k][i] = kernels[k].apply(pixel, hasTransparent);
+        }
+    }
+}
@@ -1,15 +1,10 @@
 package livelessons.imagestreamgang.filters;
 
-import android.graphics.Bitmap;
-import android.graphics.Color;
-
-import livelessons.imagestreamgang.utils.Image;
-
 /**
  * A Filter sublcass that converts a downloaded image to grayscale.
  */
 public class GrayScaleFilter 
-       extends Filter {
+       extends PixelFilter {
     /**
      * Constructs a default GrayScaleFilter.
      */
@@ -30,48 +25,23 @@ public class GrayScaleFilter
 
     /**
      * Uses the common color transformation values for grayscale
-     * conversion using a pixel-by-pixel coloring algorithm.
+     * conversion, which GrayScalePixels applies to the pixels in the
+     * range [@a from, @a to).
      */
     @Override
-    protected Image applyFilter(Image image) {
-        // Forward to the platform-specific implementation of this
-        // filter.
-        Bitmap bitmap = image.getImage();
-        Bitmap originalImage = bitmap;
-
-        Bitmap grayScaleImage =
-            originalImage.copy(originalImage.getConfig(), true);
-
-        boolean hasTransparent = grayScaleImage.hasAlpha();
-        int width = grayScaleImage.getWidth();
-        int height = grayScaleImage.getHeight();
-
-        // A common pixel-by-pixel grayscale conversion algorithm
-        // using values obtained from en.wikipedia.org/wiki/Grayscale.
-        for (int i = 0; i < height; ++i) {
-            for (int j = 0; j < width; ++j) {
-            	
-            	// Check if the pixel is transparent in the original
-            	// by checking if the alpha is 0
-                if (hasTransparent 
-                    && ((grayScaleImage.getPixel(j, i) & 0xff000000) >> 24) == 0) {
-                    continue;
-                }
-                
-                // Convert the pixel to grayscale.
-                int pixel = grayScaleImage.getPixel(j, i);
-                int grayScale = 
-                    (int) (Color.red(pixel) * .299
-                           + Color.green(pixel) * .587
-                           + Color.blue(pixel) * .114);
-                grayScaleImage.setPixel(j, i, 
-                                        Color.rgb(grayScale, grayScale, grayScale)
-                                        );
-            }
-        }
+    protected void applyFilter(int[] pixels,
+                               int from,
+                               int to,
+                               boolean hasTransparent) {
+        GrayScalePixels.toGrayScale(pixels, from, to, hasTransparent);
+    }
 
-        // Return an Image containing the filtered image.
-        return new Image(image.getSourceURL(),
-                         grayScaleImage);
+    /**
+     * Each grayscale pixel only depends on the corresponding original
+     * pixel, so this filter can be fused with others.
+     */
+    @Override
+    public PixelKernel getKernel() {
+        return GrayScalePixels::toGrayScale;
     }
 }
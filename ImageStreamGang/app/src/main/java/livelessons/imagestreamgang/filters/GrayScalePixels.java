@@ -0,0 +1,62 @@
+package livelessons.imagestreamgang.filters;
+
+/**
+ * The platform-independent core of the GrayScaleFilter, which
+ * converts an array of ARGB pixels to grayscale in place.  It uses no
+ * Android classes, so it can be unit tested and benchmarked
+ * off-device.
+ */
+public final class GrayScalePixels {
+    /**
+     * Fixed-point (16.16) versions of the common color transformation
+     * values for grayscale conversion obtained from
+     * en.wikipedia.org/wiki/Grayscale, i.e., .299, .587, and .114
+     * scaled by 65536 (they add up to exactly 65536).
+     */
+    private static final int RED_WEIGHT = 19595;
+    private static final int GREEN_WEIGHT = 38470;
+    private static final int BLUE_WEIGHT = 7471;
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private GrayScalePixels() {
+    }
+
+    /**
+     * Convert the pixels in the range [@a from, @a to) of the @a
+     * pixels array to grayscale in place.  If @a hasTransparent is
+     * true then pixels whose alpha is 0 are left unchanged.
+     */
+    public static void toGrayScale(int[] pixels,
+                                   int from,
+                                   int to,
+                                   boolean hasTransparent) {
+        for (int i = from; i < to; ++i)
+            pixels[i] = toGrayScale(pixels[i], hasTransparent);
+    }
+
+    /**
+     * @return The grayscale version of the ARGB @a pixel, which is
+     * opaque unless @a hasTransparent is true and the @a pixel is
+     * fully transparent, in which case it's returned unchanged.
+     */
+    public static int toGrayScale(int pixel,
+                                  boolean hasTransparent) {
+        // Check if the pixel is transparent by checking if the alpha
+        // is 0.
+        if (hasTransparent && (pixel & 0xff000000) == 0)
+            return pixel;
+
+        // Convert the pixel to grayscale using integer math.
+        int grayScale =
+            (((pixel >> 16) & 0xff) * RED_WEIGHT
+             + ((pixel >> 8) & 0xff) * GREEN_WEIGHT
+             + (pixel & 0xff) * BLUE_WEIGHT) >>> 16;
+
+        return 0xff000000
+            | (grayScale << 16)
+            | (grayScale << 8)
+            | grayScale;
+    }
+}
@@ -4,21 +4,46 @@ import android.graphics.Bitmap;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.util.concurrent.CompletableFuture;
 
+import livelessons.imagestreamgang.utils.BitmapPool;
+import livelessons.imagestreamgang.utils.CacheIndex;
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.ImageEncoder;
+import livelessons.imagestreamgang.utils.ImageWriter;
+import livelessons.imagestreamgang.utils.Metrics;
 import livelessons.imagestreamgang.utils.Options;
+import livelessons.imagestreamgang.utils.RunJournal;
 
 /**
  * A Decorator whose inherited applyFilter() template method calls the
  * filter() method on the Filter object passed to its constructor and
- * whose decorate() hook method then writes the results of the
- * filtered image to an output file.  Plays the role of the "Concrete
- * Decorator" in the Decorator pattern and the role of the "Concrete
- * Class" in the Template Method pattern.
+ * whose decorate() hook method then has the ImageWriter write the
+ * results of the filtered image to an output file asynchronously.
+ * Plays the role of the "Concrete Decorator" in the Decorator pattern
+ * and the role of the "Concrete Class" in the Template Method
+ * pattern.
  */
 public class OutputFilterDecorator 
        extends FilterDecorator {
+    /**
+     * The journal of the run the written images are recorded in, or
+     * null if there's none.
+     */
+    private final RunJournal mJournal;
+
+    /**
+     * The cycle of the run the written images belong to.
+     */
+    private final long mCycle;
+
+    /**
+     * Completes once the filtered image has been written (or has
+     * failed to be).
+     */
+    private final CompletableFuture<Void> mStored =
+        new CompletableFuture<>();
+
     /**
      * Constructor passes the @a filter parameter up to the superclass
      * constructor, which stores it in a data member for subsequent
@@ -26,44 +51,95 @@ public class OutputFilterDecorator
      * template method.
      */
     public OutputFilterDecorator(Filter filter) {
+        this(filter, null, 0);
+    }
+
+    /**
+     * Constructor passes the @a filter parameter up to the superclass
+     * constructor and records each image that's written in the @a
+     * journal as part of the given @a cycle.
+     */
+    public OutputFilterDecorator(Filter filter,
+                                 RunJournal journal,
+                                 long cycle) {
     	super(filter);
+        mJournal = journal;
+        mCycle = cycle;
     }
 
     /**
      * This hook method is called with the @a image parameter after it
      * has been filtered with mFilter in the inherited applyFilter()
-     * method.  decorate() stores the filtered Image in a file.
+     * method.  decorate() queues the filtered Image to be stored in a
+     * file by the ImageWriter, so the calling Thread doesn't wait for
+     * it to be compressed and written.
      */
     @Override
     protected Image decorate(Image image) {
-        // Store the filtered image as its filename (which is derived
-        // from its URL), within the appropriate filter directory to
-        // organize the filtered results and write the image to the
-        // file in the appropriate directory.
+        Bitmap bitmap = image.getImage();
+        if (bitmap == null) {
+            Log.e(TAG, "null Bitmap");
+            Metrics.instance().counter("filter.failures").increment();
+            mStored.complete(null);
+            return null;
+        }
 
-    	// Ensure that the path exists.
+        // Store the filtered image as its filename (which is derived
+        // from its URL and has the extension of the configured
+        // format), within the appropriate filter directory to
+        // organize the filtered results.
         File externalFile = new File(Options.instance().getDirectoryPath(),
                                      this.getName());
-        externalFile.mkdirs();
-        
-        // Get a reference to the file in which the image will be stored
-        File imageFile = new File(externalFile, image.getFileName());
-        
-        // Store the image using try-with-resources
-        try (FileOutputStream outputFile =
-             new FileOutputStream(imageFile)) {
-                Bitmap bitmap = image.getImage();
-                if (bitmap == null)
-                    Log.e(TAG, "null Bitmap");
-                else
-                    bitmap.compress(Bitmap.CompressFormat.PNG,
-                                    100,
-                                    outputFile);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-        
+        ImageEncoder encoder = Options.instance().getImageEncoder();
+
+        if (mJournal != null)
+            mJournal.beginWrite(mCycle);
+
+        ImageWriter.instance().write
+            (externalFile,
+             encoder.getFileName(image.getSourceURL()),
+             // Encode the image in the configured format.
+             outputFile -> encoder.encode(bitmap, outputFile),
+             imageFile -> {
+                 try {
+                     // Record that the image is now in the cache.
+                     if (imageFile != null)
+                         CacheIndex.instance().putFile(image.getSourceURL(),
+                                                       getName(),
+                                                       imageFile.getName(),
+                                                       imageFile.length());
+
+                     // Record the progress of the run.
+                     if (mJournal != null)
+                         mJournal.endWrite(mCycle,
+                                           image.getSourceURL(),
+                                           getName(),
+                                           imageFile);
+
+                     // Give the Bitmap back to the BitmapPool now that
+                     // it has been persisted, unless it's shared
+                     // (e.g., with the unfiltered image).  It's
+                     // detached from the Image first, since the Image
+                     // has already been returned to the callers.
+                     Bitmap pooled = image.detachPooledImage();
+                     if (pooled != null)
+                         BitmapPool.instance().release(pooled);
+                 } finally {
+                     // Always tell whoever waits for the image to be
+                     // stored, so they never wait forever.
+                     mStored.complete(null);
+                 }
+             });
+
         return image;
     }
+
+    /**
+     * @return A future that completes once the ImageWriter has
+     * written the filtered image (or has failed to).
+     */
+    @Override
+    public CompletableFuture<Void> whenDone() {
+        return mStored;
+    }
 }
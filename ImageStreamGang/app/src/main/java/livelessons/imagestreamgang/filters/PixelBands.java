@@ -0,0 +1,107 @@
+package livelessons.imagestreamgang.filters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an image whose pixels are stored in a single
+ * array into bands and applies an action to each band, either
+ * sequentially or in parallel on the common fork-join pool.  Since
+ * each band is a disjoint range of the same array, the bands are
+ * "stitched back" for free, i.e., no band ever copies the image.
+ */
+public final class PixelBands {
+    /**
+     * The minimum number of pixels in a band, which keeps the bands
+     * large enough that the cost of forking them is amortized.
+     */
+    static final int MIN_BAND_PIXELS = 16 * 1024;
+
+    /**
+     * An action applied to the pixels in the range [@a from, @a to)
+     * of an array.
+     */
+    public interface BandAction {
+        void apply(int from, int to);
+    }
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private PixelBands() {
+    }
+
+    /**
+     * @return true if a @a width x @a height image should be split
+     * into bands, i.e., if its filter is @a tiled or the image has at
+     * least @a tilePixels pixels (unless that's 0), else false.
+     */
+    public static boolean shouldTile(int width,
+                                     int height,
+                                     boolean tiled,
+                                     long tilePixels) {
+        return tiled
+            || (tilePixels > 0 && (long) width * height >= tilePixels);
+    }
+
+    /**
+     * Apply the @a action to each band of rows of a @a width x @a
+     * height image, in parallel on the common fork-join pool if @a
+     * tiled is true and the image is large enough to be worth
+     * splitting, else sequentially on the calling Thread.
+     */
+    public static void forEachBand(int width,
+                                   int height,
+                                   boolean tiled,
+                                   BandAction action) {
+        // Number of rows in the smallest band worth forking.
+        int bandRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, width));
+
+        if (tiled && height > bandRows)
+            ForkJoinPool.commonPool().invoke(new BandTask(width,
+                                                          0,
+                                                          height,
+                                                          bandRows,
+                                                          action));
+        else
+            action.apply(0, width * height);
+    }
+
+    /**
+     * Recursively splits a range of rows in half until it is no
+     * larger than the band size and then applies the action to it.
+     */
+    private static class BandTask
+            extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mWidth;
+        private final int mFromRow;
+        private final int mToRow;
+        private final int mBandRows;
+        private final BandAction mAction;
+
+        BandTask(int width,
+                 int fromRow,
+                 int toRow,
+                 int bandRows,
+                 BandAction action) {
+            mWidth = width;
+            mFromRow = fromRow;
+            mToRow = toRow;
+            mBandRows = bandRows;
+            mAction = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (mToRow - mFromRow <= mBandRows)
+                mAction.apply(mFromRow * mWidth, mToRow * mWidth);
+            else {
+                int middleRow = (mFromRow + mToRow) >>> 1;
+                invokeAll(new BandTask(mWidth, mFromRow, middleRow, mBandRows, mAction),
+                          new BandTask(mWidth, middleRow, mToRow, mBandRows, mAction));
+            }
+        }
+    }
+}
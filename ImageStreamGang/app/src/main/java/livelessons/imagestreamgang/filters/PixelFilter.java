@@ -0,0 +1,211 @@
+package livelessons.imagestreamgang.filters;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import livelessons.imagestreamgang.utils.BitmapPool;
+import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.Options;
+
+/**
+ * A Filter whose subclasses transform the pixels of an image stored
+ * in a single ARGB array.  The whole image is read into the array
+ * and written back with one call each, and the rows of an image
+ * with at least Options.getTilePixels() pixels (or of any image, if
+ * tiling is enabled via setTiled()) are split into bands that are
+ * filtered in parallel on the common fork-join pool, so the latency
+ * of filtering a large image scales with the number of cores.  Filters
+ * that define a PixelKernel can also be fused via filterFused(), so
+ * all their outputs are computed in one pass over the image.  Plays
+ * the role of the "Abstract Class" in the Template Method pattern.
+ */
+public abstract class PixelFilter
+       extends Filter {
+    /**
+     * Keeps track of whether images of any size are split into bands
+     * that are filtered in parallel (defaults to false, i.e., only
+     * images with at least Options.getTilePixels() pixels are).
+     */
+    private volatile boolean mTiled = false;
+
+    /**
+     * Constructs the filter with the default name.
+     */
+    public PixelFilter() {
+    }
+
+    /**
+     * Constructs the filter with a custom name.
+     */
+    public PixelFilter(String filterName) {
+        super(filterName);
+    }
+
+    /**
+     * Sets whether images of any size are split into bands that are
+     * filtered in parallel.
+     */
+    public void setTiled(boolean tiled) {
+        mTiled = tiled;
+    }
+
+    /**
+     * Returns true if images of any size are split into bands that
+     * are filtered in parallel, else false.
+     */
+    public boolean isTiled() {
+        return mTiled;
+    }
+
+    /**
+     * This abstract hook method must be overridden by a subclass to
+     * filter the pixels in the range [@a from, @a to) of the @a
+     * pixels array in place.  It may be called concurrently for
+     * disjoint ranges of the same array.
+     */
+    protected abstract void applyFilter(int[] pixels,
+                                        int from,
+                                        int to,
+                                        boolean hasTransparent);
+
+    /**
+     * This hook method can be overridden by a subclass whose output
+     * pixels each depend only on the corresponding input pixel to
+     * return its per-pixel operation, which lets it be fused with
+     * other such filters via filterFused().
+     *
+     * @return The kernel of this filter, or null if it has none.
+     */
+    public PixelKernel getKernel() {
+        return null;
+    }
+
+    /**
+     * This hook method is also a template method that reads the
+     * pixels of the @a image, calls the applyFilter() hook method to
+     * filter them, and returns a new Image containing the results.
+     */
+    @Override
+    protected Image applyFilter(Image image) {
+        Bitmap originalImage = image.getImage();
+
+        boolean hasTransparent = originalImage.hasAlpha();
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+
+        // Pull all the pixels into an array with a single call.
+        int[] pixels = new int[width * height];
+        originalImage.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        // Filter the pixels in place, one band of rows at a time.
+        PixelBands.forEachBand(width,
+                               height,
+                               shouldTile(mTiled, width, height),
+                               (from, to) -> applyFilter(pixels,
+                                                         from,
+                                                         to,
+                                                         hasTransparent));
+
+        // Return an Image containing the filtered pixels.
+        return makeImage(image, pixels);
+    }
+
+    /**
+     * Apply all the @a filters, which must all have a kernel, to the
+     * @a image in a single pass over its pixels, which is tiled if any
+     * of the filters is or the image is large enough.
+     *
+     * @return The filtered Images, in the same order as the @a
+     * filters.
+     */
+    public static List<Image> filterFused(List<PixelFilter> filters,
+                                          Image image) {
+        Bitmap originalImage = image.getImage();
+
+        boolean hasTransparent = originalImage.hasAlpha();
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+
+        // Pull all the pixels into an array with a single call.
+        int[] pixels = new int[width * height];
+        originalImage.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        PixelKernel[] kernels = new PixelKernel[filters.size()];
+        int[][] outputs = new int[filters.size()][];
+        boolean tiled = false;
+
+        for (int k = 0; k < kernels.length; ++k) {
+            kernels[k] = filters.get(k).getKernel();
+            outputs[k] = new int[pixels.length];
+            tiled |= filters.get(k).isTiled();
+        }
+
+        // Compute the pixels of all the outputs in one pass, one
+        // band of rows at a time.
+        PixelBands.forEachBand(width,
+                               height,
+                               shouldTile(tiled, width, height),
+                               (from, to) ->
+                               FusedPixelPass.apply(pixels,
+                                                    outputs,
+                                                    kernels,
+                                                    from,
+                                                    to,
+                                                    hasTransparent));
+
+        List<Image> filteredResults = new ArrayList<>(kernels.length);
+        for (int k = 0; k < kernels.length; ++k) {
+            // Return the results with the filter names set, just like
+            // the filter() template method does.
+            Image filteredResult = makeImage(image, outputs[k]);
+            filteredResult.setFilterName(filters.get(k));
+            filteredResults.add(filteredResult);
+        }
+
+        return filteredResults;
+    }
+
+    /**
+     * @return true if a @a width x @a height image should be split
+     * into bands, i.e., if @a tiled is true or the image has at least
+     * Options.getTilePixels() pixels, else false.
+     */
+    private static boolean shouldTile(boolean tiled,
+                                      int width,
+                                      int height) {
+        return PixelBands.shouldTile(width,
+                                     height,
+                                     tiled,
+                                     Options.instance().getTilePixels());
+    }
+
+    /**
+     * @return An Image with the same source URL and format as the
+     * unfiltered @a image that contains the filtered @a pixels.
+     */
+    private static Image makeImage(Image image, int[] pixels) {
+        Bitmap originalImage = image.getImage();
+        int width = originalImage.getWidth();
+        int height = originalImage.getHeight();
+
+        // Write all the pixels back with a single call into a Bitmap
+        // reused from the BitmapPool if possible.
+        Bitmap filteredImage =
+            BitmapPool.instance().get(width,
+                                      height,
+                                      originalImage.getConfig() != null
+                                      ? originalImage.getConfig()
+                                      : Bitmap.Config.ARGB_8888);
+        filteredImage.setHasAlpha(originalImage.hasAlpha());
+        filteredImage.setPixels(pixels, 0, width, 0, 0, width, height);
+
+        // Return an Image containing the filtered image, whose Bitmap
+        // is given back to the BitmapPool once it's persisted.
+        Image filteredResult = new Image(image.getSourceURL(),
+                                         filteredImage);
+        filteredResult.setPooled(true);
+        return filteredResult;
+    }
+}
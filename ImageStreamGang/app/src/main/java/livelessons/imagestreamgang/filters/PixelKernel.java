@@ -0,0 +1,15 @@
+package livelessons.imagestreamgang.filters;
+
+/**
+ * Defines the per-pixel operation of a PixelFilter whose output
+ * pixels each depend only on the corresponding input pixel, which
+ * lets several such filters be fused into a single pass over the
+ * pixels of an image.
+ */
+public interface PixelKernel {
+    /**
+     * @return The filtered version of the ARGB @a pixel of an image,
+     * which has transparent pixels if @a hasTransparent is true.
+     */
+    int apply(int pixel, boolean hasTransparent);
+}
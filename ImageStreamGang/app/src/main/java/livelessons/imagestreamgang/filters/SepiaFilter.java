@@ -0,0 +1,41 @@
+package livelessons.imagestreamgang.filters;
+
+/**
+ * A Filter sublcass that tones a downloaded image sepia.
+ */
+public class SepiaFilter
+       extends PixelFilter {
+    /**
+     * Constructs a default SepiaFilter.
+     */
+    public SepiaFilter() {}
+
+    /**
+     * Constructs a SepiaFilter with the given name.  See
+     * GrayScaleFilter for explanation of filter naming.
+     */
+    public SepiaFilter(String name) {
+        super(name);
+    }
+
+    /**
+     * Uses the common sepia tone matrix, which SepiaPixels applies to
+     * the pixels in the range [@a from, @a to).
+     */
+    @Override
+    protected void applyFilter(int[] pixels,
+                               int from,
+                               int to,
+                               boolean hasTransparent) {
+        SepiaPixels.toSepia(pixels, from, to, hasTransparent);
+    }
+
+    /**
+     * Each sepia pixel only depends on the corresponding original
+     * pixel, so this filter can be fused with others.
+     */
+    @Override
+    public PixelKernel getKernel() {
+        return SepiaPixels::toSepia;
+    }
+}
@@ -0,0 +1,78 @@
+package livelessons.imagestreamgang.filters;
+
+/**
+ * The platform-independent core of the SepiaFilter, which tones an
+ * array of ARGB pixels sepia in place.  It uses no Android classes,
+ * so it can be unit tested and benchmarked off-device.
+ */
+public final class SepiaPixels {
+    /**
+     * Fixed-point (16.16) versions of the common sepia tone matrix,
+     * i.e., each output channel is a weighted sum of the red, green,
+     * and blue input channels, scaled by 65536.
+     */
+    private static final int RED_FROM_RED = 25756;
+    private static final int RED_FROM_GREEN = 50397;
+    private static final int RED_FROM_BLUE = 12386;
+    private static final int GREEN_FROM_RED = 22872;
+    private static final int GREEN_FROM_GREEN = 44958;
+    private static final int GREEN_FROM_BLUE = 11010;
+    private static final int BLUE_FROM_RED = 17826;
+    private static final int BLUE_FROM_GREEN = 34996;
+    private static final int BLUE_FROM_BLUE = 8585;
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private SepiaPixels() {
+    }
+
+    /**
+     * Tone the pixels in the range [@a from, @a to) of the @a pixels
+     * array sepia in place.  If @a hasTransparent is true then pixels
+     * whose alpha is 0 are left unchanged.
+     */
+    public static void toSepia(int[] pixels,
+                               int from,
+                               int to,
+                               boolean hasTransparent) {
+        for (int i = from; i < to; ++i)
+            pixels[i] = toSepia(pixels[i], hasTransparent);
+    }
+
+    /**
+     * @return The sepia version of the ARGB @a pixel, which is opaque
+     * unless @a hasTransparent is true and the @a pixel is fully
+     * transparent, in which case it's returned unchanged.
+     */
+    public static int toSepia(int pixel,
+                              boolean hasTransparent) {
+        // Check if the pixel is transparent by checking if the alpha
+        // is 0.
+        if (hasTransparent && (pixel & 0xff000000) == 0)
+            return pixel;
+
+        int red = (pixel >> 16) & 0xff;
+        int green = (pixel >> 8) & 0xff;
+        int blue = pixel & 0xff;
+
+        // Tone the pixel using integer math, saturating each channel
+        // since the weights of red and green add up to more than 1.
+        int sepiaRed = Math.min(255,
+                                (red * RED_FROM_RED
+                                 + green * RED_FROM_GREEN
+                                 + blue * RED_FROM_BLUE) >>> 16);
+        int sepiaGreen = Math.min(255,
+                                  (red * GREEN_FROM_RED
+                                   + green * GREEN_FROM_GREEN
+                                   + blue * GREEN_FROM_BLUE) >>> 16);
+        int sepiaBlue = (red * BLUE_FROM_RED
+                         + green * BLUE_FROM_GREEN
+                         + blue * BLUE_FROM_BLUE) >>> 16;
+
+        return 0xff000000
+            | (sepiaRed << 16)
+            | (sepiaGreen << 8)
+            | sepiaBlue;
+    }
+}
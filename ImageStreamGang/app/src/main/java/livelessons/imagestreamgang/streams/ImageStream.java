@@ -2,23 +2,48 @@ package livelessons.imagestreamgang.streams;
 
 import android.util.Log;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 
 import livelessons.imagestreamgang.filters.Filter;
 import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
 import livelessons.imagestreamgang.filters.OutputFilterDecorator;
+import livelessons.imagestreamgang.filters.PixelFilter;
+import livelessons.imagestreamgang.utils.AdaptiveExecutor;
+import livelessons.imagestreamgang.utils.CacheIndex;
+import livelessons.imagestreamgang.utils.Deadline;
+import livelessons.imagestreamgang.utils.DownloadClient;
+import livelessons.imagestreamgang.utils.HttpCache;
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.ImageCache;
+import livelessons.imagestreamgang.utils.ImageWriter;
+import livelessons.imagestreamgang.utils.Metrics;
 import livelessons.imagestreamgang.utils.NetUtils;
 import livelessons.imagestreamgang.utils.Options;
+import livelessons.imagestreamgang.utils.PoolSizer;
+import livelessons.imagestreamgang.utils.RunJournal;
+import livelessons.imagestreamgang.utils.SingleFlight;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
 
 /**
  * This abstract class customizes the StreamGang framework to use Java
@@ -45,22 +70,165 @@ public abstract class ImageStream
     /**
      * Clients of ImageStream supply this hook so they know when the
      * all the images have been downloaded, processed, and stored, at
-     * which point they can display the stored images.
+     * which point they can display the stored images.  It's also run
+     * if the run is cancelled or its deadline expires, in which case
+     * getSummary() shows the results are partial.
      */
     private Runnable mCompletionHook;
 
     /**
-     * A barrier synchronizer that's used to coordinate each iteration
-     * cycle, i.e., each call to initiateStream() must initialize and
-     * wait on this barrier for the other tasks to complete their
-     * processing before moving to the next iteration cycle.
+     * How long to keep waiting for cycles and Executors to finish
+     * after the deadline of the run expires, since cancellation is
+     * cooperative.
+     */
+    private static final long CANCEL_GRACE_MILLIS = 1_000;
+
+    /**
+     * The deadline of the whole run, which the deadlines of its
+     * cycles and images are nested in.
+     */
+    private volatile Deadline mRunDeadline = Deadline.NONE;
+
+    /**
+     * True once cancel() is called.
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * True until a cycle is skipped or cut short.
+     */
+    private volatile boolean mComplete = true;
+
+    /**
+     * The results of the run so far, which are summarized by
+     * getSummary().
+     */
+    private final LongAdder mImages = new LongAdder();
+    private final LongAdder mFilteredImages = new LongAdder();
+    private final LongAdder mFailures = new LongAdder();
+    private final LongAdder mCancellations = new LongAdder();
+
+    /**
+     * A barrier synchronizer that's used to coordinate the iteration
+     * cycles, i.e., each call to initiateStream() must acquire a
+     * permit before starting a cycle, so no more than
+     * getCycleDepth() cycles are processed concurrently.  With the
+     * default depth of 1 each cycle must finish before the next one
+     * starts.
+     */
+    private Semaphore mCyclePermits = null;
+
+    /**
+     * Runs the cycles in the background if they are allowed to
+     * overlap, i.e., if getCycleDepth() is greater than 1, or if the
+     * run was started by runAsync().
+     */
+    private final ExecutorService mCycleExecutor =
+        Executors.newCachedThreadPool();
+
+    /**
+     * Serializes taking the next List of URLs from the Iterator in
+     * runAsync(), whose cycles are started by different Threads.
+     */
+    private final Object mInputLock = new Object();
+
+    /**
+     * Coalesces concurrent downloads of the same URL, e.g., if it
+     * appears twice in one List or in overlapping cycles.
+     */
+    protected final SingleFlight<String, Image> mImageFlights =
+        new SingleFlight<>();
+
+    /**
+     * Coalesces concurrent filtering (and storing) of the same URL by
+     * the same filter, so they never race to write the same file.
      */
-    protected CountDownLatch mIterationBarrier = null;
+    protected final SingleFlight<String, Image> mFilterFlights =
+        new SingleFlight<>();
 
     /**
-     * Number of Threads in the fixed-size thread pool.
+     * The name of the hidden file in the output directory that the
+     * metrics are exported to at the end of the run.
      */
-    private final int MAX_THREADS = 8;
+    private static final String METRICS_FILE_NAME = ".metrics.txt";
+
+    /**
+     * The name of the hidden file in the output directory that the
+     * progress of the run is journaled in.
+     */
+    private static final String JOURNAL_FILE_NAME = ".ImageStreamGangJournal";
+
+    /**
+     * The journal of the progress of the run, which lets a run that
+     * didn't finish be resumed.
+     */
+    private final RunJournal mJournal;
+
+    /**
+     * The cycle of each cycle's Deadline, which the work of the cycle
+     * takes along to other Threads, so it can tell which cycle it
+     * belongs to (see getDeadlineCycle()).
+     */
+    private final Map<Deadline, Long> mCycleDeadlines = new ConcurrentHashMap<>();
+
+    /**
+     * The input that resume() read for a cycle whose input differs
+     * from that of the earlier run, which getNextInput() returns
+     * next, since that cycle must be redone.
+     */
+    private List<URL> mResumedInput;
+
+    /**
+     * Metrics of the cycles, downloads, cache lookups, and fused
+     * filtering.
+     */
+    private final Metrics.Histogram mDownloadNanos =
+        Metrics.instance().histogram("download.nanos");
+    private final Metrics.Histogram mDecodeNanos =
+        Metrics.instance().histogram("decode.nanos");
+    private final Metrics.Counter mDownloadBytes =
+        Metrics.instance().counter("download.bytes");
+    private final Metrics.Counter mDownloadFailures =
+        Metrics.instance().counter("download.failures");
+    private final Metrics.Counter mCacheHits =
+        Metrics.instance().counter("cache.hits");
+    private final Metrics.Counter mCacheMisses =
+        Metrics.instance().counter("cache.misses");
+    private final Metrics.Histogram mCycleNanos =
+        Metrics.instance().histogram("cycle.nanos");
+    private final Metrics.Histogram mFusedFilterNanos =
+        Metrics.instance().histogram("filter.Fused.nanos");
+    private final Metrics.Counter mFilterSkips =
+        Metrics.instance().counter("filter.skipped");
+
+    /**
+     * Fewest and most Threads in the I/O thread pool.
+     */
+    private static final int MIN_IO_THREADS = 1;
+    private static final int MAX_IO_THREADS = 64;
+
+    /**
+     * How often the I/O thread pool adapts its size.
+     */
+    private static final long IO_WINDOW_MILLIS = 500;
+
+    /**
+     * Estimates the best size of the I/O thread pool from the
+     * measured time downloads spend waiting on the network versus
+     * decoding.  Until it's measured, waiting and decoding are
+     * assumed to take as long as each other.
+     */
+    protected final PoolSizer mIoPoolSizer =
+        new PoolSizer(Runtime.getRuntime().availableProcessors(),
+                      MIN_IO_THREADS,
+                      MAX_IO_THREADS,
+                      2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The I/O thread pool made by the constructor, which adapts its
+     * size to the observed throughput of the downloads.
+     */
+    private final AdaptiveExecutor mIoExecutor;
 
     /**
      * Constructor initializes the superclass and data members.
@@ -78,42 +246,313 @@ public abstract class ImageStream
         // are downloaded and processed.
         mCompletionHook = completionHook;
 
-        // Initialize the Executor with a fixed-sized pool of Threads.
-        setExecutor(Executors.newFixedThreadPool(MAX_THREADS));
+        // Initialize the Executor with a pool of Threads for blocking
+        // I/O, which adapts its size to the downloads' throughput,
+        // using the measured download times as a guide.
+        mIoExecutor =
+            new AdaptiveExecutor(MIN_IO_THREADS,
+                                 MAX_IO_THREADS,
+                                 mIoPoolSizer.getPoolSize(),
+                                 IO_WINDOW_MILLIS,
+                                 mIoPoolSizer::getPoolSize,
+                                 (oldSize, newSize, throughput, reason) ->
+                                     Log.d(TAG,
+                                           "I/O thread pool resized from "
+                                           + oldSize
+                                           + " to "
+                                           + newSize
+                                           + " Threads at "
+                                           + Math.round(throughput)
+                                           + " tasks/sec ("
+                                           + reason
+                                           + ")"));
+        setExecutor(mIoExecutor);
+
+        // Publish the state of the pipeline as gauges.
+        registerGauges();
+
+        // Set how many cycles can be processed concurrently.
+        setCycleDepth(Options.instance().getCycleDepth());
+
+        // Load the cache index now, rather than during the first
+        // cycle.
+        CacheIndex.instance();
+
+        // Load the progress of an earlier run with the same filters
+        // that didn't finish.
+        mJournal = new RunJournal(new File(Options.instance().getDirectoryPath(),
+                                           JOURNAL_FILE_NAME),
+                                  mFilters
+                                  .stream()
+                                  .map(Filter::getName)
+                                  .collect(joining(",")));
+    }
+
+    /**
+     * @return The number of cycles an earlier run that didn't finish
+     * has checkpointed in the journal.
+     */
+    @Override
+    protected long getCheckpoint() {
+        return mJournal.getCheckpoint();
+    }
+
+    /**
+     * Skip the cycles an earlier run has already processed, as long
+     * as their input is the same as it was then.  Otherwise the
+     * journal is rewound to the cycle before the first one whose
+     * input differs, which is then processed again.
+     */
+    @Override
+    protected void resume() {
+        if (getCheckpoint() > 0)
+            Log.d(TAG, "Resuming the run after cycle " + getCheckpoint());
+
+        while (mResumedInput == null && currentCycle() < getCheckpoint()) {
+            List<URL> input = getNextInput();
+            if (input == null)
+                break; // No more input, so there's nothing to redo.
+            else if (!mJournal.matches(currentCycle(), input)) {
+                Log.w(TAG,
+                      "The input of cycle "
+                      + currentCycle()
+                      + " differs from the earlier run's, so it's redone");
+                mJournal.rewind(currentCycle() - 1);
+                mResumedInput = input;
+            }
+        }
     }
 
     /**
      * Hook method that must be overridden by subclasses to perform
-     * the ImageStream processing.
+     * the ImageStream processing.  It runs with the deadline of the
+     * cycle as the current Deadline, which work it hands off to other
+     * Threads must take along (see Deadline.call()).
      */
     protected abstract void processStream();
 
     /**
-     * Initiate the ImageStream processing, which uses a Java 8 stream
-     * to download, process, and store images sequentially.
+     * Hook method that performs the ImageStream processing of the
+     * current cycle without waiting for it to finish.  By default it
+     * calls processStream() on the calling Thread, so the returned
+     * future is already complete.  Subclasses whose processing never
+     * blocks should override it.
+     *
+     * @return A future that completes with the summary of the run so
+     * far once this cycle is done.
+     */
+    protected CompletableFuture<Summary> processStreamAsync() {
+        processStream();
+        return CompletableFuture.completedFuture(getSummary());
+    }
+
+    /**
+     * Run the ImageStream, which is cancelled if it takes longer than
+     * the run timeout given in the Options.
+     */
+    @Override
+    public void run() {
+        startRun();
+        super.run();
+    }
+
+    /**
+     * Run the ImageStream without blocking the calling Thread (or any
+     * pool Thread): up to getCycleDepth() cycles are chained one
+     * after another as their futures complete, and the run is
+     * finished off once they are all done.
+     *
+     * @return A future that completes with the summary of the run
+     * after the completion hook has run.
+     */
+    @Override
+    public CompletableFuture<Summary> runAsync() {
+        startRun();
+
+        // Skip the input an earlier run has already processed.
+        resume();
+
+        // Each lane processes one cycle at a time, so no more than
+        // getCycleDepth() cycles are processed concurrently.
+        CompletableFuture<?>[] lanes = range(0, getCycleDepth())
+            .mapToObj(lane -> processCyclesAsync())
+            .toArray(CompletableFuture<?>[]::new);
+
+        // Shutting down the Executors and flushing the writes block,
+        // so they're done on a cycle Thread rather than a pool
+        // Thread.
+        return CompletableFuture.allOf(lanes)
+            .thenApplyAsync(ignored -> {
+                    finishRun();
+                    return getSummary();
+                },
+                mCycleExecutor);
+    }
+
+    /**
+     * Start the clock of the whole run.
+     */
+    private void startRun() {
+        mRunDeadline = Deadline.after(Options.instance().getRunTimeoutMillis());
+        if (mCancelled)
+            mRunDeadline.cancel();
+    }
+
+    /**
+     * Asynchronously process cycles, one after another, until there's
+     * no more input or the run's deadline expires.
+     *
+     * @return A future that completes once the last of these cycles
+     * is done.
+     */
+    private CompletableFuture<Void> processCyclesAsync() {
+        // Taking the next input may block on I/O, and a strategy that
+        // doesn't override processStreamAsync() blocks until its
+        // cycle is done, so start each cycle on a cycle Thread.
+        return CompletableFuture
+            .supplyAsync(() -> {
+                    // Don't start any more cycles once the run's
+                    // deadline expires.
+                    if (mRunDeadline.isExpired()) {
+                        mComplete = false;
+                        return null;
+                    }
+
+                    List<URL> input;
+                    long cycle;
+                    synchronized (mInputLock) {
+                        input = getNextInput();
+                        cycle = currentCycle();
+                    }
+
+                    return input == null
+                        ? null // No more input, so this lane is done.
+                        : processCycleAsync(input, cycle);
+                },
+                mCycleExecutor)
+            .thenCompose(cycleDone -> cycleDone == null
+                         ? CompletableFuture.completedFuture(null)
+                         : cycleDone
+                           // A failed cycle doesn't stop the run.
+                           .handle((summary, exception) -> {
+                                   if (exception != null)
+                                       exception.printStackTrace();
+                                   return null;
+                               })
+                           .thenCompose(ignored -> processCyclesAsync()));
+    }
+
+    /**
+     * Cooperatively cancel the run: no more cycles are started, and
+     * the downloads, filterings, and writes in flight give up as soon
+     * as they notice.  The completion hook still runs.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mRunDeadline.cancel();
+    }
+
+    /**
+     * @return A summary of the results of the run so far.
+     */
+    public Summary getSummary() {
+        return new Summary(mImages.sum(),
+                           mFilteredImages.sum(),
+                           mFailures.sum(),
+                           mCancellations.sum(),
+                           mComplete && !mRunDeadline.isExpired());
+    }
+
+    /**
+     * Initiate the ImageStream processing for the current cycle,
+     * which runs on the calling Thread if cycles can't overlap and in
+     * the background otherwise.
      */
     @Override
     protected void initiateStream() {
-        // Create a new barrier for this iteration cycle.
-        mIterationBarrier = new CountDownLatch(1);
+        // Capture the input and number of this cycle, since the next
+        // cycle may replace them before this one is processed.
+        List<URL> input = getInput();
+        long cycle = currentCycle();
+
+        if (mCyclePermits == null)
+            mCyclePermits = new Semaphore(getCycleDepth());
+
+        // Barrier synchronizer that waits until fewer than
+        // getCycleDepth() cycles are being processed.
+        mCyclePermits.acquireUninterruptibly();
+
+        if (getCycleDepth() == 1)
+            processCycle(input, cycle);
+        else
+            mCycleExecutor.execute(() -> processCycle(input, cycle));
+    }
 
+    /**
+     * Process the @a input URLs as the given @a cycle, which uses a
+     * Java 8 stream to download, process, and store images.
+     */
+    private void processCycle(List<URL> input,
+                              long cycle) {
+        try {
+            // Wait for the cycle, which is usually done by the time
+            // processCycleAsync() returns.
+            processCycleAsync(input, cycle).join();
+        } finally {
+            // Indicate all computations in this cycle are done.
+            mCyclePermits.release();
+        }
+    }
+
+    /**
+     * Start processing the @a input URLs as the given @a cycle, which
+     * uses a Java 8 stream to download, process, and store images.
+     *
+     * @return A future that completes with the summary of the run so
+     * far once the cycle is done.
+     */
+    private CompletableFuture<Summary> processCycleAsync(List<URL> input,
+                                                         long cycle) {
+        // The cycle must be done by its own deadline and the run's.
+        Deadline cycleDeadline =
+            mRunDeadline.child(Options.instance().getCycleTimeoutMillis());
+
+        if (cycleDeadline.isExpired()) {
+            // There's no time left to start this cycle.
+            mCancellations.increment();
+            mComplete = false;
+            mJournal.endCycle(cycle, false);
+            return CompletableFuture.completedFuture(getSummary());
+        }
+
+        mJournal.beginCycle(cycle, input);
+        mCycleDeadlines.put(cycleDeadline, cycle);
         long start = System.nanoTime();
 
         // Start the Stream processing.
-        processStream();
+        return cycleDeadline
+            .call(() -> callCycle(input, cycle, this::processStreamAsync))
+            .whenComplete((summary, exception) -> {
+                    mCycleDeadlines.remove(cycleDeadline);
+                    mCycleNanos.recordSince(start);
+                    long duration = (System.nanoTime() - start) / 1_000_000;
+                    Log.d(TAG,
+                          "Cycle "
+                          + cycle
+                          + " done in " 
+                          + duration
+                          + " msecs");
 
-        long duration = (System.nanoTime() - start) / 1_000_000;
-        Log.d(TAG,
-              "Done in " 
-              + duration
-              + " msecs");
+                    if (cycleDeadline.isExpired()) {
+                        Log.w(TAG, "Cycle " + cycle + " was cut short by its deadline");
+                        mComplete = false;
+                    }
 
-        // Indicate all computations in this iteration are done.
-        try {
-            mIterationBarrier.countDown();
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        } 
+                    // The cycle is checkpointed in the journal once
+                    // its images are written.
+                    mJournal.endCycle(cycle,
+                                      exception == null && !cycleDeadline.isExpired());
+                });
     }
 
     /**
@@ -122,11 +561,16 @@ public abstract class ImageStream
     @Override
     protected void awaitTasksDone() {
         try {
-            // Loop for each iteration cycle of input URLs.
+            // Loop for each iteration cycle of input URLs.  Each call
+            // to initiateStream() waits until there's room for
+            // another cycle before starting it.
             for (;;) {
-                // Barrier synchronizer that waits until all the
-                // stream processing in this iteration cycle are done.
-                mIterationBarrier.await();
+                // Don't start any more cycles once the run's
+                // deadline expires.
+                if (mRunDeadline.isExpired()) {
+                    mComplete = false;
+                    break;
+                }
 
                 // Check to see if there's another List of URLs
                 // available to process.
@@ -138,38 +582,178 @@ public abstract class ImageStream
                     initiateStream();
             } 
 
-            // Only call the shutdown() and awaitTermination() methods
-            // if we've actually got an ExecutorService (as opposed to
-            // just an Executor).
-            if (getExecutor() instanceof ExecutorService) {
-                ExecutorService executorService = 
-                    (ExecutorService) getExecutor();
-
-                // Tell the ExecutorService to initiate a graceful
-                // shutdown.
-                executorService.shutdown();
-
-                // Wait for all the tasks in the Thread pool to
-                // complete.
-                executorService.awaitTermination(Long.MAX_VALUE,
-                                                 TimeUnit.NANOSECONDS);
+            // Barrier synchronizer that waits until all the stream
+            // processing in all the cycles is done, or until shortly
+            // after the run's deadline expires.
+            if (!mCyclePermits.tryAcquire(getCycleDepth(),
+                                          getWaitMillis(),
+                                          TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Cycles still running after the run's deadline");
+                mRunDeadline.cancel();
+                mComplete = false;
             }
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
 
+        finishRun();
+    }
+
+    /**
+     * Hook method that finishes the run when there's no input to
+     * process, e.g., since an earlier run already processed all of
+     * it, so the journal is still cleaned up and the completion hook
+     * still runs.
+     */
+    @Override
+    protected void finishWithoutInput() {
+        finishRun();
+    }
+
+    /**
+     * Finish the run once all its cycles are done (or cancelled) and
+     * then run the completion hook.
+     */
+    private void finishRun() {
+        try {
+            // Shutdown the Executor(s) and wait for their tasks to
+            // complete.
+            shutdownExecutors();
+
+            // Wait for the filtered images to be written.
+            ImageWriter.instance().flush();
+
+            // Nothing is left to resume if the run is complete.
+            mJournal.finish(getSummary().isComplete());
+
+            // Log the metrics of the run and export them to a file.
+            dumpMetrics();
+
+            // Stop reading input that won't be processed, e.g., if
+            // the run was cancelled.
+            if (mUrlListIterator instanceof Closeable)
+                ((Closeable) mUrlListIterator).close();
+        } catch (InterruptedException | IOException e) {
+            e.printStackTrace();
+        }
+
+        Log.d(TAG, "Run done: " + getSummary());
+
         // Run the completion hook now that all the image downloading,
-        // processing and storing is now complete.
+        // processing and storing is now complete (or cancelled).
         mCompletionHook.run();
     }
 
+    /**
+     * Register gauges that publish the state of the Executor, the
+     * ImageWriter, the caches, and the coalescing of work.
+     */
+    private void registerGauges() {
+        Metrics metrics = Metrics.instance();
+
+        metrics.gauge("io.pool.size", mIoExecutor::getCorePoolSize);
+        metrics.gauge("io.pool.queueDepth", () -> mIoExecutor.getQueue().size());
+        metrics.gauge("io.pool.growths", mIoExecutor::getGrowths);
+        metrics.gauge("io.pool.shrinks", mIoExecutor::getShrinks);
+        metrics.gauge("io.pool.throughput",
+                      () -> Math.round(mIoExecutor.getThroughput()));
+
+        ImageWriter writer = ImageWriter.instance();
+        metrics.gauge("write.queueDepth", writer::getQueueDepth);
+        metrics.gauge("write.maxQueueDepth", writer::getMaxQueueDepth);
+
+        ImageCache imageCache = ImageCache.instance();
+        metrics.gauge("imageCache.hits", imageCache::getHits);
+        metrics.gauge("imageCache.misses", imageCache::getMisses);
+        metrics.gauge("imageCache.evictions", imageCache::getEvictions);
+        metrics.gauge("imageCache.bytes", imageCache::size);
+
+        metrics.gauge("http.modified", () -> HttpCache.instance().getModified());
+        metrics.gauge("http.notModified", () -> HttpCache.instance().getNotModified());
+
+        metrics.gauge("download.coalesced", mImageFlights::getCoalesced);
+        metrics.gauge("filter.coalesced", mFilterFlights::getCoalesced);
+    }
+
+    /**
+     * Log the current metrics and export them to a hidden file in the
+     * output directory.
+     */
+    private void dumpMetrics() {
+        Metrics metrics = Metrics.instance();
+
+        for (String line : metrics.dump().split("\n"))
+            Log.d(TAG, line);
+
+        try {
+            metrics.export(new File(Options.instance().getDirectoryPath(),
+                                    METRICS_FILE_NAME));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hook method that shuts down the Executor used by this
+     * ImageStream, if it created it, and waits for all its tasks to
+     * complete.
+     * Subclasses that use additional Executors should override this
+     * method to shut them down too.
+     */
+    protected void shutdownExecutors() throws InterruptedException {
+        // All the cycles are done by now.
+        mCycleExecutor.shutdown();
+
+        // Only shut down the I/O thread pool made by the constructor,
+        // not an Executor a subclass's caller supplied in its place,
+        // which the caller still owns.
+        if (getExecutor() == mIoExecutor)
+            shutdownAndAwait(mIoExecutor);
+    }
+
+    /**
+     * Initiate a graceful shutdown of the @a executorService and wait
+     * for all its tasks to complete, but not past shortly after the
+     * run's deadline, at which point its Threads are interrupted.
+     */
+    protected void shutdownAndAwait(ExecutorService executorService)
+        throws InterruptedException {
+        // Tell the ExecutorService to initiate a graceful shutdown.
+        executorService.shutdown();
+
+        // Wait for all the tasks in the Thread pool to complete.
+        if (!executorService.awaitTermination(getWaitMillis(),
+                                              TimeUnit.MILLISECONDS)) {
+            mRunDeadline.cancel();
+            executorService.shutdownNow();
+            mComplete = false;
+        }
+    }
+
+    /**
+     * @return The milliseconds to wait for work to finish, i.e.,
+     * until shortly after the run's deadline, if it has one.
+     */
+    private long getWaitMillis() {
+        return mRunDeadline.isUnlimited()
+            ? Long.MAX_VALUE
+            : mRunDeadline.remainingMillis() + CANCEL_GRACE_MILLIS;
+    }
+
     /**
      * Factory method that returns the next List of URLs to download
      * and process concurrently by the ImageStream.
      */
     @Override
     protected List<URL> getNextInput() {
-        if (mUrlListIterator.hasNext()) {
+        if (mResumedInput != null) {
+            // Redo the cycle resume() stopped at, which it has
+            // already counted.
+            List<URL> input = mResumedInput;
+            mResumedInput = null;
+            return input;
+        }
+        else if (mUrlListIterator.hasNext()) {
             // Note that we're starting a new cycle.
             incrementCycle();
 
@@ -184,11 +768,140 @@ public abstract class ImageStream
 
     /**
      * Factory method that retrieves the image associated with the @a
-     * urlToDownload and creates an Image to encapsulate it.
+     * urlToDownload and creates an Image to encapsulate it, sharing
+     * the download of the same URL if it's already in flight.
      */
     protected Image makeImage(URL urlToDownload) {
-        return new Image(urlToDownload,
-                         NetUtils.downloadContent(urlToDownload));
+        // Give up on the image once its deadline expires.
+        Deadline deadline = makeImageDeadline();
+        if (deadline.isExpired())
+            return countImage(null, deadline);
+
+        // Reuse the decoded image if it's still in memory.
+        Image image =
+            ImageCache.instance().get(ImageCache.makeKey(urlToDownload));
+        if (image == null)
+            image = deadline.call(() ->
+                                  mImageFlights.run(urlToDownload.toString(),
+                                                    () -> downloadImage(urlToDownload)));
+
+        return countImage(image, deadline);
+    }
+
+    /**
+     * @return The deadline of a step of processing an image, which is
+     * nested in the current Deadline (e.g., the cycle's).
+     */
+    protected Deadline makeImageDeadline() {
+        return Deadline.current().child(Options.instance().getImageTimeoutMillis());
+    }
+
+    /**
+     * Count the @a image made under the @a deadline in the summary,
+     * as a failure or a cancellation if it's null.
+     *
+     * @return The @a image.
+     */
+    protected Image countImage(Image image,
+                               Deadline deadline) {
+        if (image != null)
+            mImages.increment();
+        else
+            countMissing(deadline);
+        return image;
+    }
+
+    /**
+     * Count the @a filteredImage made under the @a deadline in the
+     * summary, as a failure or a cancellation if it's null.
+     *
+     * @return The @a filteredImage.
+     */
+    protected Image countFilteredImage(Image filteredImage,
+                                       Deadline deadline) {
+        if (filteredImage != null)
+            mFilteredImages.increment();
+        else
+            countMissing(deadline);
+        return filteredImage;
+    }
+
+    /**
+     * Count a missing result as a cancellation if its @a deadline
+     * has expired, else as a failure.
+     */
+    private void countMissing(Deadline deadline) {
+        if (deadline.isExpired())
+            mCancellations.increment();
+        else
+            mFailures.increment();
+    }
+
+    /**
+     * Retrieves the image associated with the @a urlToDownload and
+     * creates an Image to encapsulate it, without coalescing, and
+     * caches the decoded image in memory.
+     */
+    protected Image downloadImage(URL urlToDownload) {
+        long start = System.nanoTime();
+        long permitWaitStart = DownloadClient.instance().getPermitWaitNanos();
+        long[] decodeNanos = new long[1];
+
+        // Decode the downloaded contents straight from the download
+        // buffer, or local files straight from disk, timing the
+        // decoding separately from the download.
+        Image image = NetUtils.downloadContent(urlToDownload,
+                                               new NetUtils.ContentDecoder<Image>() {
+                                                   @Override
+                                                   public Image decode(byte[] imageData,
+                                                                       int length) {
+                                                       mDownloadBytes.add(length);
+                                                       long decodeStart = System.nanoTime();
+                                                       try {
+                                                           return new Image(urlToDownload,
+                                                                            imageData,
+                                                                            length);
+                                                       } finally {
+                                                           decodeNanos[0] =
+                                                               System.nanoTime() - decodeStart;
+                                                       }
+                                                   }
+
+                                                   @Override
+                                                   public Image decode(FileInputStream file,
+                                                                       long length)
+                                                       throws IOException {
+                                                       mDownloadBytes.add(Math.max(0, length));
+                                                       long decodeStart = System.nanoTime();
+                                                       try {
+                                                           return new Image(urlToDownload,
+                                                                            file.getFD());
+                                                       } finally {
+                                                           decodeNanos[0] =
+                                                               System.nanoTime() - decodeStart;
+                                                       }
+                                                   }
+                                               });
+
+        // The time not spent decoding was spent waiting on I/O.  The
+        // time spent queued for a permit of the host isn't time more
+        // Threads could overlap, though, so the I/O thread pool is
+        // sized from the time spent waiting on the network alone.
+        long waitNanos = System.nanoTime() - start - decodeNanos[0];
+        long permitWaitNanos =
+            DownloadClient.instance().getPermitWaitNanos() - permitWaitStart;
+        mIoPoolSizer.record(Math.max(0, waitNanos - permitWaitNanos),
+                            decodeNanos[0]);
+        mDownloadNanos.record(waitNanos);
+        if (image == null)
+            mDownloadFailures.increment();
+        else
+            mDecodeNanos.record(decodeNanos[0]);
+
+        if (image != null && image.getImage() != null)
+            ImageCache.instance().put(ImageCache.makeKey(urlToDownload),
+                                      image);
+        return image;
     }
 
     /**
@@ -196,38 +909,288 @@ public abstract class ImageStream
      */
     protected FilterDecoratorWithImage makeFilterDecoratorWithImage(Filter filter,
                                                                     Image image) {
-        return new FilterDecoratorWithImage(new OutputFilterDecorator(filter),
+        return new FilterDecoratorWithImage(new OutputFilterDecorator(filter,
+                                                                      mJournal,
+                                                                      getDeadlineCycle()),
                                             image);
     }
 
     /**
-     * @return true if the @a url is in the cache, else false.
+     * Factory method that returns a FilterDecoratorWithImage that
+     * stores the @a filteredImage, which the @a filter has already
+     * produced, without filtering it again.
+     */
+    protected FilterDecoratorWithImage makeFilteredDecoratorWithImage(Filter filter,
+                                                                      Image filteredImage) {
+        return new FilterDecoratorWithImage(new OutputFilterDecorator(filter,
+                                                                      mJournal,
+                                                                      getDeadlineCycle()),
+                                            filteredImage,
+                                            true);
+    }
+
+    /**
+     * @return The cycle whose Deadline is the current Deadline or one
+     * it's nested in, else currentCycle().
+     */
+    protected long getDeadlineCycle() {
+        for (Deadline deadline = Deadline.current();
+             deadline != null;
+             deadline = deadline.getParent()) {
+            Long cycle = mCycleDeadlines.get(deadline);
+            if (cycle != null)
+                return cycle;
+        }
+
+        return currentCycle();
+    }
+
+    /**
+     * Filter the image of the @a filterDecoratorWithImage and store
+     * it in an output file, sharing the work if the same URL is
+     * already being filtered by the same filter.  The work is shared
+     * until the output file is written, so no one filters the image
+     * again because its output isn't there yet, but only the requests
+     * that share the work wait for the write.
+     */
+    protected Image filterImage(FilterDecoratorWithImage filterDecoratorWithImage) {
+        // Don't start filtering once the deadline expires.
+        Deadline deadline = makeImageDeadline();
+        if (deadline.isExpired())
+            return countFilteredImage(null, deadline);
+
+        return countFilteredImage
+            (deadline.call(() -> {
+                    Image[] filteredImage = new Image[1];
+                    CompletableFuture<Image> flight = mFilterFlights
+                        .execute(getFlightKey(filterDecoratorWithImage),
+                                 () -> {
+                                     filteredImage[0] = filterDecoratorWithImage.run();
+                                     return whenStored(filterDecoratorWithImage,
+                                                       filteredImage[0]);
+                                 });
+
+                    // This Thread needn't wait for the image it
+                    // filtered to be stored.
+                    return filteredImage[0] != null
+                        ? filteredImage[0]
+                        : flight.join();
+                }),
+             deadline);
+    }
+
+    /**
+     * @return A future that completes with the @a filteredImage once
+     * the @a filterDecoratorWithImage has stored it.
+     */
+    protected static CompletableFuture<Image> whenStored
+        (FilterDecoratorWithImage filterDecoratorWithImage,
+         Image filteredImage) {
+        return filterDecoratorWithImage
+            .whenDone()
+            .thenApply(stored -> filteredImage);
+    }
+
+    /**
+     * @return The key used to coalesce the filtering of the @a
+     * filterDecoratorWithImage, i.e., its URL and filter name.
+     */
+    protected static String getFlightKey(FilterDecoratorWithImage filterDecoratorWithImage) {
+        return filterDecoratorWithImage.mImage.getSourceURL()
+            + "\t"
+            + filterDecoratorWithImage.mFilterDecorator.getName();
+    }
+
+    /**
+     * Create a List of FilterDecoratorWithImage objects corresponding
+     * to the @a image parameter, one for each filter whose output is
+     * missing.  The filters that can be fused are applied now (see
+     * filterFused()), and the corresponding FilterDecoratorWithImage
+     * objects just store their outputs.
+     */
+    protected List<FilterDecoratorWithImage> makeFilterDecoratorsWithImage(Image image) {
+        // A failed or cancelled download has nothing to filter.
+        if (image == null)
+            return Collections.emptyList();
+
+        List<Filter> filters = getMissingFilters(image.getSourceURL());
+        Map<Filter, Image> fusedImages = filterFused(filters, image);
+
+        return filters
+            // Iterate through the filters whose output is missing.
+            .stream()
+
+            // Create an OutputDecoratedFilter for each image, which
+            // just stores the output of a fused filter in the
+            // directory of that filter.
+            .map(filter -> fusedImages.containsKey(filter)
+                 ? makeFilteredDecoratorWithImage(filter,
+                                                  fusedImages.get(filter))
+                 : makeFilterDecoratorWithImage(filter, image))
+
+            // Return a list of FilterDecoratorWithImage objects.
+            .collect(toList());
+    }
+
+    /**
+     * If two or more of the @a filters have a PixelKernel they are
+     * fused, i.e., their outputs are all computed now in a single
+     * pass over the @a image.
+     *
+     * @return The outputs of the fused filters, which is empty if
+     * there were fewer than two of them.
+     */
+    protected Map<Filter, Image> filterFused(List<Filter> filters,
+                                             Image image) {
+        List<PixelFilter> fusibleFilters = filters
+            // Iterate through the filters whose output is missing.
+            .stream()
+
+            // Only include filters that have a kernel.
+            .filter(filter -> filter instanceof PixelFilter
+                    && ((PixelFilter) filter).getKernel() != null)
+            .map(filter -> (PixelFilter) filter)
+            .collect(toList());
+
+        if (fusibleFilters.size() < 2)
+            return Collections.emptyMap();
+
+        // Apply all the fusible filters in one pass.
+        List<Image> fusedImages;
+        long start = System.nanoTime();
+        try {
+            fusedImages = PixelFilter.filterFused(fusibleFilters, image);
+        } finally {
+            mFusedFilterNanos.recordSince(start);
+        }
+
+        Map<Filter, Image> fusedImageMap = new HashMap<>();
+        for (int i = 0; i < fusibleFilters.size(); ++i)
+            fusedImageMap.put(fusibleFilters.get(i), fusedImages.get(i));
+        return fusedImageMap;
+    }
+
+    /**
+     * @return true if the output of the filter named @a filterName
+     * for the @a url, whose CacheIndex.hash() is @a urlHash, is in
+     * the cache, else false.  No syscall is made, since the
+     * CacheIndex checked the stored files when it was loaded.
      */
-    protected boolean urlCached(URL url, String filterName) {
-        // Construct the subdirectory for the filter.
-        File externalFile = new File(Options.instance().getDirectoryPath(),
-                                     filterName);
-        // Construct the filename for the URL.
-        File imageFile = new File(externalFile,
-                                  NetUtils.getFileNameForUrl(url));
-        // If the image file exists then the URL is cached.
-        return imageFile.exists();
+    protected boolean urlCached(URL url,
+                                String urlHash,
+                                String filterName) {
+        // Trust the in-memory cache index, which dropped the entries
+        // whose files were deleted when it was loaded.
+        if (CacheIndex.instance().contains(urlHash, filterName)) {
+            mCacheHits.increment();
+            return true;
+        }
+
+        // Construct the filename for the URL, which has the extension
+        // of the configured format.
+        String fileName =
+            Options.instance().getImageEncoder().getFileName(url);
+
+        // An earlier run that didn't finish may have journaled the
+        // image, in which case it's stored, so add it to the index.
+        long size = mJournal.take(urlHash, filterName);
+        if (size >= 0) {
+            CacheIndex.instance().putFile(url,
+                                          filterName,
+                                          fileName,
+                                          size);
+            mCacheHits.increment();
+            return true;
+        }
+
+        // If the image file was stored without an entry (e.g., before
+        // the index existed) then the URL is cached, so add it.
+        if (CacheIndex.instance().putUnindexedFile(url,
+                                                   filterName,
+                                                   fileName)) {
+            mCacheHits.increment();
+            return true;
+        }
+
+        mCacheMisses.increment();
+        return false;
     }
 
     /**
-     * @return true if the @a url is in the cache, else false.
+     * @return true if the output of every filter for the @a url is in
+     * the cache, else false, in which case getMissingFilters() says
+     * which filters still need to be applied.
      */
     protected boolean urlCached(URL url) {
-        // Iterate through the list of filters and concurrently check
-        // to see which ones are already cached.
+        // Hash the url once for all the filters.
+        String urlHash = CacheIndex.hash(url);
+
+        // Iterate through the list of filters and check to see which
+        // ones are already cached, which is cheap enough to do
+        // sequentially now that it's usually just an index lookup.
         long count = mFilters
-            .parallelStream()
+            .stream()
             .filter(filter -> 
-                    urlCached(url, filter.getName()))
+                    urlCached(url, urlHash, filter.getName()))
             .count();
 
-        // A count > 0 means the url has already been cached.
-        return count > 0;
+        return allCached(url, count);
+    }
+
+    /**
+     * @return true if all the filters' outputs for the @a url are
+     * cached, given that @a count of them are, and the image hasn't
+     * changed since, else false.
+     */
+    protected boolean allCached(URL url,
+                                long count) {
+        // Revalidate the url if any of its outputs are cached, even
+        // if only some are, since if it has changed its stale
+        // filtered images (and decoded image) are invalidated, so the
+        // missing filters aren't applied to the old image and the
+        // other filters are applied again.
+        return count > 0
+            && cacheCurrent(url)
+            && count == mFilters.size();
+    }
+
+    /**
+     * @return The filters whose output for the @a url isn't in the
+     * cache yet, in the order they were given.  This only looks in
+     * the CacheIndex, which urlCached() brings up to date with the
+     * stored files, so it's cheap enough to call for each image.
+     */
+    protected List<Filter> getMissingFilters(URL url) {
+        // Hash the url once for all the filters.
+        String urlHash = CacheIndex.hash(url);
+
+        List<Filter> missingFilters = mFilters
+            // Iterate through all the configured filters.
+            .stream()
+
+            // Only include filters whose output isn't stored.
+            .filter(filter ->
+                    !CacheIndex.instance().contains(urlHash, filter.getName()))
+            .collect(toList());
+
+        mFilterSkips.add(mFilters.size() - missingFilters.size());
+        return missingFilters;
+    }
+
+    /**
+     * @return true if the cached images of the @a url are still
+     * current, i.e., if revalidation is disabled or the server says
+     * the image hasn't changed, else false (in which case the stale
+     * images have been invalidated).
+     */
+    protected boolean cacheCurrent(URL url) {
+        if (!Options.instance().revalidateCache()
+            || HttpCache.instance().revalidate(url))
+            return true;
+
+        // The decoded image in memory is stale too.
+        ImageCache.instance().remove(ImageCache.makeKey(url));
+        return false;
     }
 
     /**
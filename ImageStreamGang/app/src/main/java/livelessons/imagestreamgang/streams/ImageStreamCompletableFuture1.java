@@ -5,6 +5,7 @@ import android.util.Log;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -47,6 +48,10 @@ public class ImageStreamCompletableFuture1
                 // Wait for all async operations to finish.
                 .map(CompletableFuture::join)
 
+                // Skip the images whose downloads failed or were
+                // cancelled.
+                .filter(Objects::nonNull)
+
                 // Map each image to a stream containing the filtered
                 // versions of the image.
                 .flatMap(this::applyFilters)
@@ -63,13 +68,14 @@ public class ImageStreamCompletableFuture1
     }
 
     /**
-     * Apply the filters in parallel to each @a image.
+     * Apply the filters whose output is missing in parallel to each
+     * @a image, fusing the ones that have a PixelKernel into a
+     * single pass.
      */
     private Stream<CompletableFuture<Image>> applyFilters(Image image) {
-        return mFilters.stream()
-                // Create a FilterDecoratorWithImage for each filter/image
-                // combo.
-                .map(filter -> makeFilterDecoratorWithImage(filter, image))
+        // Create a FilterDecoratorWithImage for each filter/image
+        // combo, which applies the fused filters.
+        return makeFilterDecoratorsWithImage(image).stream()
 
                 // Asynchronously filter the image and store it in an
                 // output file.
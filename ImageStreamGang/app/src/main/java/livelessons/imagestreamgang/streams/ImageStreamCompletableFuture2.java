@@ -9,8 +9,10 @@ import java.util.concurrent.CompletableFuture;
 
 import livelessons.imagestreamgang.filters.Filter;
 import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.Deadline;
 import livelessons.imagestreamgang.utils.FutureUtils;
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.ManagedBlockers;
 
 import static java.util.stream.Collectors.toList;
 
@@ -36,29 +38,44 @@ public class ImageStreamCompletableFuture2
      */
     @Override
     protected void processStream() {
+        // The Threads of the common fork-join pool and the Executors
+        // don't share the cycle's Deadline, so each task takes it
+        // along.
+        Deadline cycleDeadline = Deadline.current();
+
         final List<CompletableFuture<List<CompletableFuture<Image>>>> listOfFutures = getInput()
             // Concurrently process each URL in the input List.
             .parallelStream()
 
             // Only include URLs that have not been already cached.
-            .filter(not(this::urlCached))
+            // Checking may revalidate the cache over the network, so
+            // it's a managed block in the common fork-join pool.
+            .filter(not(url -> cycleDeadline.call(() ->
+                                                 ManagedBlockers.callBlocking(() -> urlCached(url)))))
 
             // Submit non-cached URLs for asynchronous downloading,
             // which returns a stream of unfiltered Image futures.
-            .map(this::makeImageAsync)
+            .map(url -> cycleDeadline.call(() -> makeImageAsync(url)))
 
             // After each future completes then apply the
-            // makeFilterDecoratorWithImage() method, which returns a
-            // List of FilterDecoratorWithImage objects stored in a
-            // future.
+            // makeFilterDecoratorWithImage() method, which fuses the
+            // filters that have a PixelKernel into a single pass and
+            // returns a List of FilterDecoratorWithImage objects
+            // stored in a future.  Fusing runs the filters, so it
+            // runs on the CPU Executor.
             .map(imageFuture ->
-                 imageFuture.thenApply(this::makeFilterDecoratorsWithImage))
+                 imageFuture.thenApplyAsync(image ->
+                                            cycleDeadline.call(() ->
+                                                               makeFilterDecoratorsWithImage(image)),
+                                            getCpuExecutor()))
 
             // After each future completes then compose the results
             // with the applyFiltersAsync() method, which returns a
             // list of filtered Image futures.
             .map(listFilterDecoratorsFuture ->
-                 listFilterDecoratorsFuture.thenCompose(this::applyFiltersAsync))
+                 listFilterDecoratorsFuture.thenCompose(decoratedFiltersWithImage ->
+                                                        cycleDeadline.call(() ->
+                                                                           applyFiltersAsync(decoratedFiltersWithImage))))
 
             // Terminate the stream, which returns a List of futures
             // to filtered Image futures.
@@ -84,22 +101,6 @@ public class ImageStreamCompletableFuture2
         }
     }
 
-    /**
-     * Create a List of FilterDecoratorWithImage objects corresponding
-     * to the @a image parameter.
-     */
-    private List<FilterDecoratorWithImage> makeFilterDecoratorsWithImage(Image image) {
-        return mFilters
-            // Iterate through all the configured filters.
-            .stream()
-
-            // Create an OutputDecoratedFilter for each image.
-            .map(filter -> makeFilterDecoratorWithImage(filter, image))
-
-            // Return a list of FilterDecoratorWithImage objects.
-            .collect(toList());
-    }
-
     /**
      * Asynchronously apply all the filters to each image.
      */
@@ -138,9 +139,10 @@ public class ImageStreamCompletableFuture2
             .map(this::makeImageAsync)
 
             // After each future completes then apply the
-            // makeFilterDecoratorWithImage() method, which returns a
-            // List of FilterDecoratorWithImage objects stored in a
-            // future.
+            // makeFilterDecoratorWithImage() method, which fuses the
+            // filters that have a PixelKernel into a single pass and
+            // returns a List of FilterDecoratorWithImage objects
+            // stored in a future.
             .map(imageFuture ->
                  imageFuture.thenApply(this::makeFilterDecoratorsWithImage))
 
@@ -0,0 +1,168 @@
+package livelessons.imagestreamgang.streams;
+
+import android.util.Log;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import livelessons.imagestreamgang.filters.Filter;
+import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.Deadline;
+import livelessons.imagestreamgang.utils.Image;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Customizes ImageStream to use Java 8 CompletableFutures to
+ * download, process, and store images concurrently without ever
+ * blocking.  Unlike ImageStreamCompletableFuture1, which joins each
+ * future inside the stream, and ImageStreamCompletableFuture2, which
+ * blocks the cycle's Thread until all the futures are done, each
+ * cycle is composed end to end from the download through the filters
+ * to the stores, so no pool Thread ever waits for another one.  The
+ * only steps that block, i.e., the downloads and handing the images
+ * to the ImageWriter, whose queue may be full, run on the I/O
+ * Executor, so no Thread of the CPU Executor ever parks.  Use
+ * runAsync() to run it without blocking the caller either.
+ */
+public class ImageStreamCompletableFuture3
+       extends ImageStreamCompletableFutureBase {
+    /**
+     * Constructor initializes the superclass and data members.
+     */
+    public ImageStreamCompletableFuture3(Filter[] filters,
+                                         Iterator<List<URL>> urlListIterator,
+                                         Runnable completionHook) {
+        super(filters, urlListIterator, completionHook);
+    }
+
+    /**
+     * Perform the ImageStream processing of the current cycle when
+     * it's run by run(), which blocks the cycle's Thread (but no pool
+     * Thread) until processStreamAsync() is done.
+     */
+    @Override
+    protected void processStream() {
+        processStreamAsync().join();
+    }
+
+    /**
+     * Start the ImageStream processing of the current cycle, which
+     * uses Java 8 CompletableFutures to download, process, and store
+     * images concurrently.
+     *
+     * @return A future that completes with the summary of the run so
+     * far once all the images of this cycle are stored.
+     */
+    @Override
+    protected CompletableFuture<Summary> processStreamAsync() {
+        // The Threads of the Executors don't share the cycle's
+        // Deadline, so each stage takes it along.
+        Deadline cycleDeadline = Deadline.current();
+
+        List<CompletableFuture<List<Image>>> listOfFutures = getInput()
+            // Process each URL in the input List.
+            .stream()
+
+            // Start processing each URL, which returns a future to
+            // its filtered Images.
+            .map(url -> processUrlAsync(url, cycleDeadline))
+
+            // Terminate the stream, which returns a List of futures
+            // to filtered Images.
+            .collect(toList());
+
+        // Compose a future that completes when all the URLs have been
+        // processed, rather than waiting for it.
+        return CompletableFuture
+            .allOf(listOfFutures.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> {
+                    // All the futures are done, so join() doesn't
+                    // block.
+                    int count = listOfFutures
+                        .stream()
+                        .mapToInt(future -> future.join().size())
+                        .sum();
+
+                    Log.d(TAG,
+                          "processing of "
+                          + count
+                          + " image(s) is complete");
+                    return getSummary();
+                });
+    }
+
+    /**
+     * Asynchronously download, filter, and store the image at @a url
+     * unless it's already cached, taking the @a cycleDeadline along
+     * to each stage.
+     *
+     * @return A future to the List of filtered Images.
+     */
+    private CompletableFuture<List<Image>> processUrlAsync(URL url,
+                                                           Deadline cycleDeadline) {
+        return CompletableFuture
+            // Checking whether the URL has already been cached may
+            // revalidate it over the network, so it's done on the I/O
+            // Executor.
+            .supplyAsync(() -> cycleDeadline.call(() -> urlCached(url)),
+                         getExecutor())
+
+            // Asynchronously download the image of non-cached URLs.
+            .thenCompose(cached -> cached
+                         ? CompletableFuture.<Image>completedFuture(null)
+                         : cycleDeadline.call(() -> makeImageAsync(url)))
+
+            // Fuse the filters that have a PixelKernel into a single
+            // pass, which runs the filters, so it runs on the CPU
+            // Executor.
+            .thenApplyAsync(image ->
+                            cycleDeadline.call(() ->
+                                               makeFilterDecoratorsWithImage(image)),
+                            getCpuExecutor())
+
+            // Asynchronously apply each filter and store the results.
+            .thenCompose(decoratedFiltersWithImage ->
+                         cycleDeadline.call(() ->
+                                            applyFiltersAsync(decoratedFiltersWithImage)))
+
+            // A failure only costs this URL its images.
+            .exceptionally(exception -> {
+                    exception.printStackTrace();
+                    return Collections.emptyList();
+                });
+    }
+
+    /**
+     * Asynchronously apply all the filters to each image.
+     *
+     * @return A future that completes with the filtered Images once
+     * they are all stored.
+     */
+    private CompletableFuture<List<Image>> applyFiltersAsync
+                (List<FilterDecoratorWithImage> decoratedFiltersWithImage) {
+        List<CompletableFuture<Image>> listOfFutures = decoratedFiltersWithImage
+            // Iterate through all the configured filters.
+            .stream()
+
+            // Asynchronously apply a filter to an Image.
+            .map(this::filterImageAsync)
+
+            // Collect the list of futures.
+            .collect(toList());
+
+        // Compose a future to the filtered Images that completes once
+        // all the filters are done, skipping the failed ones.
+        return CompletableFuture
+            .allOf(listOfFutures.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> listOfFutures
+                       .stream()
+                       .map(CompletableFuture::join)
+                       .filter(Objects::nonNull)
+                       .collect(toList()));
+    }
+}
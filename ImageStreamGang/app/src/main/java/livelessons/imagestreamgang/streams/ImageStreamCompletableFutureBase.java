@@ -4,44 +4,177 @@ import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import livelessons.imagestreamgang.filters.Filter;
 import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.Deadline;
+import livelessons.imagestreamgang.utils.FutureUtils;
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.ImageCache;
 
 /**
  * Base class that factors out common code and customizes ImageStream
  * to use Java 8 CompletableFutures to download, process, and store
- * images concurrently.
+ * images concurrently.  Downloads, which mostly block on I/O, run on
+ * the I/O Executor returned by getExecutor(), whereas filtering,
+ * which is CPU-bound, runs on a separate CPU Executor, so slow
+ * downloads can't starve the filters of Threads and the filters can't
+ * oversubscribe the processors.
  */
 public abstract class ImageStreamCompletableFutureBase
        extends ImageStream {
     /**
-     * Constructor initializes the superclass and data members.
+     * The Executor that filters the images.
+     */
+    private final Executor mCpuExecutor;
+
+    /**
+     * The CPU thread pool made by the constructor, or null if the
+     * caller supplied the CPU Executor.
+     */
+    private final ExecutorService mOwnCpuExecutor;
+
+    /**
+     * Constructor initializes the superclass and data members, using
+     * the I/O thread pool sized by ImageStream to download images and
+     * a pool with a Thread per processor to filter them.
      */
     public ImageStreamCompletableFutureBase(Filter[] filters,
                                         Iterator<List<URL>> urlListIterator,
                                         Runnable completionHook) {
+        this(filters,
+             urlListIterator,
+             completionHook,
+             null,
+             null);
+    }
+
+    /**
+     * Constructor initializes the superclass and data members, using
+     * the @a ioExecutor to download images and the @a cpuExecutor to
+     * filter them.  A null Executor is replaced by the default one.
+     * The Executors passed in still belong to the caller, so only the
+     * default ones are shut down once all the cycles are done.
+     */
+    public ImageStreamCompletableFutureBase(Filter[] filters,
+                                        Iterator<List<URL>> urlListIterator,
+                                        Runnable completionHook,
+                                        Executor ioExecutor,
+                                        Executor cpuExecutor) {
         super(filters, urlListIterator, completionHook);
+
+        if (ioExecutor != null) {
+            // The default I/O thread pool is no longer needed.
+            ((ExecutorService) getExecutor()).shutdown();
+            setExecutor(ioExecutor);
+        }
+
+        mOwnCpuExecutor = cpuExecutor == null
+            ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+            : null;
+        mCpuExecutor = cpuExecutor != null
+            ? cpuExecutor
+            : mOwnCpuExecutor;
     }
 
     /**
-     * Asynchronously download an Image from the @a url parameter.
+     * Returns the Executor that filters the images.
+     */
+    protected Executor getCpuExecutor() {
+        return mCpuExecutor;
+    }
+
+    /**
+     * Shut down the CPU Executor along with the I/O Executor, unless
+     * the caller supplied them, and wait for all their tasks to
+     * complete.
+     */
+    @Override
+    protected void shutdownExecutors() throws InterruptedException {
+        // Downloads hand their images to the filters, so shut down
+        // the I/O Executor first.
+        super.shutdownExecutors();
+
+        if (mOwnCpuExecutor != null)
+            shutdownAndAwait(mOwnCpuExecutor);
+    }
+
+    /**
+     * Asynchronously download an Image from the @a url parameter,
+     * sharing the download of the same URL if it's already in flight.
+     * The returned future completes with null if the download fails
+     * or its deadline, which is nested in the current Deadline,
+     * expires first.
      */
     protected CompletableFuture<Image> makeImageAsync(URL url) {
-        // Asynchronously download an Image from the url parameter.
-        return CompletableFuture.supplyAsync(() -> makeImage(url),
-                                             getExecutor());
+        // Give up on the image once its deadline expires.
+        Deadline deadline = makeImageDeadline();
+        if (deadline.isExpired())
+            return CompletableFuture.completedFuture(countImage(null, deadline));
+
+        // Reuse the decoded image if it's still in memory.
+        Image image = ImageCache.instance().get(ImageCache.makeKey(url));
+        if (image != null)
+            return CompletableFuture.completedFuture(countImage(image, deadline));
+
+        // Asynchronously download an Image from the url parameter on
+        // the I/O Executor.  The image is decoded there too, straight
+        // from the download buffer, which is only valid until the
+        // download is done.
+        // The I/O Thread doesn't share the caller's Deadline, so the
+        // download takes it along.
+        CompletableFuture<Image> download = mImageFlights
+            .execute(url.toString(),
+                     () -> CompletableFuture.supplyAsync(() ->
+                                                         deadline.call(() -> downloadImage(url)),
+                                                         getExecutor()));
+
+        // Don't wait for the download past its deadline.
+        return FutureUtils.within(download, deadline, null)
+            .thenApply(downloadedImage -> countImage(downloadedImage, deadline));
     }
 
     /**
-     * Asynchronously filter the image and store it in an output file.
+     * Asynchronously filter the image on the CPU Executor and store it
+     * in an output file from the I/O Executor, since handing it to the
+     * ImageWriter blocks while the write queue is full, sharing the
+     * work if the same URL is already being filtered by the same
+     * filter.  The returned future completes with null if
+     * the filtering fails or its deadline, which is nested in the
+     * current Deadline, expires first.
      */
     protected CompletableFuture<Image> filterImageAsync
         (FilterDecoratorWithImage filterDecoratorWithImage) {
-        // Asynchronously filter the image and store it in an output
-        // file.
-        return CompletableFuture.supplyAsync(filterDecoratorWithImage::run,
-                                             getExecutor());
+        // Don't start filtering once the deadline expires.
+        Deadline deadline = makeImageDeadline();
+        if (deadline.isExpired())
+            return CompletableFuture.completedFuture(countFilteredImage(null, deadline));
+
+        // Asynchronously filter the image on the CPU Executor and
+        // store it in an output file from the I/O Executor, taking
+        // the Deadline along.  The work is shared until the output
+        // file is written, so no one filters the image again because
+        // it isn't there yet.
+        CompletableFuture<Image> filtering = mFilterFlights
+            .execute(getFlightKey(filterDecoratorWithImage),
+                     () -> CompletableFuture
+                     .supplyAsync(() ->
+                                  deadline.call(filterDecoratorWithImage::filter),
+                                  mCpuExecutor)
+                     .thenApplyAsync(filteredImage ->
+                                     deadline.call(() ->
+                                                   filterDecoratorWithImage
+                                                   .decorate(filteredImage)),
+                                     getExecutor())
+                     .thenCompose(filteredImage ->
+                                  whenStored(filterDecoratorWithImage,
+                                             filteredImage)));
+
+        // Don't wait for the filtering past its deadline.
+        return FutureUtils.within(filtering, deadline, null)
+            .thenApply(filteredImage -> countFilteredImage(filteredImage, deadline));
     }
 }
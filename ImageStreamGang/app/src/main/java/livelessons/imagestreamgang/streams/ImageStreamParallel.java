@@ -5,12 +5,14 @@ import android.util.Log;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import livelessons.imagestreamgang.filters.Filter;
-import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.Deadline;
 import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.ManagedBlockers;
 
 /**
  * Customizes ImageStream to use a Java 8 parallelstream to
@@ -18,7 +20,9 @@ import livelessons.imagestreamgang.utils.Image;
  * parallelstream uses the default ForkJoinPool, which has as
  * many threads there are processors, as returned by
  * Runtime.getRuntime().availableProcessors().  The size of the
- * pool can be changed using system properties.
+ * pool can be changed using system properties.  Downloads block, so
+ * they run as ManagedBlockers, which keeps the pool's parallelism
+ * while they wait.
  */
 public class ImageStreamParallel 
        extends ImageStream {
@@ -38,20 +42,33 @@ public class ImageStreamParallel
      */
     @Override
     protected void processStream() {
+        // The common fork-join pool's Threads don't share the cycle's
+        // Deadline, so each task takes it along.
+        Deadline cycleDeadline = Deadline.current();
+
         List<Image> collect = getInput()
                 // Concurrently process each URL in the input List.
                 .parallelStream()
 
                 // Only include URLs that have not been already cached.
-                .filter(not(this::urlCached))
+                // Checking may revalidate the cache over the network,
+                // so it's a managed block, which lets the common
+                // fork-join pool add a spare Thread while it blocks.
+                .filter(not(url -> cycleDeadline.call(() ->
+                                                     ManagedBlockers.callBlocking(() -> urlCached(url)))))
 
                 // Transform URL -> Image (download each image via
-                // its URL).
-                .map(this::makeImage)
+                // its URL), also as a managed block.
+                .map(url -> cycleDeadline.call(() ->
+                                              ManagedBlockers.callBlocking(() -> makeImage(url))))
+
+                // Skip the images whose downloads failed or were
+                // cancelled.
+                .filter(Objects::nonNull)
 
                 // Map each image to a stream containing the filtered
                 // versions of the image.
-                .flatMap(this::applyFilters)
+                .flatMap(image -> applyFilters(image, cycleDeadline))
 
                 // Terminate the stream.
                 .collect(Collectors.toList());
@@ -62,17 +79,20 @@ public class ImageStreamParallel
     }
 
     /**
-     * Apply all the filters in parallel to each @a image.
+     * Apply the filters whose output is missing in parallel to each
+     * @a image under the @a cycleDeadline, fusing the ones that have
+     * a PixelKernel into a single pass.
      */
-    private Stream<Image> applyFilters(Image image) {
-        return mFilters
+    private Stream<Image> applyFilters(Image image,
+                                       Deadline cycleDeadline) {
+        // Create an OutputDecoratedFilter for each filter whose
+        // output is missing, which applies the fused filters.
+        return cycleDeadline.call(() -> makeFilterDecoratorsWithImage(image))
             // Apply each filter concurrently.
             .parallelStream()
 
-            // Create an OutputDecoratedFilter for each image.
-            .map(filter -> makeFilterDecoratorWithImage(filter, image))
-
             // Filter the image and store it in an output file.
-            .map(FilterDecoratorWithImage::run);
+            .map(filterDecoratorWithImage ->
+                 cycleDeadline.call(() -> filterImage(filterDecoratorWithImage)));
     }
 }
@@ -0,0 +1,266 @@
+package livelessons.imagestreamgang.streams;
+
+import android.util.Log;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import livelessons.imagestreamgang.filters.Filter;
+import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.BoundedPipeline;
+import livelessons.imagestreamgang.utils.Deadline;
+import livelessons.imagestreamgang.utils.Image;
+import livelessons.imagestreamgang.utils.Metrics;
+import livelessons.imagestreamgang.utils.Options;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Customizes ImageStream to download, process, and store images in a
+ * pipeline of three stages connected by bounded queues.  The
+ * download stage runs on the I/O-sized Executor inherited from
+ * ImageStream, and each cycle has its own BoundedPipeline with one
+ * filter worker per core and one store worker.  Since the queues
+ * are bounded, a stage that falls behind blocks the stage before it
+ * (backpressure), so slow network I/O never competes with CPU-bound
+ * filtering for Threads and the number of Images in memory stays
+ * flat regardless of how many URLs are processed.  The workers of
+ * overlapping cycles (see StreamGang.setCycleDepth()) never wait on
+ * each other, since a filter worker that shared a bounded pool with
+ * another cycle could block on a queue whose store worker never got
+ * a Thread.
+ */
+public class ImageStreamPipelined
+       extends ImageStream {
+    /**
+     * Number of Threads in the filter stage, which is CPU-bound.
+     */
+    private static final int FILTER_THREADS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Capacity of each bounded queue between the stages.
+     */
+    private static final int QUEUE_CAPACITY = 2 * FILTER_THREADS;
+
+    /**
+     * The depths of the queues between the stages, sampled on each
+     * put, and the failures of the filter stage, in the Metrics.
+     */
+    private final Metrics.Histogram mDownloadedQueueDepth =
+        Metrics.instance().histogram("pipeline.downloaded.queueDepth");
+    private final Metrics.Histogram mFilteredQueueDepth =
+        Metrics.instance().histogram("pipeline.filtered.queueDepth");
+    private final Metrics.Counter mFilterFailures =
+        Metrics.instance().counter("filter.failures");
+
+    /**
+     * Runs the filter and store workers of every cycle.  It's cached
+     * so each cycle gets Threads for all its workers, which are
+     * reused by later cycles.
+     */
+    private final ExecutorService mStageExecutor;
+
+    /**
+     * Constructor initializes the superclass and data members.
+     */
+    public ImageStreamPipelined(Filter[] filters,
+                                Iterator<List<URL>> urlListIterator,
+                                Runnable completionHook) {
+        super(filters, urlListIterator, completionHook);
+
+        // Initialize the Executor for the filter and store stages.
+        mStageExecutor = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Perform the ImageStream processing, which runs the download,
+     * filter, and store stages concurrently and waits for the store
+     * stage to drain before returning.
+     */
+    @Override
+    protected void processStream() {
+        // The Threads of the stages don't share the cycle's Deadline,
+        // so each stage takes it along.
+        Deadline cycleDeadline = Deadline.current();
+
+        // The filter and store stages are created anew for each cycle
+        // so one cycle never waits on the workers of another one.
+        BoundedPipeline<Image, FilterDecoratorWithImage> pipeline =
+            new BoundedPipeline<>(QUEUE_CAPACITY,
+                                  FILTER_THREADS,
+                                  (image, filteredImages) ->
+                                      applyFilters(image,
+                                                   filteredImages,
+                                                   cycleDeadline),
+                                  filteredImage ->
+                                      storeImage(filteredImage,
+                                                 cycleDeadline));
+
+        try {
+            // Start the filter and store stages.
+            pipeline.start(mStageExecutor);
+
+            try {
+                List<CompletableFuture<Void>> downloads = getInput()
+                    // Sequentially process each URL in the input List.
+                    .stream()
+
+                    // Only include URLs that have not been already
+                    // cached.
+                    .filter(not(this::urlCached))
+
+                    // Submit each URL to the download stage.
+                    .map(url -> CompletableFuture
+                         .runAsync(() -> cycleDeadline.run(() ->
+                                                           downloadImage(url, pipeline)),
+                                   getExecutor()))
+
+                    // Terminate the stream.
+                    .collect(toList());
+
+                // Wait for the download stage to finish.
+                downloads.forEach(CompletableFuture::join);
+            } finally {
+                // Tell the filter stage that there are no more Images
+                // and wait for the store stage to drain.
+                Log.d(TAG, "processing of "
+                      + pipeline.finish()
+                      + " image(s) is complete");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Download the image at @a url and put it in the filter stage of
+     * the @a pipeline, blocking if that stage is behind, unless the
+     * download failed or was cancelled.
+     */
+    private void downloadImage(URL url,
+                               BoundedPipeline<Image, FilterDecoratorWithImage> pipeline) {
+        Image image;
+
+        try {
+            // Transform URL -> Image (download the image via its URL).
+            image = makeImage(url);
+        } catch (Exception e) {
+            // Skip this URL, but keep the rest of the pipeline going.
+            e.printStackTrace();
+            return;
+        }
+
+        if (image == null)
+            return;
+
+        try {
+            pipeline.put(image);
+            mDownloadedQueueDepth.record(pipeline.getInputDepth());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Apply the filters whose output is missing to the @a image,
+     * fusing the ones that have a PixelKernel into a single pass, and
+     * put the results in the @a filteredImages queue of the store
+     * stage.  Once the @a cycleDeadline expires the image is just
+     * skipped.
+     */
+    private void applyFilters(Image image,
+                              BlockingQueue<? super FilterDecoratorWithImage> filteredImages,
+                              Deadline cycleDeadline)
+        throws InterruptedException {
+        List<Filter> filters = getMissingFilters(image.getSourceURL());
+        Map<Filter, Image> fusedImages;
+
+        try {
+            fusedImages =
+                cycleDeadline.child(Options.instance().getImageTimeoutMillis())
+                .call(() -> filterFused(filters, image));
+        } catch (Exception e) {
+            // Apply the filters one at a time instead.
+            e.printStackTrace();
+            mFilterFailures.increment();
+            fusedImages = Collections.emptyMap();
+        }
+
+        for (Filter filter : filters)
+            try {
+                // Don't start filtering once the deadline of this
+                // step expires.
+                Deadline deadline =
+                    cycleDeadline.child(Options.instance().getImageTimeoutMillis());
+                if (deadline.isExpired())
+                    countFilteredImage(null, deadline);
+                else {
+                    // Filter the image and pass it to the store
+                    // stage, which stores it in the directory of
+                    // this filter.
+                    Image filteredImage = fusedImages.containsKey(filter)
+                        ? fusedImages.get(filter)
+                        : applyFilter(filter, image, deadline);
+
+                    // The store stage journals the image as part of
+                    // the cycle whose Deadline is current here.
+                    filteredImages.put
+                        (cycleDeadline.call(() ->
+                                            makeFilteredDecoratorWithImage(filter,
+                                                                           filteredImage)));
+                    mFilteredQueueDepth.record(filteredImages.size());
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // Skip this filter, but keep the rest of the pipeline
+                // going.
+                e.printStackTrace();
+                mFilterFailures.increment();
+            }
+    }
+
+    /**
+     * Apply the @a filter to the @a image with @a deadline as the
+     * current Deadline.
+     */
+    private Image applyFilter(Filter filter,
+                              Image image,
+                              Deadline deadline) {
+        return deadline.call(() -> filter.filter(image));
+    }
+
+    /**
+     * Store the @a filteredImage in an output file, as long as the @a
+     * cycleDeadline hasn't expired.
+     *
+     * @return true if the Image is stored, else false.
+     */
+    private boolean storeImage(FilterDecoratorWithImage filteredImage,
+                               Deadline cycleDeadline) {
+        // Queue the filtered image to be stored in an output file by
+        // the ImageWriter.
+        return cycleDeadline.call(() -> filterImage(filteredImage)) != null;
+    }
+
+    /**
+     * Shutdown the Executors of all three stages and wait for their
+     * tasks to complete.
+     */
+    @Override
+    protected void shutdownExecutors() throws InterruptedException {
+        // Shutdown the download stage.
+        super.shutdownExecutors();
+
+        // Shutdown the filter and store stages.
+        shutdownAndAwait(mStageExecutor);
+    }
+}
@@ -5,10 +5,11 @@ import android.util.Log;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 import livelessons.imagestreamgang.filters.Filter;
-import livelessons.imagestreamgang.filters.FilterDecoratorWithImage;
+import livelessons.imagestreamgang.utils.CacheIndex;
 import livelessons.imagestreamgang.utils.Image;
 
 import static java.util.stream.Collectors.toList;
@@ -45,6 +46,10 @@ public class ImageStreamSequential
             // its URL).
             .map(this::makeImage)
 
+            // Skip the images whose downloads failed or were
+            // cancelled.
+            .filter(Objects::nonNull)
+
             // Map each image to a stream containing the filtered
             // versions of the image.
             .flatMap(this::applyFilters)
@@ -58,35 +63,41 @@ public class ImageStreamSequential
     }
 
     /**
-     * @return true if the @a url is already in the cache, else false.
+     * @return true if the output of every filter for the @a url is
+     * already in the cache, else false.
      */
     @Override
     protected boolean urlCached(URL url) {
+        // Hash the url once for all the filters.
+        String urlHash = CacheIndex.hash(url);
+
         // Iterate through the list of filters and sequentially check
         // to see which ones are already cached.
         long count = mFilters
             .stream()
             .filter(filter ->
-                    urlCached(url, filter.getName()))
+                    urlCached(url, urlHash, filter.getName()))
             .count();
 
-        // A count > 0 means the url has already been cached.
-        return count > 0;
+        // The url is done if all its outputs are cached, unless it
+        // has changed since.
+        return allCached(url, count);
     }
 
     /**
-     * Apply the filters to each @a image sequentially.
+     * Apply the filters whose output is missing to each @a image
+     * sequentially, fusing the ones that have a PixelKernel into a
+     * single pass.
      */
     private Stream<Image> applyFilters(Image image) {
-        return mFilters
+        // Create an OutputDecoratedFilter for each filter whose
+        // output is missing, which applies the fused filters.
+        return makeFilterDecoratorsWithImage(image)
             // Iterate through the list of filters and apply each
             // filter sequentially.
             .stream()
 
-            // Create an OutputDecoratedFilter for each image.
-            .map(filter -> makeFilterDecoratorWithImage(filter, image))
-
             // Filter the image and store it in an output file.
-            .map(FilterDecoratorWithImage::run);
+            .map(this::filterImage);
     }
 }
@@ -1,8 +1,10 @@
 package livelessons.imagestreamgang.streams;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Defines a framework for initiating Streams that process input from
@@ -32,10 +34,32 @@ public abstract class StreamGang<E>
     private final AtomicLong mCurrentCycle = new AtomicLong(0);
 
     /**
-     * Get the List to use as input.
+     * The maximum number of cycles that can be processed
+     * concurrently, which defaults to 1, i.e., each cycle must finish
+     * before the next one starts.
+     */
+    private volatile int mCycleDepth = 1;
+
+    /**
+     * The input List of the cycle run by the calling Thread via
+     * runCycle(), which is needed since overlapping cycles can't all
+     * share mInput.
+     */
+    private final ThreadLocal<List<E>> mCycleInput = new ThreadLocal<>();
+
+    /**
+     * The number of the cycle run by the calling Thread via
+     * runCycle().
+     */
+    private final ThreadLocal<Long> mCycle = new ThreadLocal<>();
+
+    /**
+     * Get the List to use as input, which is the input of the cycle
+     * run by the calling Thread (if any).
      */
     protected List<E> getInput() {
-        return mInput;
+        List<E> cycleInput = mCycleInput.get();
+        return cycleInput != null ? cycleInput : mInput;
     }
 
     /**
@@ -67,10 +91,62 @@ public abstract class StreamGang<E>
     }
 
     /**
-     * Return the current cycle.
+     * Return the current cycle, which is the cycle run by the calling
+     * Thread (if any).
      */
     protected long currentCycle() {
-        return mCurrentCycle.get();
+        Long cycle = mCycle.get();
+        return cycle != null ? cycle : mCurrentCycle.get();
+    }
+
+    /**
+     * Set the maximum number of cycles that can be processed
+     * concurrently.
+     */
+    public void setCycleDepth(int cycleDepth) {
+        if (cycleDepth < 1)
+            throw new IllegalArgumentException("cycleDepth must be >= 1");
+        mCycleDepth = cycleDepth;
+    }
+
+    /**
+     * Get the maximum number of cycles that can be processed
+     * concurrently.
+     */
+    public int getCycleDepth() {
+        return mCycleDepth;
+    }
+
+    /**
+     * Run the @a cycleTask on the calling Thread as the given @a
+     * cycle, so calls to getInput() and currentCycle() it makes
+     * return @a input and @a cycle even if other cycles are running.
+     */
+    protected void runCycle(List<E> input,
+                            long cycle,
+                            Runnable cycleTask) {
+        callCycle(input, cycle, () -> {
+                cycleTask.run();
+                return null;
+            });
+    }
+
+    /**
+     * Call the @a cycleTask on the calling Thread as the given @a
+     * cycle, like runCycle(), and return its result, e.g., a future
+     * that completes once the cycle's work is done on other Threads.
+     */
+    protected <T> T callCycle(List<E> input,
+                              long cycle,
+                              Supplier<T> cycleTask) {
+        mCycleInput.set(input);
+        mCycle.set(cycle);
+        try {
+            return cycleTask.get();
+        } finally {
+            mCycleInput.remove();
+            mCycle.remove();
+        }
     }
 
     /**
@@ -90,12 +166,43 @@ public abstract class StreamGang<E>
      */
     protected abstract void awaitTasksDone();
 
+    /**
+     * Hook method called by run() instead of initiateStream() and
+     * awaitTasksDone() when there's no input to process at all, e.g.,
+     * since resume() skipped all of it, so a subclass can still
+     * finish the run.  By default it's a no-op.
+     */
+    protected void finishWithoutInput() {
+    }
+
+    /**
+     * Hook method that returns the number of cycles an earlier run
+     * that didn't finish has already processed, which is 0 unless a
+     * subclass keeps track of its progress.
+     */
+    protected long getCheckpoint() {
+        return 0;
+    }
+
+    /**
+     * Skip the input of the cycles up to getCheckpoint(), so a
+     * restarted run resumes where the earlier one left off.
+     */
+    protected void resume() {
+        long skipped = 0;
+        while (skipped < getCheckpoint() && getNextInput() != null)
+            ++skipped;
+    }
+
     /**
      * Template method that creates/executes all the tasks in the
      * gang.
      */
     @Override
     public void run() {
+        // Skip the input an earlier run has already processed.
+        resume();
+
         // Invoke hook method to get initial List of input data to
         // process.
         if (setInput(getNextInput()) != null) {
@@ -104,6 +211,22 @@ public abstract class StreamGang<E>
 
             // Invoke hook method to wait for all the tasks to exit.
             awaitTasksDone();
-        }            
+        }
+        else
+            // Invoke hook method to finish the run anyway.
+            finishWithoutInput();
+    }
+
+    /**
+     * Asynchronous counterpart of the run() template method, which
+     * returns at once rather than blocking the calling Thread.  By
+     * default it just runs run() in the common fork-join pool, so
+     * subclasses whose tasks never block should override it.
+     *
+     * @return A future that completes once all the tasks in the gang
+     * are done.
+     */
+    public CompletableFuture<?> runAsync() {
+        return CompletableFuture.runAsync(this);
     }
 }
@@ -0,0 +1,99 @@
+package livelessons.imagestreamgang.streams;
+
+/**
+ * Summarizes the results of an ImageStream run, which may be partial
+ * if the run was cancelled or its deadline expired, so whoever is
+ * told the run is done knows how much of it actually got done.
+ */
+public class Summary {
+    /**
+     * The number of images downloaded (or found in memory).
+     */
+    private final long mImages;
+
+    /**
+     * The number of filtered images produced.
+     */
+    private final long mFilteredImages;
+
+    /**
+     * The number of downloads and filterings that failed.
+     */
+    private final long mFailures;
+
+    /**
+     * The number of downloads, filterings, and cycles that were
+     * cancelled, e.g., since their deadlines expired.
+     */
+    private final long mCancellations;
+
+    /**
+     * True if every cycle of input was processed in time, else false.
+     */
+    private final boolean mComplete;
+
+    /**
+     * Constructor initializes the data members.
+     */
+    public Summary(long images,
+                   long filteredImages,
+                   long failures,
+                   long cancellations,
+                   boolean complete) {
+        mImages = images;
+        mFilteredImages = filteredImages;
+        mFailures = failures;
+        mCancellations = cancellations;
+        mComplete = complete;
+    }
+
+    /**
+     * Returns the number of images downloaded (or found in memory).
+     */
+    public long getImages() {
+        return mImages;
+    }
+
+    /**
+     * Returns the number of filtered images produced.
+     */
+    public long getFilteredImages() {
+        return mFilteredImages;
+    }
+
+    /**
+     * Returns the number of downloads and filterings that failed.
+     */
+    public long getFailures() {
+        return mFailures;
+    }
+
+    /**
+     * Returns the number of downloads, filterings, and cycles that
+     * were cancelled.
+     */
+    public long getCancellations() {
+        return mCancellations;
+    }
+
+    /**
+     * Returns true if every cycle of input was processed in time,
+     * else false, in which case the results are partial.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    @Override
+    public String toString() {
+        return mImages
+            + " image(s), "
+            + mFilteredImages
+            + " filtered image(s), "
+            + mFailures
+            + " failure(s), "
+            + mCancellations
+            + " cancellation(s)"
+            + (mComplete ? "" : " (partial)");
+    }
+}
@@ -0,0 +1,340 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * A thread pool that adapts its size to the workload rather than
+ * being hand-tuned per device.  The tasks it completes are counted in
+ * sampling windows, and at the end of each window a hill-climbing
+ * Controller compares the throughput with that of the previous
+ * window: while a change in size raises the throughput it keeps
+ * changing the size the same way, and once the throughput falls it
+ * turns around.  When the throughput is flat it moves toward an
+ * optional estimate, e.g., a Little's-law estimate from the ratio of
+ * blocked to running time made by a PoolSizer, and when there's no
+ * backlog and Threads are idle it shrinks.  A timer ends each window
+ * on time, so the pool still grows when all its Threads are stuck
+ * and no task completes.  Every resize is reported to a Listener,
+ * along with the reason for it.
+ */
+public class AdaptiveExecutor
+       extends ThreadPoolExecutor {
+    /**
+     * Is told about each resize of the pool.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called when the pool is resized from @a oldSize to @a
+         * newSize Threads after completing tasks at the rate of @a
+         * throughput per second, for the given @a reason.
+         */
+        void onResize(int oldSize,
+                      int newSize,
+                      double throughput,
+                      String reason);
+    }
+
+    /**
+     * Decides the size of the pool for the next sampling window from
+     * the throughput of the last one by hill climbing.
+     */
+    static class Controller {
+        /**
+         * A change in throughput within this fraction is considered
+         * noise rather than an effect of the change in size.
+         */
+        static final double TOLERANCE = 0.05;
+
+        /**
+         * The smallest and largest size of the pool.
+         */
+        private final int mMinSize;
+        private final int mMaxSize;
+
+        /**
+         * The throughput of the previous window, or 0 before the
+         * first one.
+         */
+        private double mLastThroughput;
+
+        /**
+         * The way the size is being changed: +1 to grow or -1 to
+         * shrink.
+         */
+        private int mDirection = 1;
+
+        /**
+         * The reason for the last decision.
+         */
+        private String mReason = "";
+
+        /**
+         * Constructor initializes the data members.
+         */
+        Controller(int minSize,
+                   int maxSize) {
+            mMinSize = minSize;
+            mMaxSize = maxSize;
+        }
+
+        /**
+         * @return The size of the pool for the next window, given its
+         * current @a size, the @a throughput of the last window,
+         * whether tasks were @a queued waiting for a Thread, the @a
+         * peakActive number of busy Threads, and the @a estimate of
+         * the best size (0 if there is none).
+         */
+        int decide(int size,
+                   double throughput,
+                   boolean queued,
+                   int peakActive,
+                   int estimate) {
+            double lastThroughput = mLastThroughput;
+            mLastThroughput = throughput;
+
+            int newSize;
+            if (!queued && peakActive < size) {
+                // More Threads than work, so give one back.
+                mDirection = -1;
+                newSize = size - 1;
+                mReason = "idle";
+            } else if (queued && throughput == 0) {
+                // Every Thread is stuck while work waits, so add one.
+                mDirection = 1;
+                newSize = size + 1;
+                mReason = "stalled";
+            } else if (lastThroughput == 0) {
+                // Nothing to compare with yet, so probe.
+                newSize = size + mDirection;
+                mReason = "probe";
+            } else if (throughput < lastThroughput * (1 - TOLERANCE)) {
+                // The last change hurt, so undo it.
+                mDirection = -mDirection;
+                newSize = size + mDirection;
+                mReason = "throughput fell";
+            } else if (throughput > lastThroughput * (1 + TOLERANCE)) {
+                // The last change helped, so keep going.
+                newSize = size + mDirection;
+                mReason = "throughput rose";
+            } else if (estimate > 0 && estimate != size) {
+                // No clear effect, so move toward the estimate.
+                mDirection = Integer.signum(estimate - size);
+                newSize = size + mDirection;
+                mReason = "toward estimate";
+            } else {
+                newSize = size;
+                mReason = "steady";
+            }
+
+            return Math.max(mMinSize, Math.min(mMaxSize, newSize));
+        }
+
+        /**
+         * Returns the reason for the last decision.
+         */
+        String getReason() {
+            return mReason;
+        }
+    }
+
+    /**
+     * Ends the sampling windows of all the pools on time, even when
+     * none of their tasks complete.
+     */
+    private static final ScheduledExecutorService sTicker =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AdaptiveExecutor-tick");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The timer tick that ends this pool's sampling windows.
+     */
+    private final ScheduledFuture<?> mTick;
+
+    /**
+     * The length of a sampling window.
+     */
+    private final long mWindowNanos;
+
+    /**
+     * Estimates the best size of the pool, or null if there's no
+     * estimate.
+     */
+    private final IntSupplier mEstimate;
+
+    /**
+     * Is told about each resize, or null if nobody is listening.
+     */
+    private final Listener mListener;
+
+    /**
+     * Decides the size of the pool.
+     */
+    private final Controller mController;
+
+    /**
+     * The start of the current window, the tasks completed in it, and
+     * the most Threads that were busy at once in it.
+     */
+    private volatile long mWindowStart = System.nanoTime();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicInteger mPeakActive = new AtomicInteger();
+
+    /**
+     * The number of times the pool grew and shrank, and the
+     * throughput of the last window.
+     */
+    private final AtomicLong mGrowths = new AtomicLong();
+    private final AtomicLong mShrinks = new AtomicLong();
+    private volatile double mThroughput;
+
+    /**
+     * Constructor initializes the pool to @a initialSize Threads,
+     * which it adapts within @a minSize and @a maxSize every @a
+     * windowMillis, using the @a estimate (which may be null) and
+     * telling the @a listener (which may be null) about each resize.
+     */
+    public AdaptiveExecutor(int minSize,
+                            int maxSize,
+                            int initialSize,
+                            long windowMillis,
+                            IntSupplier estimate,
+                            Listener listener) {
+        super(Math.max(minSize, Math.min(maxSize, initialSize)),
+              Math.max(minSize, Math.min(maxSize, initialSize)),
+              0L,
+              TimeUnit.MILLISECONDS,
+              new LinkedBlockingQueue<>());
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mEstimate = estimate;
+        mListener = listener;
+        mController = new Controller(minSize, maxSize);
+
+        // Adapt at the end of every window, not just when a task
+        // happens to complete after it.
+        mTick = sTicker.scheduleAtFixedRate(this::tick,
+                                            windowMillis,
+                                            windowMillis,
+                                            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of times the pool grew.
+     */
+    public long getGrowths() {
+        return mGrowths.get();
+    }
+
+    /**
+     * Returns the number of times the pool shrank.
+     */
+    public long getShrinks() {
+        return mShrinks.get();
+    }
+
+    /**
+     * Returns the tasks completed per second in the last window.
+     */
+    public double getThroughput() {
+        return mThroughput;
+    }
+
+    /**
+     * Hook method that keeps track of the most Threads busy at once.
+     */
+    @Override
+    protected void beforeExecute(Thread thread,
+                                 Runnable task) {
+        super.beforeExecute(thread, task);
+        mPeakActive.accumulateAndGet(getActiveCount(), Math::max);
+    }
+
+    /**
+     * Hook method that counts the completed task and adapts the size
+     * of the pool at the end of each window.
+     */
+    @Override
+    protected void afterExecute(Runnable task,
+                                Throwable exception) {
+        super.afterExecute(task, exception);
+        mCompleted.incrementAndGet();
+
+        if (System.nanoTime() - mWindowStart >= mWindowNanos)
+            adapt();
+    }
+
+    /**
+     * Hook method that stops the timer tick once the pool is done.
+     */
+    @Override
+    protected void terminated() {
+        super.terminated();
+        mTick.cancel(false);
+    }
+
+    /**
+     * Called by the timer at the end of each window, which ends it
+     * unless a completing task already did so.
+     */
+    private void tick() {
+        if (!isShutdown())
+            adapt();
+    }
+
+    /**
+     * Decide the size of the pool from the window that just ended and
+     * start the next one.
+     */
+    private synchronized void adapt() {
+        long now = System.nanoTime();
+        long elapsed = now - mWindowStart;
+
+        // Another Thread already ended this window.
+        if (elapsed < mWindowNanos)
+            return;
+
+        double throughput = mCompleted.getAndSet(0) * 1e9 / elapsed;
+        int peakActive = mPeakActive.getAndSet(getActiveCount());
+        mWindowStart = now;
+        mThroughput = throughput;
+
+        int size = getCorePoolSize();
+        int newSize =
+            mController.decide(size,
+                               throughput,
+                               !getQueue().isEmpty(),
+                               peakActive,
+                               mEstimate != null ? mEstimate.getAsInt() : 0);
+        if (newSize == size)
+            return;
+
+        // The core size can't exceed the maximum size, so change
+        // them in the order that keeps it that way.
+        if (newSize > size) {
+            setMaximumPoolSize(newSize);
+            setCorePoolSize(newSize);
+            mGrowths.incrementAndGet();
+        } else {
+            setCorePoolSize(newSize);
+            setMaximumPoolSize(newSize);
+            mShrinks.incrementAndGet();
+        }
+
+        if (mListener != null)
+            mListener.onResize(size,
+                               newSize,
+                               throughput,
+                               mController.getReason());
+    }
+}
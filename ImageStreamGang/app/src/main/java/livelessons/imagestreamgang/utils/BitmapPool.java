@@ -0,0 +1,190 @@
+package livelessons.imagestreamgang.utils;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A pool of mutable Bitmaps that have been persisted and can be
+ * reused, either as the output of a filter or via
+ * BitmapFactory.Options.inBitmap as the target of a decode, rather
+ * than allocating (and garbage collecting) a new Bitmap for each
+ * image.  Bitmaps are bucketed by the power of two at or below their
+ * allocation size, so any Bitmap in a bucket is big enough for a
+ * request rounded up to that bucket.  The pool is bounded by the
+ * total bytes of its Bitmaps and evicts the least recently released
+ * ones first.  This class implements the Singleton pattern.
+ */
+public class BitmapPool {
+    /**
+     * The number of buckets, i.e., one per power of two that fits in
+     * an int.
+     */
+    private static final int BUCKETS = 32;
+
+    /**
+     * The maximum total bytes of the Bitmaps in the pool.
+     */
+    private static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+    /** The singleton @a BitmapPool instance. */
+    private static BitmapPool mUniqueInstance = null;
+
+    /**
+     * The pooled Bitmaps, indexed by the log2 of their allocation
+     * size rounded down.
+     */
+    private final List<Deque<Bitmap>> mBuckets;
+
+    /**
+     * All the pooled Bitmaps, least recently released first.
+     */
+    private final Deque<Bitmap> mLru = new ArrayDeque<>();
+
+    /**
+     * The total bytes of the Bitmaps in the pool.
+     */
+    private long mBytes;
+
+    /**
+     * The number of requests satisfied from and not from the pool.
+     */
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized BitmapPool instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new BitmapPool();
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor initializes the buckets.
+     */
+    private BitmapPool() {
+        mBuckets = new ArrayList<>(BUCKETS);
+        for (int i = 0; i < BUCKETS; ++i)
+            mBuckets.add(new ArrayDeque<>());
+    }
+
+    /**
+     * @return A mutable @a width x @a height Bitmap with the given @a
+     * config, which is reused from the pool if possible.  Its pixels
+     * are undefined.
+     */
+    public Bitmap get(int width,
+                      int height,
+                      Bitmap.Config config) {
+        Bitmap bitmap = take(width * height * bytesPerPixel(config));
+
+        if (bitmap == null)
+            return Bitmap.createBitmap(width, height, config);
+
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * @return A Bitmap from the pool whose allocation is at least @a
+     * bytes, which can be used as BitmapFactory.Options.inBitmap, or
+     * null if there is none.
+     */
+    public synchronized Bitmap take(int bytes) {
+        int bucket = ceilLog2(bytes);
+
+        // Only look one bucket up so small images don't tie up big
+        // Bitmaps.
+        for (int i = bucket; i < Math.min(bucket + 2, BUCKETS); ++i) {
+            Bitmap bitmap = mBuckets.get(i).pollLast();
+            if (bitmap != null) {
+                mLru.remove(bitmap);
+                mBytes -= bitmap.getAllocationByteCount();
+                ++mHits;
+                return bitmap;
+            }
+        }
+
+        ++mMisses;
+        return null;
+    }
+
+    /**
+     * Give the @a bitmap back to the pool, which must only be done
+     * once it's no longer used, e.g., after it has been persisted.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+            return;
+
+        int bytes = bitmap.getAllocationByteCount();
+        if (bytes > MAX_BYTES)
+            return;
+
+        mBuckets.get(floorLog2(bytes)).addLast(bitmap);
+        mLru.addLast(bitmap);
+        mBytes += bytes;
+
+        // Evict the least recently released Bitmaps until the pool
+        // fits.
+        for (Iterator<Bitmap> lru = mLru.iterator();
+             mBytes > MAX_BYTES && lru.hasNext();
+             ) {
+            Bitmap evicted = lru.next();
+            int evictedBytes = evicted.getAllocationByteCount();
+
+            lru.remove();
+            mBuckets.get(floorLog2(evictedBytes)).remove(evicted);
+            mBytes -= evictedBytes;
+        }
+    }
+
+    /**
+     * Returns the number of requests satisfied from the pool.
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of requests not satisfied from the pool.
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return The number of bytes per pixel of a Bitmap with the
+     * given @a config.
+     */
+    public static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8)
+            return 1;
+        else if (config == Bitmap.Config.RGB_565
+                 || config == Bitmap.Config.ARGB_4444)
+            return 2;
+        else
+            return 4;
+    }
+
+    /**
+     * @return The log2 of @a bytes rounded down.
+     */
+    private static int floorLog2(int bytes) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(bytes, 1));
+    }
+
+    /**
+     * @return The log2 of @a bytes rounded up.
+     */
+    private static int ceilLog2(int bytes) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+    }
+}
@@ -0,0 +1,193 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * The transform and consume stages of a pipeline that are connected
+ * to its producers and to each other by bounded queues.  Producers
+ * put() inputs in the first queue, a given number of transform
+ * workers take them and put their outputs in the second queue, and a
+ * single consume worker takes those.  Since the queues are bounded,
+ * a stage that falls behind blocks the stage before it
+ * (backpressure).  Each pipeline has its own workers and queues, so
+ * several pipelines (e.g., one per cycle) can run at once without
+ * waiting on each other's workers, which could deadlock since a
+ * worker may block until the next stage of its own pipeline makes
+ * progress.
+ */
+public class BoundedPipeline<I, O> {
+    /**
+     * Transforms each input into zero or more outputs.
+     */
+    public interface Transformer<I, O> {
+        /**
+         * Transform the @a input, putting the outputs in the @a
+         * output queue, which blocks while the consume stage is
+         * behind.
+         */
+        void transform(I input,
+                       BlockingQueue<? super O> output)
+            throws InterruptedException;
+    }
+
+    /**
+     * Queued after the inputs for each transform worker, and after
+     * the outputs by each transform worker once it's done.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The queues between the producers and the transform stage and
+     * between the transform and consume stages.
+     */
+    private final BlockingQueue<Object> mInputs;
+    private final BlockingQueue<Object> mOutputs;
+
+    /**
+     * The number of transform workers.
+     */
+    private final int mTransformers;
+
+    /**
+     * Transforms the inputs into outputs.
+     */
+    private final Transformer<I, O> mTransformer;
+
+    /**
+     * Consumes each output, returning true if it counts as consumed.
+     */
+    private final Predicate<O> mConsumer;
+
+    /**
+     * Completes with the number of outputs consumed once the consume
+     * worker is done.
+     */
+    private final CompletableFuture<Integer> mConsumed =
+        new CompletableFuture<>();
+
+    /**
+     * Constructor initializes the data members.  Both queues hold at
+     * most @a capacity elements, and @a transformers workers run the
+     * @a transformer.
+     */
+    public BoundedPipeline(int capacity,
+                           int transformers,
+                           Transformer<I, O> transformer,
+                           Predicate<O> consumer) {
+        mInputs = new ArrayBlockingQueue<>(capacity);
+        mOutputs = new ArrayBlockingQueue<>(capacity);
+        mTransformers = transformers;
+        mTransformer = transformer;
+        mConsumer = consumer;
+    }
+
+    /**
+     * Start the transform and consume workers on the @a executor,
+     * which must be able to run all of them at once, e.g., a cached
+     * thread pool, since they block on each other.
+     */
+    public void start(Executor executor) {
+        executor.execute(this::consume);
+
+        for (int i = 0; i < mTransformers; ++i)
+            executor.execute(this::transform);
+    }
+
+    /**
+     * Put the @a input in the queue of the transform stage, blocking
+     * while that stage is behind.
+     */
+    public void put(I input) throws InterruptedException {
+        mInputs.put(input);
+    }
+
+    /**
+     * Returns the number of inputs waiting to be transformed.
+     */
+    public int getInputDepth() {
+        return mInputs.size();
+    }
+
+    /**
+     * Tell the transform workers that there are no more inputs and
+     * wait for the consume worker to drain the outputs.
+     *
+     * @return The number of outputs consumed.
+     */
+    public int finish() throws InterruptedException {
+        for (int i = 0; i < mTransformers; ++i)
+            mInputs.put(END);
+
+        try {
+            return mConsumed.get();
+        } catch (ExecutionException e) {
+            // The consume worker never fails, but be safe.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * The loop run by each transform worker, which transforms inputs
+     * until it's told there are no more.
+     */
+    @SuppressWarnings("unchecked")
+    private void transform() {
+        try {
+            try {
+                for (Object input; (input = mInputs.take()) != END; )
+                    try {
+                        mTransformer.transform((I) input, mOutputs);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        // Skip this input, but keep the rest of the
+                        // pipeline going.
+                        e.printStackTrace();
+                    }
+            } finally {
+                // Always tell the consume worker this worker is done
+                // so it doesn't wait forever.
+                mOutputs.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop run by the consume worker, which consumes outputs until
+     * all the transform workers are done.
+     */
+    @SuppressWarnings("unchecked")
+    private void consume() {
+        int consumed = 0;
+
+        try {
+            for (int running = mTransformers; running > 0; ) {
+                Object output = mOutputs.take();
+
+                if (output == END)
+                    --running;
+                else
+                    try {
+                        if (mConsumer.test((O) output))
+                            ++consumed;
+                    } catch (RuntimeException e) {
+                        // Skip this output, but keep draining the
+                        // queue so the transform stage never blocks
+                        // forever.
+                        e.printStackTrace();
+                    }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mConsumed.complete(consumed);
+    }
+}
@@ -0,0 +1,129 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte arrays whose sizes are powers of two, which lets
+ * downloads reuse their buffers rather than allocating (and garbage
+ * collecting) new ones for each image.  Each size keeps at most a few
+ * buffers, and the pool is bounded by the total bytes of its buffers
+ * (a small fraction of the heap), so it never holds on to much
+ * memory.  This class implements the Singleton pattern.
+ */
+public class BufferPool {
+    /**
+     * The log2 of the smallest and largest pooled buffer sizes (4 KB
+     * and 16 MB).  Larger buffers are allocated but never pooled.
+     */
+    private static final int MIN_SIZE_LOG2 = 12;
+    private static final int MAX_SIZE_LOG2 = 24;
+
+    /**
+     * The maximum number of buffers of each size in the pool.
+     */
+    private static final int BUFFERS_PER_SIZE = 4;
+
+    /**
+     * The default maximum total bytes of the buffers in the pool,
+     * which leaves most of the heap to the BitmapPool and the
+     * ImageCache.
+     */
+    private static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 32;
+
+    /** The singleton @a BufferPool instance. */
+    private static BufferPool mUniqueInstance = null;
+
+    /**
+     * The pooled buffers, indexed by the log2 of their size minus
+     * MIN_SIZE_LOG2.
+     */
+    private final List<BlockingQueue<byte[]>> mBuffers;
+
+    /**
+     * The maximum total bytes of the buffers in the pool.
+     */
+    private final long mMaxBytes;
+
+    /**
+     * The total bytes of the buffers in the pool.
+     */
+    private final AtomicLong mBytes = new AtomicLong();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized BufferPool instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new BufferPool();
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor initializes the pool of each size.
+     */
+    BufferPool() {
+        this(MAX_BYTES);
+    }
+
+    /**
+     * Constructor initializes the pool of each size, which together
+     * hold at most @a maxBytes.
+     */
+    BufferPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mBuffers = new ArrayList<>(MAX_SIZE_LOG2 - MIN_SIZE_LOG2 + 1);
+        for (int i = MIN_SIZE_LOG2; i <= MAX_SIZE_LOG2; ++i)
+            mBuffers.add(new ArrayBlockingQueue<>(BUFFERS_PER_SIZE));
+    }
+
+    /**
+     * @return A buffer whose length is at least @a minSize, which
+     * should be given back via release() when it's no longer used.
+     */
+    public byte[] acquire(int minSize) {
+        int sizeLog2 = sizeLog2(minSize);
+
+        if (sizeLog2 > MAX_SIZE_LOG2)
+            return new byte[minSize];
+
+        byte[] buffer = mBuffers.get(sizeLog2 - MIN_SIZE_LOG2).poll();
+        if (buffer == null)
+            return new byte[1 << sizeLog2];
+
+        mBytes.addAndGet(-buffer.length);
+        return buffer;
+    }
+
+    /**
+     * Give the @a buffer back to the pool, which drops it if the pool
+     * already holds enough buffers of its size or would grow past
+     * its maximum total bytes.
+     */
+    public void release(byte[] buffer) {
+        int sizeLog2 = sizeLog2(buffer.length);
+
+        // Only buffers allocated by acquire() are pooled.
+        if (sizeLog2 > MAX_SIZE_LOG2 || buffer.length != 1 << sizeLog2)
+            return;
+
+        // Reserve the buffer's bytes first, so concurrent releases
+        // can't take the pool past its maximum together.
+        if (mBytes.addAndGet(buffer.length) > mMaxBytes
+            || !mBuffers.get(sizeLog2 - MIN_SIZE_LOG2).offer(buffer))
+            mBytes.addAndGet(-buffer.length);
+    }
+
+    /**
+     * @return The log2 of the smallest pooled size that's at least
+     * @a size.
+     */
+    private static int sizeLog2(int size) {
+        return Math.max(MIN_SIZE_LOG2,
+                        32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    }
+}
@@ -0,0 +1,544 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory index of the filtered images stored in the cache,
+ * keyed by the hash of their source URL and the name of the filter
+ * that produced them.  The index is loaded at startup from an
+ * append-only manifest file and every change is appended to it, so
+ * checking whether an image is cached costs a hash map lookup rather
+ * than a File.exists() syscall.  The stored files are listed once
+ * when the index is loaded, which drops the entries whose files have
+ * been deleted since and keeps track of the files stored without an
+ * entry, e.g., before the index existed.  Each entry also records
+ * the file name, size, ETag, Last-Modified time, and timestamp of the
+ * image, which can be used to revalidate and invalidate it.  This
+ * class implements the Singleton pattern.
+ */
+public class CacheIndex {
+    /**
+     * The name of the manifest file, which is stored in the
+     * directory given by Options.getDirectoryPath().
+     */
+    private static final String MANIFEST_NAME = ".ImageStreamGangCache";
+
+    /**
+     * Prefixes of the records in the manifest.
+     */
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+
+    /**
+     * The manifest is compacted when it is loaded if it contains more
+     * than this many records per entry.
+     */
+    private static final int COMPACTION_RATIO = 2;
+
+    /** The singleton @a CacheIndex instance. */
+    private static CacheIndex mUniqueInstance = null;
+
+    /**
+     * The metadata of an image stored in the cache.
+     */
+    public static class Entry {
+        /**
+         * The name of the file the image is stored in, within the
+         * directory of its filter, or null if it's unknown.
+         */
+        private final String mFileName;
+
+        /**
+         * The size of the stored image in bytes.
+         */
+        private final long mSize;
+
+        /**
+         * The ETag of the source image, or null if it's unknown.
+         */
+        private final String mETag;
+
+        /**
+         * The Last-Modified time of the source image in milliseconds
+         * since the epoch, or 0 if it's unknown.
+         */
+        private final long mLastModified;
+
+        /**
+         * The time the image was stored, in milliseconds since the
+         * epoch.
+         */
+        private final long mTimestamp;
+
+        /**
+         * Constructor initializes the fields.
+         */
+        public Entry(long size, String eTag, long timestamp) {
+            this(size, eTag, 0, timestamp);
+        }
+
+        /**
+         * Constructor initializes the fields.
+         */
+        public Entry(long size,
+                     String eTag,
+                     long lastModified,
+                     long timestamp) {
+            this(null, size, eTag, lastModified, timestamp);
+        }
+
+        /**
+         * Constructor initializes the fields.
+         */
+        public Entry(String fileName,
+                     long size,
+                     String eTag,
+                     long lastModified,
+                     long timestamp) {
+            mFileName = fileName;
+            mSize = size;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mTimestamp = timestamp;
+        }
+
+        /**
+         * Returns the name of the file the image is stored in, within
+         * the directory of its filter, or null if it's unknown.
+         */
+        public String getFileName() {
+            return mFileName;
+        }
+
+        /**
+         * Returns the size of the stored image in bytes.
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * Returns the ETag of the source image, or null if it's
+         * unknown.
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * Returns the Last-Modified time of the source image in
+         * milliseconds since the epoch, or 0 if it's unknown.
+         */
+        public long getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Returns the time the image was stored, in milliseconds
+         * since the epoch.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+
+    /**
+     * The entries in the index.
+     */
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * The files stored without an entry when the index was loaded,
+     * as "filterName/fileName".
+     */
+    private final Set<String> mUnindexedFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The manifest file.
+     */
+    private final File mManifest;
+
+    /**
+     * Appends records to the manifest file.
+     */
+    private Writer mManifestWriter;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance,
+     * loading the index from its manifest the first time it's called.
+     */
+    public static synchronized CacheIndex instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new CacheIndex(new File(Options.instance().getDirectoryPath(),
+                                        MANIFEST_NAME));
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor loads the index from the @a manifest file.
+     */
+    CacheIndex(File manifest) {
+        mManifest = manifest;
+        load();
+    }
+
+    /**
+     * @return The entry for the image produced by the filter named
+     * @a filterName from the @a url, or null if it's not cached.
+     */
+    public Entry get(URL url, String filterName) {
+        return mEntries.get(makeKey(url, filterName));
+    }
+
+    /**
+     * @return true if the image produced by the filter named @a
+     * filterName from the @a url is cached, else false.
+     */
+    public boolean contains(URL url, String filterName) {
+        return contains(hash(url), filterName);
+    }
+
+    /**
+     * @return true if the image produced by the filter named @a
+     * filterName from the URL whose hash() is @a urlHash is cached,
+     * else false.  Hashing the URL once for all its filters saves
+     * computing the same hash over and over.
+     */
+    public boolean contains(String urlHash, String filterName) {
+        return mEntries.containsKey(urlHash + '\t' + filterName);
+    }
+
+    /**
+     * Record that the image produced by the filter named @a
+     * filterName from the @a url is cached.
+     */
+    public void put(URL url,
+                    String filterName,
+                    long size,
+                    String eTag) {
+        put(url, filterName, size, eTag, 0);
+    }
+
+    /**
+     * Record that the image produced by the filter named @a
+     * filterName from the @a url is cached, along with the validators
+     * of the source image.
+     */
+    public void put(URL url,
+                    String filterName,
+                    long size,
+                    String eTag,
+                    long lastModified) {
+        put(makeKey(url, filterName),
+            new Entry(size,
+                      eTag,
+                      lastModified,
+                      System.currentTimeMillis()));
+    }
+
+    /**
+     * Record the @a entry under the @a key.
+     */
+    private void put(String key,
+                     Entry entry) {
+        mEntries.put(key, entry);
+        append(PUT + '\t' + key + '\t' + toRecord(entry));
+    }
+
+    /**
+     * Record that the image produced by the filter named @a
+     * filterName from the @a url is cached in the file named @a
+     * fileName within the directory of the filter, so the entry is
+     * dropped if the file is deleted.
+     */
+    public void putFile(URL url,
+                        String filterName,
+                        String fileName,
+                        long size) {
+        put(makeKey(url, filterName),
+            new Entry(fileName, size, null, 0, System.currentTimeMillis()));
+    }
+
+    /**
+     * Record that the image produced by the filter named @a
+     * filterName from the @a url is cached if it's stored in the file
+     * named @a fileName, which had no entry when the index was
+     * loaded.
+     *
+     * @return true if the file was stored without an entry, which it
+     * has now, else false.
+     */
+    public boolean putUnindexedFile(URL url,
+                                    String filterName,
+                                    String fileName) {
+        if (!mUnindexedFiles.remove(filterName + '/' + fileName))
+            return false;
+
+        File file = new File(new File(mManifest.getParentFile(), filterName),
+                             fileName);
+        putFile(url, filterName, fileName, file.length());
+        return true;
+    }
+
+    /**
+     * Record that the image produced by the filter named @a
+     * filterName from the @a url is no longer cached.
+     */
+    public void remove(URL url, String filterName) {
+        String key = makeKey(url, filterName);
+
+        if (mEntries.remove(key) != null)
+            append(REMOVE + '\t' + key);
+    }
+
+    /**
+     * @return The names of the filters whose images produced from the
+     * @a url are cached.
+     */
+    public List<String> getFilterNames(URL url) {
+        String prefix = hash(url) + '\t';
+
+        List<String> filterNames = new ArrayList<>();
+        for (String key : mEntries.keySet())
+            if (key.startsWith(prefix))
+                filterNames.add(key.substring(prefix.length()));
+        return filterNames;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The key of the image produced by the filter named @a
+     * filterName from the @a url.
+     */
+    private static String makeKey(URL url, String filterName) {
+        return hash(url) + '\t' + filterName;
+    }
+
+    /**
+     * @return The SHA-1 hash of the @a url as a hex String, which
+     * keys its images.
+     */
+    public static String hash(URL url) {
+        return hash(url.toString());
+    }
+
+    /**
+     * @return The SHA-1 hash of the @a text as a hex String.
+     */
+    static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest
+                .getInstance("SHA-1")
+                .digest(text.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hash = new StringBuilder(2 * digest.length);
+            for (byte b : digest)
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return The @a entry as the fields of a manifest record, where
+     * the ETag is last since it may contain tabs.
+     */
+    private static String toRecord(Entry entry) {
+        return entry.getSize()
+            + "\t"
+            + entry.getTimestamp()
+            + "\t"
+            + entry.getLastModified()
+            + "\t"
+            + (entry.getFileName() != null ? entry.getFileName() : "")
+            + "\t"
+            + (entry.getETag() != null ? entry.getETag() : "");
+    }
+
+    /**
+     * Load the index from the manifest, compacting it if it has too
+     * many records, and open it for appending.
+     */
+    private void load() {
+        int records = 0;
+
+        if (mManifest.exists())
+            try (BufferedReader reader =
+                 new BufferedReader(new InputStreamReader
+                                    (new FileInputStream(mManifest),
+                                     StandardCharsets.UTF_8))) {
+                for (String line; (line = reader.readLine()) != null; ++records)
+                    try {
+                        // A record is the operation, the URL hash, the
+                        // filter name, and (for puts) the entry
+                        // fields, which only include the file name
+                        // in records appended since it was added.
+                        String[] fields = line.split("\t", 8);
+
+                        if (fields.length == 8 && fields[0].equals(PUT))
+                            mEntries.put(fields[1] + '\t' + fields[2],
+                                         new Entry(fields[6].isEmpty() ? null : fields[6],
+                                                   Long.parseLong(fields[3]),
+                                                   fields[7].isEmpty() ? null : fields[7],
+                                                   Long.parseLong(fields[5]),
+                                                   Long.parseLong(fields[4])));
+                        else if (fields.length == 7 && fields[0].equals(PUT))
+                            mEntries.put(fields[1] + '\t' + fields[2],
+                                         new Entry(Long.parseLong(fields[3]),
+                                                   fields[6].isEmpty() ? null : fields[6],
+                                                   Long.parseLong(fields[5]),
+                                                   Long.parseLong(fields[4])));
+                        else if (fields.length == 3 && fields[0].equals(REMOVE))
+                            mEntries.remove(fields[1] + '\t' + fields[2]);
+                    } catch (NumberFormatException e) {
+                        // A torn record is expected if the process
+                        // died while appending it, so skip it but
+                        // keep reading the records after it.
+                        e.printStackTrace();
+                    }
+            } catch (IOException e) {
+                // Keep what was read.
+                e.printStackTrace();
+            }
+
+        // Drop the entries whose files have been deleted.
+        List<String> staleKeys = scan();
+
+        try {
+            boolean compacted = records > COMPACTION_RATIO * mEntries.size();
+            if (compacted)
+                compact();
+
+            mManifest.getParentFile().mkdirs();
+            mManifestWriter =
+                new OutputStreamWriter(new FileOutputStream(mManifest, true),
+                                       StandardCharsets.UTF_8);
+
+            // Terminate a torn last record so it isn't merged with
+            // the next one.
+            if (endsWithTornRecord())
+                append("");
+
+            // A compacted manifest already lacks the stale entries.
+            if (!compacted)
+                for (String key : staleKeys)
+                    append(REMOVE + '\t' + key);
+        } catch (IOException e) {
+            // Keep working from memory.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * List the files stored in the directory of each filter once,
+     * removing the entries whose files are gone and keeping track of
+     * the files that have no entry.
+     *
+     * @return The keys of the removed entries.
+     */
+    private List<String> scan() {
+        File[] filterDirectories =
+            mManifest.getParentFile().listFiles(File::isDirectory);
+        if (filterDirectories != null)
+            for (File filterDirectory : filterDirectories) {
+                String[] fileNames = filterDirectory.list();
+                if (fileNames != null)
+                    for (String fileName : fileNames)
+                        mUnindexedFiles.add(filterDirectory.getName()
+                                            + '/'
+                                            + fileName);
+            }
+
+        // An entry whose file name is unknown is trusted.
+        List<String> staleKeys = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            String key = entry.getKey();
+            String fileName = entry.getValue().getFileName();
+            String filterName = key.substring(key.indexOf('\t') + 1);
+
+            if (fileName != null
+                && !mUnindexedFiles.remove(filterName + '/' + fileName))
+                staleKeys.add(key);
+        }
+
+        for (String key : staleKeys)
+            mEntries.remove(key);
+        return staleKeys;
+    }
+
+    /**
+     * @return true if the last record of the manifest isn't
+     * terminated by a newline, else false.
+     */
+    private boolean endsWithTornRecord() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mManifest, "r")) {
+            if (file.length() == 0)
+                return false;
+
+            file.seek(file.length() - 1);
+            return file.read() != '\n';
+        }
+    }
+
+    /**
+     * Rewrite the manifest so it contains a single record per entry.
+     */
+    private void compact() throws IOException {
+        File compacted = new File(mManifest.getPath() + ".tmp");
+
+        try (Writer writer =
+             new OutputStreamWriter(new FileOutputStream(compacted),
+                                    StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet())
+                writer.write(PUT
+                             + '\t'
+                             + entry.getKey()
+                             + '\t'
+                             + toRecord(entry.getValue())
+                             + '\n');
+        }
+
+        if (!compacted.renameTo(mManifest))
+            throw new IOException("unable to replace " + mManifest);
+    }
+
+    /**
+     * Append the @a record to the manifest.
+     */
+    private synchronized void append(String record) {
+        if (mManifestWriter != null)
+            try {
+                mManifestWriter.write(record + '\n');
+                mManifestWriter.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+}
@@ -0,0 +1,85 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * A buffer from the BufferPool that contents are downloaded (or read)
+ * into, which grows by doubling if need be.  It must be given back
+ * via release() once its contents have been decoded.
+ */
+class ContentBuffer {
+    /**
+     * The size of the buffer if the size of the contents isn't
+     * known.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The size of the largest buffer that can be allocated, which is
+     * a little less than Integer.MAX_VALUE on some VMs.
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * The buffer and the number of bytes of contents in it.
+     */
+    byte[] mBuffer;
+    int mLength;
+
+    /**
+     * Read the contents of @a istream, whose size is @a
+     * contentLength (or unknown if it's not positive), into the
+     * buffer, giving up with an InterruptedIOException once the
+     * current Deadline expires.
+     */
+    void read(InputStream istream,
+              long contentLength) throws IOException {
+        BufferPool bufferPool = BufferPool.instance();
+        Deadline deadline = Deadline.current();
+
+        // Presize the buffer from the Content-Length so it
+        // (usually) never has to grow.
+        mBuffer = bufferPool.acquire
+            (contentLength > 0
+             ? (int) Math.min(contentLength, MAX_BUFFER_SIZE - 1) + 1
+             : BUFFER_SIZE);
+
+        // While there is unread data from the inputStream,
+        // continue reading it into the buffer.
+        for (int bytes;
+             (bytes = istream.read(mBuffer,
+                                   mLength,
+                                   mBuffer.length - mLength)) > 0;
+             ) {
+            mLength += bytes;
+
+            // Stop trickling in bytes once there's no time left.
+            if (deadline.isExpired())
+                throw new InterruptedIOException("deadline expired");
+
+            // Double the size of the buffer if it's full, without
+            // overflowing an int for contents of 1 GB or more.
+            if (mLength == mBuffer.length) {
+                if (mLength == MAX_BUFFER_SIZE)
+                    throw new IOException("contents too large");
+
+                byte[] largerBuffer = bufferPool.acquire
+                    ((int) Math.min(2L * mLength, MAX_BUFFER_SIZE));
+                System.arraycopy(mBuffer, 0, largerBuffer, 0, mLength);
+                bufferPool.release(mBuffer);
+                mBuffer = largerBuffer;
+            }
+        }
+    }
+
+    /**
+     * Give the buffer back to the BufferPool.
+     */
+    void release() {
+        if (mBuffer != null)
+            BufferPool.instance().release(mBuffer);
+        mBuffer = null;
+    }
+}
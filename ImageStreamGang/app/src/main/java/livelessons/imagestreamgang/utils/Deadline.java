@@ -0,0 +1,170 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A point in time by which some work, e.g., a run, a cycle, or the
+ * processing of an image, must be done, which can also be cancelled
+ * early.  Deadlines nest: a child Deadline expires when its own time
+ * is up or its parent expires, so cancelling a run also cancels its
+ * cycles and images.  Cancellation is cooperative: the work checks
+ * the Deadline that's current on its Thread (see call()) before and
+ * while doing anything slow and gives up once it has expired.
+ */
+public class Deadline {
+    /**
+     * A Deadline that never expires, which can't be cancelled.
+     */
+    public static final Deadline NONE = new Deadline(null, Long.MAX_VALUE);
+
+    /**
+     * The Deadline of the work running on the calling Thread.
+     */
+    private static final ThreadLocal<Deadline> mCurrent = new ThreadLocal<>();
+
+    /**
+     * The Deadline this one is nested in, or null if there is none.
+     */
+    private final Deadline mParent;
+
+    /**
+     * When this Deadline expires, as returned by System.nanoTime(),
+     * or Long.MAX_VALUE if it has no time limit of its own.
+     */
+    private final long mExpiresNanos;
+
+    /**
+     * True once this Deadline has been cancelled.
+     */
+    private volatile boolean mCancelled;
+
+    /**
+     * Constructor initializes the data members.
+     */
+    private Deadline(Deadline parent,
+                     long expiresNanos) {
+        mParent = parent;
+        mExpiresNanos = expiresNanos;
+    }
+
+    /**
+     * @return A Deadline that expires @a millis from now, or has no
+     * time limit if @a millis isn't positive.
+     */
+    public static Deadline after(long millis) {
+        return NONE.child(millis);
+    }
+
+    /**
+     * @return The Deadline of the work running on the calling Thread,
+     * or NONE if there is none.
+     */
+    public static Deadline current() {
+        Deadline deadline = mCurrent.get();
+        return deadline != null ? deadline : NONE;
+    }
+
+    /**
+     * @return A Deadline nested in this one that expires @a millis
+     * from now (or when this one expires, if that's sooner), or only
+     * when this one expires if @a millis isn't positive.
+     */
+    public Deadline child(long millis) {
+        return new Deadline(this,
+                            millis > 0
+                            ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis)
+                            : Long.MAX_VALUE);
+    }
+
+    /**
+     * @return The Deadline this one is nested in, or null if there is
+     * none.
+     */
+    public Deadline getParent() {
+        return mParent;
+    }
+
+    /**
+     * Cancel this Deadline and all those nested in it.
+     */
+    public void cancel() {
+        if (this != NONE)
+            mCancelled = true;
+    }
+
+    /**
+     * @return true if this Deadline (or one it's nested in) has been
+     * cancelled or its time is up, else false.
+     */
+    public boolean isExpired() {
+        for (Deadline deadline = this; deadline != null; deadline = deadline.mParent)
+            if (deadline.mCancelled
+                || (deadline.mExpiresNanos != Long.MAX_VALUE
+                    && System.nanoTime() - deadline.mExpiresNanos >= 0))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @return true if neither this Deadline nor any it's nested in
+     * has a time limit, else false.
+     */
+    public boolean isUnlimited() {
+        for (Deadline deadline = this; deadline != null; deadline = deadline.mParent)
+            if (deadline.mExpiresNanos != Long.MAX_VALUE)
+                return false;
+
+        return true;
+    }
+
+    /**
+     * @return The milliseconds until this Deadline expires (0 if it
+     * has), or Long.MAX_VALUE if it has no time limit.
+     */
+    public long remainingMillis() {
+        if (isExpired())
+            return 0;
+
+        long remainingNanos = Long.MAX_VALUE;
+        for (Deadline deadline = this; deadline != null; deadline = deadline.mParent)
+            if (deadline.mExpiresNanos != Long.MAX_VALUE)
+                remainingNanos = Math.min(remainingNanos,
+                                          deadline.mExpiresNanos - System.nanoTime());
+
+        return remainingNanos == Long.MAX_VALUE
+            ? Long.MAX_VALUE
+            : Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+    }
+
+    /**
+     * Run the @a task on the calling Thread with this as the current
+     * Deadline.
+     *
+     * @return The result of the @a task.
+     */
+    public <T> T call(Supplier<T> task) {
+        Deadline previous = mCurrent.get();
+        mCurrent.set(this);
+        try {
+            return task.get();
+        } finally {
+            if (previous != null)
+                mCurrent.set(previous);
+            else
+                mCurrent.remove();
+        }
+    }
+
+    /**
+     * Run the @a task on the calling Thread with this as the current
+     * Deadline.
+     */
+    public void run(Runnable task) {
+        call(() -> {
+                task.run();
+                return null;
+            });
+    }
+}
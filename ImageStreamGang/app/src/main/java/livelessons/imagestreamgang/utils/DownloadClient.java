@@ -0,0 +1,239 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A download client that's shared by all downloads so that many
+ * images from the same server reuse a few kept-alive connections
+ * rather than setting up a new TCP (and TLS) connection for each
+ * image.  It applies connect and read timeouts to every connection
+ * and caps the number of concurrent downloads from each host, which
+ * also caps the number of connections the platform's HTTP connection
+ * pool keeps per host, as long as the app calls
+ * configureConnectionPool() at startup.  A connection can only be
+ * reused once its response has been read to the end and closed,
+ * which download() always does.  The ImageDownloader app has an
+ * identical copy of this class (apart from its package), since the
+ * two apps are separate Gradle builds that share no library module,
+ * so fix both when changing either.  This class implements the
+ * Singleton pattern.
+ */
+public class DownloadClient {
+    /**
+     * The default connect and read timeouts in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    /**
+     * The default maximum number of concurrent downloads per host.
+     */
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+
+    /**
+     * The maximum number of unread bytes that are skipped at the end
+     * of a response so its connection can be reused, rather than
+     * closing it.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * Handles the response of a download.
+     */
+    public interface ResponseHandler<T> {
+        /**
+         * Handle the response of the @a connection, whose body is
+         * read from @a inputStream.  The @a inputStream is closed
+         * after this method returns.
+         */
+        T handle(URLConnection connection,
+                 InputStream inputStream) throws IOException;
+    }
+
+    /** The singleton @a DownloadClient instance. */
+    private static DownloadClient mUniqueInstance = null;
+
+    /**
+     * The connect and read timeouts in milliseconds.
+     */
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    /**
+     * The maximum number of concurrent downloads per host.
+     */
+    private final int mMaxConnectionsPerHost;
+
+    /**
+     * The permits for concurrent downloads, one Semaphore per host
+     * (and port).
+     */
+    private final Map<String, Semaphore> mHostPermits =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The total time each Thread has spent waiting for a permit, in
+     * nanoseconds.
+     */
+    private final ThreadLocal<long[]> mPermitWaitNanos =
+        ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized DownloadClient instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new DownloadClient(CONNECT_TIMEOUT_MS,
+                                                 READ_TIMEOUT_MS,
+                                                 MAX_CONNECTIONS_PER_HOST);
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Configure the platform's HTTP connection pool, which is shared
+     * by every HttpURLConnection in the process, to keep as many
+     * connections alive per host as the shared client downloads from
+     * at once, unless the app has configured it already.  The
+     * platform only reads these settings when it first opens a
+     * connection, so this should be called once at app startup.
+     */
+    public static void configureConnectionPool() {
+        if (System.getProperty("http.keepAlive") == null)
+            System.setProperty("http.keepAlive", "true");
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections",
+                               Integer.toString(MAX_CONNECTIONS_PER_HOST));
+    }
+
+    /**
+     * Constructor initializes the timeouts and the per-host cap.
+     */
+    DownloadClient(int connectTimeout,
+                   int readTimeout,
+                   int maxConnectionsPerHost) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Download the contents at @a url and pass the response to the @a
+     * handler, waiting first if the maximum number of downloads from
+     * the host of the @a url are already running.
+     *
+     * @return The result of the @a handler.
+     */
+    public <T> T download(URL url,
+                          ResponseHandler<T> handler) throws IOException {
+        return download(url, connection -> {}, handler);
+    }
+
+    /**
+     * Download the contents at @a url, letting the @a configurer set
+     * up the request (e.g., add conditional request headers) before
+     * it's sent, and pass the response to the @a handler, waiting
+     * first if the maximum number of downloads from the host of the
+     * @a url are already running.
+     *
+     * @return The result of the @a handler.
+     */
+    public <T> T download(URL url,
+                          Consumer<URLConnection> configurer,
+                          ResponseHandler<T> handler) throws IOException {
+        Semaphore permits = mHostPermits
+            .computeIfAbsent(url.getHost() + ':' + url.getPort(),
+                             host -> new Semaphore(mMaxConnectionsPerHost));
+
+        long waitStart = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for " + url);
+        } finally {
+            mPermitWaitNanos.get()[0] += System.nanoTime() - waitStart;
+        }
+
+        try {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            configurer.accept(connection);
+
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection httpConnection =
+                    (HttpURLConnection) connection;
+
+                // Read (and thereby release) the body of an error
+                // response, so the connection is kept alive.
+                int responseCode = httpConnection.getResponseCode();
+                if (responseCode >= 400) {
+                    try (InputStream errorStream =
+                         httpConnection.getErrorStream()) {
+                        drain(errorStream);
+                    }
+                    throw new IOException("HTTP " + responseCode + " for " + url);
+                }
+            }
+
+            try (InputStream inputStream = connection.getInputStream()) {
+                T result = handler.handle(connection, inputStream);
+
+                // Read whatever the handler didn't, so the connection
+                // can be reused.
+                drain(inputStream);
+                return result;
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the total time the calling Thread has spent waiting for
+     * the permit of a host in download(), in nanoseconds, so callers
+     * can tell the time spent queued behind other downloads from the
+     * time spent on the network.
+     */
+    public long getPermitWaitNanos() {
+        return mPermitWaitNanos.get()[0];
+    }
+
+    /**
+     * Returns the number of downloads from the host (and port) of
+     * the @a url that are running.
+     */
+    public int getActiveDownloads(URL url) {
+        Semaphore permits =
+            mHostPermits.get(url.getHost() + ':' + url.getPort());
+        return permits == null
+            ? 0
+            : mMaxConnectionsPerHost - permits.availablePermits();
+    }
+
+    /**
+     * Read the rest of the @a inputStream (if any), unless there's
+     * too much of it to be worth it.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        if (inputStream == null)
+            return;
+
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        for (int bytes;
+             drained < MAX_DRAIN_BYTES
+                 && (bytes = inputStream.read(buffer)) > 0;
+             )
+            drained += bytes;
+    }
+}
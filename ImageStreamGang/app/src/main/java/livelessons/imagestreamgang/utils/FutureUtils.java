@@ -2,6 +2,9 @@ package livelessons.imagestreamgang.utils;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.stream.Collectors.toList;
 
@@ -9,12 +12,47 @@ import static java.util.stream.Collectors.toList;
  * Helpful methods for manipulating CompletableFutures.
  */
 public class FutureUtils {
+    /**
+     * Completes the futures returned by within() when their Deadlines
+     * expire.
+     */
+    private static final ScheduledThreadPoolExecutor mTimer =
+        makeTimer();
+
     /**
      * A utility class should always define a private constructor.
      */
     private FutureUtils() {
     }
 
+    /**
+     * @return A CompletableFuture that completes like the @a future
+     * or, if the @a deadline expires first, with the @a expiredValue,
+     * so waiting for it never outlasts the @a deadline.
+     */
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> future,
+                                                  Deadline deadline,
+                                                  T expiredValue) {
+        if (deadline.isUnlimited() || future.isDone())
+            return future;
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timer =
+            mTimer.schedule(() -> result.complete(expiredValue),
+                            deadline.remainingMillis(),
+                            TimeUnit.MILLISECONDS);
+
+        future.whenComplete((value, exception) -> {
+                timer.cancel(false);
+                if (exception != null)
+                    result.completeExceptionally(exception);
+                else
+                    result.complete(value);
+            });
+
+        return result;
+    }
+
     /**
      * Waits for all of the CompletableFutures in @a futures to finish
      * and then returns a CompletableFuture containing a List with all
@@ -29,4 +67,19 @@ public class FutureUtils {
                                        .map(CompletableFuture::join)
                                        .collect(toList()));
     }
+
+    /**
+     * @return A timer whose daemon Thread never keeps the process
+     * alive and which forgets cancelled timeouts right away.
+     */
+    private static ScheduledThreadPoolExecutor makeTimer() {
+        ScheduledThreadPoolExecutor timer =
+            new ScheduledThreadPoolExecutor(1, runnable -> {
+                    Thread thread = new Thread(runnable, "FutureUtils-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
 }
@@ -0,0 +1,404 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads images over HTTP(S) and keeps the original of each one,
+ * along with its ETag and Last-Modified validators, so it can be
+ * revalidated with a conditional GET rather than downloaded again.
+ * If the server answers "304 Not Modified" the stored original is
+ * reused without transferring its bytes again.  If it answers "200
+ * OK" for an image that was already stored, the image has changed, so
+ * the new original replaces the old one and the filtered images
+ * produced from the old one are invalidated.  The originals are
+ * stored in the ORIGINALS subdirectory of the cache directory and
+ * their validators in the CacheIndex under the ORIGINALS filter name.
+ * An original is only revalidated once the freshness lifetime its
+ * server gave it via Cache-Control max-age or Expires has run out.
+ * This class implements the Singleton pattern.
+ */
+public class HttpCache {
+    /**
+     * The name of the subdirectory (and CacheIndex filter name) of
+     * the original images.  It's hidden, so it's never mistaken for
+     * the output of a filter.
+     */
+    public static final String ORIGINALS = ".Originals";
+
+    /** The singleton @a HttpCache instance. */
+    private static HttpCache mUniqueInstance = null;
+
+    /**
+     * The index of the cached images.
+     */
+    private final CacheIndex mIndex;
+
+    /**
+     * The cache directory, which contains one subdirectory per
+     * filter.
+     */
+    private final File mDirectory;
+
+    /**
+     * Downloads the images.
+     */
+    private final DownloadClient mClient;
+
+    /**
+     * The URLs whose stored originals have been revalidated by
+     * revalidate() but not yet used by download(), which can then
+     * use them without asking the server again.
+     */
+    private final Set<String> mRevalidated = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The time (in milliseconds since the epoch) until which the
+     * stored original of each URL is fresh, i.e., needn't be
+     * revalidated, as given by its last response.
+     */
+    private final Map<String, Long> mFreshUntil = new ConcurrentHashMap<>();
+
+    /**
+     * The number of responses that did and didn't transfer the image.
+     */
+    private final AtomicLong mModified = new AtomicLong();
+    private final AtomicLong mNotModified = new AtomicLong();
+
+    /**
+     * The bytes of the images transferred, in the Metrics.
+     */
+    private final Metrics.Counter mTransferredBytes =
+        Metrics.instance().counter("http.bytes");
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized HttpCache instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance =
+                new HttpCache(CacheIndex.instance(),
+                              new File(Options.instance().getDirectoryPath()),
+                              DownloadClient.instance());
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor initializes the data members.
+     */
+    HttpCache(CacheIndex index,
+              File directory,
+              DownloadClient client) {
+        mIndex = index;
+        mDirectory = directory;
+        mClient = client;
+    }
+
+    /**
+     * @return true if the @a url can be downloaded via the HttpCache,
+     * i.e., if it's an HTTP(S) URL, else false.
+     */
+    public static boolean isCacheable(URL url) {
+        return url.getProtocol().equals("http")
+            || url.getProtocol().equals("https");
+    }
+
+    /**
+     * Download the image at @a url, reusing the stored original if
+     * the server says it hasn't changed, and pass its contents to
+     * the @a decoder.
+     *
+     * @return The result of the @a decoder.
+     */
+    public <T> T download(URL url,
+                          NetUtils.ContentDecoder<T> decoder)
+        throws IOException {
+        ContentBuffer content = new ContentBuffer();
+
+        try {
+            File original = getOriginalFile(url);
+
+            // Don't ask the server again if revalidate() just did.
+            // A stored original that's still current is decoded
+            // straight from its file.
+            if ((mRevalidated.remove(url.toString()) && original.exists())
+                || fetch(url, content))
+                return NetUtils.decodeFile(original, decoder);
+
+            // Decode the contents while the buffer is still valid.
+            return decoder.decode(content.mBuffer, content.mLength);
+        } finally {
+            // Give the buffer back so the next download can use it.
+            content.release();
+        }
+    }
+
+    /**
+     * Revalidate the stored original of the @a url with a conditional
+     * GET.  If it has changed, the new original is stored and the
+     * filtered images produced from the old one are invalidated.
+     *
+     * @return true if the stored original is still current (or can't
+     * be revalidated), else false.
+     */
+    public boolean revalidate(URL url) {
+        CacheIndex.Entry entry = mIndex.get(url, ORIGINALS);
+
+        // Without a stored original there's nothing to revalidate.
+        if (entry == null || !getOriginalFile(url).exists())
+            return true;
+
+        // A fresh original is current without asking the server.
+        Long freshUntil = mFreshUntil.get(url.toString());
+        if (freshUntil != null && freshUntil > System.currentTimeMillis())
+            return true;
+
+        ContentBuffer content = new ContentBuffer();
+        try {
+            if (fetch(url, content))
+                return true;
+
+            // The new original is stored, so download() needn't ask
+            // the server again.
+            mRevalidated.add(url.toString());
+            return false;
+        } catch (IOException e) {
+            // Keep using the stored images, e.g., when offline.
+            e.printStackTrace();
+            return true;
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * Returns the number of responses that transferred the image.
+     */
+    public long getModified() {
+        return mModified.get();
+    }
+
+    /**
+     * Returns the number of responses that reused the stored
+     * original.
+     */
+    public long getNotModified() {
+        return mNotModified.get();
+    }
+
+    /**
+     * Read the contents of the image at @a url into @a content,
+     * using a conditional GET if its original is stored.  If the
+     * image is transferred its original is stored, and if it replaces
+     * an older one the images filtered from that are invalidated.
+     *
+     * @return true if the image hasn't changed since its original was
+     * stored, in which case the original should be read instead of
+     * @a content, else false.
+     */
+    private boolean fetch(URL url,
+                          ContentBuffer content) throws IOException {
+        File original = getOriginalFile(url);
+        CacheIndex.Entry entry = original.exists()
+            ? mIndex.get(url, ORIGINALS)
+            : null;
+
+        String[] eTag = new String[1];
+        long[] lastModified = new long[1];
+
+        boolean notModified = mClient.download
+            (url,
+             connection -> {
+                 NetUtils.limitTimeouts(connection);
+
+                 // Make the request conditional if there's a stored
+                 // original with validators.
+                 if (entry != null && entry.getETag() != null)
+                     connection.setRequestProperty("If-None-Match",
+                                                   entry.getETag());
+                 if (entry != null && entry.getLastModified() != 0)
+                     connection.setIfModifiedSince(entry.getLastModified());
+             },
+             (connection, istream) -> {
+                 // Both a "304 Not Modified" and a "200 OK" response
+                 // give the original a new freshness lifetime.
+                 long freshUntil = getFreshUntil(connection);
+                 if (freshUntil > System.currentTimeMillis())
+                     mFreshUntil.put(url.toString(), freshUntil);
+                 else
+                     mFreshUntil.remove(url.toString());
+
+                 if (entry != null && isNotModified(connection))
+                     return true;
+
+                 content.read(istream, connection.getContentLengthLong());
+                 eTag[0] = connection.getHeaderField("ETag");
+                 lastModified[0] = connection.getLastModified();
+                 return false;
+             });
+
+        if (notModified) {
+            mNotModified.incrementAndGet();
+            return true;
+        }
+
+        mModified.incrementAndGet();
+        mTransferredBytes.add(content.mLength);
+
+        // A server that ignores conditional requests sends the whole
+        // image again, but its validators show it hasn't changed.
+        if (entry != null && hasValidators(entry, eTag[0], lastModified[0]))
+            return true;
+
+        // The image has changed, so its filtered images are stale.
+        if (entry != null)
+            invalidate(url);
+
+        storeOriginal(url, original, content, eTag[0], lastModified[0]);
+        return false;
+    }
+
+    /**
+     * @return true if the @a entry has the given @a eTag or, if it
+     * has no ETag, the given @a lastModified time, else false.
+     */
+    private static boolean hasValidators(CacheIndex.Entry entry,
+                                         String eTag,
+                                         long lastModified) {
+        return entry.getETag() != null
+            ? entry.getETag().equals(eTag)
+            : entry.getLastModified() == lastModified;
+    }
+
+    /**
+     * @return The time (in milliseconds since the epoch) until which
+     * the response of the @a connection is fresh, i.e., its
+     * Cache-Control max-age from now or else its Expires time, or 0
+     * if it has neither or mustn't be reused without revalidation.
+     */
+    static long getFreshUntil(URLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+
+        if (cacheControl != null)
+            for (String directive : cacheControl.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                String name = parts[0].toLowerCase(Locale.US);
+
+                if (name.equals("no-cache") || name.equals("no-store"))
+                    return 0;
+                else if (name.equals("max-age") && parts.length == 2)
+                    try {
+                        return System.currentTimeMillis()
+                            + 1000 * Long.parseLong(parts[1].trim());
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+            }
+
+        return connection.getExpiration();
+    }
+
+    /**
+     * @return true if the response of the @a connection is "304 Not
+     * Modified", else false.
+     */
+    private static boolean isNotModified(URLConnection connection)
+        throws IOException {
+        return connection instanceof HttpURLConnection
+            && ((HttpURLConnection) connection).getResponseCode()
+               == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Store the @a content as the @a original of the @a url, along
+     * with its validators, writing it to a temporary file of its own
+     * first so the original is either complete or absent, even if
+     * the same url is stored concurrently.  If the content can't be
+     * stored any older original is removed, since its validators no
+     * longer match the image and would invalidate its filtered images
+     * at every revalidation.
+     */
+    private void storeOriginal(URL url,
+                               File original,
+                               ContentBuffer content,
+                               String eTag,
+                               long lastModified) {
+        // Without validators the original could never be reused.
+        if (eTag == null && lastModified == 0) {
+            removeOriginal(url, original);
+            return;
+        }
+
+        original.getParentFile().mkdirs();
+        File temporaryFile;
+        try {
+            temporaryFile = File.createTempFile("." + original.getName() + ".",
+                                                ".tmp",
+                                                original.getParentFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            removeOriginal(url, original);
+            return;
+        }
+
+        try (FileOutputStream outputFile =
+             new FileOutputStream(temporaryFile)) {
+            outputFile.write(content.mBuffer, 0, content.mLength);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporaryFile.delete();
+            removeOriginal(url, original);
+            return;
+        }
+
+        if (temporaryFile.renameTo(original))
+            mIndex.put(url, ORIGINALS, content.mLength, eTag, lastModified);
+        else {
+            temporaryFile.delete();
+            removeOriginal(url, original);
+        }
+    }
+
+    /**
+     * Remove the stored @a original of the @a url, along with its
+     * validators.
+     */
+    private void removeOriginal(URL url,
+                                File original) {
+        original.delete();
+        mIndex.remove(url, ORIGINALS);
+    }
+
+    /**
+     * Delete the filtered images produced from the @a url and remove
+     * them from the index, so they're produced again.
+     */
+    private void invalidate(URL url) {
+        String fileName =
+            Options.instance().getImageEncoder().getFileName(url);
+
+        for (String filterName : mIndex.getFilterNames(url))
+            if (!filterName.equals(ORIGINALS)) {
+                new File(new File(mDirectory, filterName), fileName).delete();
+                mIndex.remove(url, filterName);
+            }
+    }
+
+    /**
+     * @return The file the original of the @a url is stored in.
+     */
+    private File getOriginalFile(URL url) {
+        return new File(new File(mDirectory, ORIGINALS),
+                        NetUtils.getFileNameForUrl(url));
+    }
+}
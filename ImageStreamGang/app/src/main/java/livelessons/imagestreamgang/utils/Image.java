@@ -3,7 +3,9 @@ package livelessons.imagestreamgang.utils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import java.io.FileDescriptor;
 import java.net.URL;
+import java.util.function.Function;
 
 import livelessons.imagestreamgang.filters.Filter;
 
@@ -14,9 +16,10 @@ import livelessons.imagestreamgang.filters.Filter;
  */
 public class Image {
     /**
-     * The Bitmap our Image stores.
+     * The Bitmap our Image stores, which is null once a pooled Bitmap
+     * has been given back to the BitmapPool.
      */
-    private Bitmap mImage;
+    private volatile Bitmap mImage;
 
     /**
      * The source URL from which the result was downloaded.
@@ -33,11 +36,17 @@ public class Image {
      */
     private boolean mSucceeded;
 
+    /**
+     * Keeps track of whether the Bitmap was obtained from the
+     * BitmapPool and can be given back to it once it's persisted.
+     */
+    private boolean mPooled;
+
     /**
      * Dimensions representing how large the scaled image should be.
      */
-    private static final int IMAGE_WIDTH = 250;
-    private static final int IMAGE_HEIGHT = 250;
+    public static final int IMAGE_WIDTH = 250;
+    public static final int IMAGE_HEIGHT = 250;
 
     /**
      * Construct an Image from a byte array of @a imageData
@@ -45,6 +54,16 @@ public class Image {
      */
     public Image(URL sourceURL,
                  byte[] imageData) {
+        this(sourceURL, imageData, imageData.length);
+    }
+
+    /**
+     * Construct an Image from the first @a length bytes of the @a
+     * imageData buffer downloaded from a URL @a source.
+     */
+    public Image(URL sourceURL,
+                 byte[] imageData,
+                 int length) {
         // Set the URL.
         mSourceUrl = sourceURL;
 
@@ -53,7 +72,25 @@ public class Image {
         mSucceeded = true;
         
         // Decode the imageData into a Bitmap.
-        setImage(imageData);
+        setImage(imageData, length);
+    }
+
+    /**
+     * Construct an Image from the contents of a local file, which
+     * start at the current position of the open @a fd, downloaded
+     * from a URL @a source.
+     */
+    public Image(URL sourceURL,
+                 FileDescriptor fd) {
+        // Set the URL.
+        mSourceUrl = sourceURL;
+
+        // Initialize other data members.
+        mFilterName = null;
+        mSucceeded = true;
+
+        // Decode the file into a Bitmap.
+        setImage(fd);
     }
 
     /**
@@ -77,18 +114,67 @@ public class Image {
      * of the application.
      */
     public void setImage(byte[] imageData) {
-        mImage = decodeSampledBitmapFromByteArray(imageData,
-                                                  IMAGE_WIDTH,
-                                                  IMAGE_HEIGHT);
+        setImage(imageData, imageData.length);
+    }
+
+    /**
+     * Decodes the first @a length bytes of the @a imageData buffer
+     * into an @a Image that can be used in the rest of the
+     * application.
+     */
+    public void setImage(byte[] imageData, int length) {
+        mImage = decodeSampledBitmap(options ->
+                                     BitmapFactory.decodeByteArray(imageData,
+                                                                   0,
+                                                                   length,
+                                                                   options),
+                                     IMAGE_WIDTH,
+                                     IMAGE_HEIGHT);
     }
 
     /**
-     * Returns the @a Bitmap stored by this Image.
+     * Decodes the contents of a local file, which start at the
+     * current position of the open @a fd, into an @a Image that can
+     * be used in the rest of the application.  The file is decoded
+     * natively, so its contents are never copied onto the heap.
+     */
+    public void setImage(FileDescriptor fd) {
+        // Decoding doesn't move the position of the fd, so it can be
+        // decoded twice.
+        mImage = decodeSampledBitmap(options ->
+                                     BitmapFactory.decodeFileDescriptor(fd,
+                                                                        null,
+                                                                        options),
+                                     IMAGE_WIDTH,
+                                     IMAGE_HEIGHT);
+    }
+
+    /**
+     * Returns the @a Bitmap stored by this Image, or null if it was
+     * pooled and has been detached by detachPooledImage().
      */
     public Bitmap getImage() {
         return mImage;
     }
 
+    /**
+     * Detaches the pooled Bitmap from this Image so it can be given
+     * back to the BitmapPool.  Whoever still holds this Image then
+     * sees no Bitmap, rather than one whose pixels are overwritten
+     * once the BitmapPool hands it out again.
+     *
+     * @return The detached Bitmap, or null if it isn't pooled.
+     */
+    public synchronized Bitmap detachPooledImage() {
+        if (!mPooled)
+            return null;
+
+        Bitmap image = mImage;
+        mImage = null;
+        mPooled = false;
+        return image;
+    }
+
     /**
      * Modifies the source URL of this result. Necessary for when the
      * result is constructed before it is associated with data.
@@ -133,6 +219,22 @@ public class Image {
         return mSucceeded;
     }
 
+    /**
+     * Sets whether the Bitmap was obtained from the BitmapPool and
+     * can be given back to it once it's persisted.
+     */
+    public synchronized void setPooled(boolean pooled) {
+        mPooled = pooled;
+    }
+
+    /**
+     * Returns true if the Bitmap was obtained from the BitmapPool and
+     * can be given back to it once it's persisted, else false.
+     */
+    public synchronized boolean isPooled() {
+        return mPooled;
+    }
+
     /**
      * Returns the file name from the URL this Image was
      * constructed from.
@@ -153,33 +255,51 @@ public class Image {
     }
 
     /**
-     * Decodes and scales a bitmap from a byte array.  Adapted from
+     * Decodes and scales a bitmap via the @a decoder, which decodes
+     * the same contents with the given BitmapFactory.Options each
+     * time it's applied.  Adapted from
      * developer.android.com/training/displaying-bitmaps/load-bitmap.html
      */
-    private Bitmap decodeSampledBitmapFromByteArray(byte[] imageData,
-                                                    int reqWidth,
-                                                    int reqHeight) {
+    private Bitmap decodeSampledBitmap(Function<BitmapFactory.Options, Bitmap> decoder,
+                                       int reqWidth,
+                                       int reqHeight) {
 
         // First decode with inJustDecodeBounds=true to check
         // dimensions.
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(imageData,
-                                      0,
-                                      imageData.length,
-                                      options);
+        decoder.apply(options);
 
         // Calculate inSampleSize.
         options.inSampleSize = calculateInSampleSize(options,
                                                      reqWidth,
                                                      reqHeight);
 
-        // Decode bitmap with inSampleSize set.
+        // Decode bitmap with inSampleSize set, reusing a Bitmap from
+        // the BitmapPool if there's one big enough.
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeByteArray(imageData,
-                                             0,
-                                             imageData.length,
-                                             options);
+        options.inMutable = true;
+        options.inBitmap = BitmapPool.instance().take
+            (divideRoundingUp(options.outWidth, options.inSampleSize)
+             * divideRoundingUp(options.outHeight, options.inSampleSize)
+             * BitmapPool.bytesPerPixel(Bitmap.Config.ARGB_8888));
+
+        try {
+            return decoder.apply(options);
+        } catch (IllegalArgumentException e) {
+            // The pooled Bitmap can't be reused for this image, so
+            // give it back and decode into a new Bitmap.
+            BitmapPool.instance().release(options.inBitmap);
+            options.inBitmap = null;
+            return decoder.apply(options);
+        }
+    }
+
+    /**
+     * @return @a dividend / @a divisor rounded up.
+     */
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
     }
     
     /**
@@ -0,0 +1,52 @@
+package livelessons.imagestreamgang.utils;
+
+import java.net.URL;
+
+/**
+ * A memory cache of decoded (and scaled) source images, keyed by
+ * their URL and the size they're scaled to and bounded by the total
+ * bytes of their Bitmaps, so images that are processed again, e.g.,
+ * in a later cycle or when filters are rerun, needn't be downloaded
+ * and decoded again.  Evicted Bitmaps are left to the garbage
+ * collector rather than given back to the BitmapPool, since whoever
+ * got them from the cache may still be using them.  This class
+ * implements the Singleton pattern.
+ */
+public class ImageCache
+       extends LruMemoryCache<String, Image> {
+    /**
+     * The maximum total bytes of the Bitmaps in the cache.
+     */
+    private static final long MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+    /** The singleton @a ImageCache instance. */
+    private static ImageCache mUniqueInstance = null;
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized ImageCache instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new ImageCache();
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor initializes the superclass.
+     */
+    private ImageCache() {
+        super(MAX_BYTES,
+              image -> image.getImage() != null
+                  ? image.getImage().getAllocationByteCount()
+                  : 0);
+    }
+
+    /**
+     * @return The key of the image downloaded from @a url, i.e., the
+     * URL and the size it's scaled to.
+     */
+    public static String makeKey(URL url) {
+        return url + "@" + Image.IMAGE_WIDTH + "x" + Image.IMAGE_HEIGHT;
+    }
+}
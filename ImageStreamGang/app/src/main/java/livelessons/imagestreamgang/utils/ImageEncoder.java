@@ -0,0 +1,298 @@
+package livelessons.imagestreamgang.utils;
+
+import android.graphics.Bitmap;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a Bitmap into an output file in a given format, quality,
+ * and compression effort, and keeps track of how long encoding takes
+ * and how many bytes it writes, so storage I/O can be traded against
+ * CPU time.  Instances are made from a spec via parse().  Plays the
+ * role of the "Strategy" in the Strategy pattern and the role of the
+ * "Abstract Class" in the Template Method pattern.
+ */
+public abstract class ImageEncoder {
+    /**
+     * The spec of the default encoder, i.e., PNG compressed as hard
+     * as Bitmap.compress() can.
+     */
+    public static final String DEFAULT_SPEC = "png";
+
+    /**
+     * The qualities of the "low", "medium", and "high" tiers.
+     */
+    private static final int LOW_QUALITY = 60;
+    private static final int MEDIUM_QUALITY = 80;
+    private static final int HIGH_QUALITY = 95;
+
+    /**
+     * The spec of this encoder.
+     */
+    private final String mName;
+
+    /**
+     * The extension (without the dot) of the files this encoder
+     * writes.
+     */
+    private final String mExtension;
+
+    /**
+     * Statistics about the encodes, which are guarded by "this".
+     */
+    private long mEncodes;
+    private long mBytes;
+    private long mTotalEncodeNanos;
+
+    /**
+     * The latency and bytes of all the encodes, in the Metrics.
+     */
+    private final Metrics.Histogram mEncodeNanos =
+        Metrics.instance().histogram("encode.nanos");
+    private final Metrics.Counter mEncodeBytes =
+        Metrics.instance().counter("encode.bytes");
+
+    /**
+     * Constructor initializes the name of this encoder and the
+     * extension of the files it writes.
+     */
+    protected ImageEncoder(String name,
+                           String extension) {
+        mName = name;
+        mExtension = extension;
+    }
+
+    /**
+     * Factory method that makes an encoder from a @a spec of the form
+     * "format[:quality]", where the format is "png" (Bitmap.compress()
+     * PNG), "png-fast" (PNG with the fastest deflate level),
+     * "png-small" (PNG with the best deflate level), "jpeg", or
+     * "webp", and the quality of the lossy formats is either 0 to 100
+     * or one of the "low", "medium", and "high" tiers (defaults to
+     * "high").
+     *
+     * @throws IllegalArgumentException if the @a spec is invalid.
+     */
+    public static ImageEncoder parse(String spec) {
+        String[] parts = spec.toLowerCase(Locale.US).split(":", 2);
+        String format = parts[0];
+
+        switch (format) {
+        case "png":
+            return new BitmapEncoder(format, Bitmap.CompressFormat.PNG, 100);
+        case "png-fast":
+            return new PixelPngEncoder(format, Deflater.BEST_SPEED);
+        case "png-small":
+            return new PixelPngEncoder(format, Deflater.BEST_COMPRESSION);
+        case "jpeg":
+        case "webp": {
+            int quality = parts.length > 1
+                ? parseQuality(parts[1])
+                : HIGH_QUALITY;
+            return new BitmapEncoder(format + ':' + quality,
+                                     format.equals("jpeg")
+                                     ? Bitmap.CompressFormat.JPEG
+                                     : Bitmap.CompressFormat.WEBP,
+                                     quality);
+        }
+        default:
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+    }
+
+    /**
+     * @return The quality given by @a quality, which is either a
+     * number from 0 to 100 or the name of a tier.
+     */
+    private static int parseQuality(String quality) {
+        switch (quality) {
+        case "low":
+            return LOW_QUALITY;
+        case "medium":
+            return MEDIUM_QUALITY;
+        case "high":
+            return HIGH_QUALITY;
+        default:
+            int value = Integer.parseInt(quality);
+            if (value < 0 || value > 100)
+                throw new IllegalArgumentException("quality must be 0..100");
+            return value;
+        }
+    }
+
+    /**
+     * Returns the spec of this encoder.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the extension (without the dot) of the files this
+     * encoder writes.
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * @return The name of the file the image from the @a url is
+     * stored in by this encoder, i.e., the filename form of the @a
+     * url followed by the extension of the format, unless it already
+     * ends with it.  The whole filename form is kept, so URLs that
+     * only differ by their extension aren't stored in the same file.
+     */
+    public String getFileName(URL url) {
+        String fileName = NetUtils.getFileNameForUrl(url);
+        return fileName.endsWith('.' + mExtension)
+            ? fileName
+            : fileName + '.' + mExtension;
+    }
+
+    /**
+     * This template method encodes the @a bitmap via the
+     * encodeBitmap() hook method and writes it to the @a
+     * outputStream, keeping track of the time taken and bytes
+     * written.
+     */
+    public void encode(Bitmap bitmap,
+                       OutputStream outputStream) throws IOException {
+        CountingOutputStream countingStream =
+            new CountingOutputStream(outputStream);
+        long start = System.nanoTime();
+
+        encodeBitmap(bitmap, countingStream);
+        countingStream.flush();
+
+        long duration = System.nanoTime() - start;
+        mEncodeNanos.record(duration);
+        mEncodeBytes.add(countingStream.mCount);
+        synchronized (this) {
+            ++mEncodes;
+            mBytes += countingStream.mCount;
+            mTotalEncodeNanos += duration;
+        }
+    }
+
+    /**
+     * This abstract hook method must be overridden by a subclass to
+     * encode the @a bitmap and write it to the @a outputStream.
+     */
+    protected abstract void encodeBitmap(Bitmap bitmap,
+                                         OutputStream outputStream)
+        throws IOException;
+
+    /**
+     * Returns the number of Bitmaps encoded.
+     */
+    public synchronized long getEncodes() {
+        return mEncodes;
+    }
+
+    /**
+     * Returns the total number of bytes written.
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the mean time taken to encode a Bitmap in nanoseconds.
+     */
+    public synchronized long getMeanEncodeNanos() {
+        return mEncodes == 0 ? 0 : mTotalEncodeNanos / mEncodes;
+    }
+
+    /**
+     * Encodes via Bitmap.compress().
+     */
+    private static class BitmapEncoder
+            extends ImageEncoder {
+        private final Bitmap.CompressFormat mFormat;
+        private final int mQuality;
+
+        BitmapEncoder(String name,
+                      Bitmap.CompressFormat format,
+                      int quality) {
+            super(name,
+                  format == Bitmap.CompressFormat.PNG
+                  ? "png"
+                  : format == Bitmap.CompressFormat.JPEG
+                  ? "jpg"
+                  : "webp");
+            mFormat = format;
+            mQuality = quality;
+        }
+
+        @Override
+        protected void encodeBitmap(Bitmap bitmap,
+                                    OutputStream outputStream)
+            throws IOException {
+            if (!bitmap.compress(mFormat, mQuality, outputStream))
+                throw new IOException("unable to compress as " + getName());
+        }
+    }
+
+    /**
+     * Encodes a PNG via the PngEncoder, whose deflate level is
+     * configurable, unlike that of Bitmap.compress().
+     */
+    private static class PixelPngEncoder
+            extends ImageEncoder {
+        private final int mLevel;
+
+        PixelPngEncoder(String name, int level) {
+            super(name, "png");
+            mLevel = level;
+        }
+
+        @Override
+        protected void encodeBitmap(Bitmap bitmap,
+                                    OutputStream outputStream)
+            throws IOException {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+
+            // Pull all the pixels into an array with a single call.
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+            PngEncoder.encode(pixels,
+                              width,
+                              height,
+                              bitmap.hasAlpha(),
+                              mLevel,
+                              outputStream);
+        }
+    }
+
+    /**
+     * Counts the bytes written to the underlying stream.
+     */
+    private static class CountingOutputStream
+            extends FilterOutputStream {
+        long mCount;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++mCount;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+            throws IOException {
+            out.write(bytes, offset, length);
+            mCount += length;
+        }
+    }
+}
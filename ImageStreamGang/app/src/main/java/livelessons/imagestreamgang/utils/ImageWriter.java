@@ -0,0 +1,341 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes files on a few dedicated Threads fed by a bounded queue, so
+ * the Threads that filter images never stall on compression or disk
+ * I/O.  If the writer falls behind, write() blocks until there's room
+ * in the queue (backpressure), so the number of pending images stays
+ * bounded.  Each file is written to a hidden temporary file in the
+ * same directory and then renamed, so a file is either complete or
+ * absent, and each directory is only created once.  Every write has
+ * its own temporary file, so concurrent writes of the same file
+ * never clobber each other's contents.  This class
+ * implements the Singleton pattern.
+ */
+public class ImageWriter {
+    /**
+     * Number of writer Threads.
+     */
+    private static final int WRITER_THREADS = 2;
+
+    /**
+     * Capacity of the bounded queue of pending writes.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * The maximum number of pending writes a writer Thread takes from
+     * the queue at once.
+     */
+    private static final int BATCH_SIZE = 4;
+
+    /**
+     * Writes the contents of a file to an OutputStream.
+     */
+    @FunctionalInterface
+    public interface Content {
+        /**
+         * Write the contents to the @a outputStream.
+         */
+        void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * A pending write.
+     */
+    private static class WriteRequest {
+        final File mFile;
+        final Content mContent;
+        final Consumer<File> mCallback;
+        final Deadline mDeadline;
+
+        WriteRequest(File file,
+                     Content content,
+                     Consumer<File> callback,
+                     Deadline deadline) {
+            mFile = file;
+            mContent = content;
+            mCallback = callback;
+            mDeadline = deadline;
+        }
+    }
+
+    /** The singleton @a ImageWriter instance. */
+    private static ImageWriter mUniqueInstance = null;
+
+    /**
+     * The bounded queue of pending writes.
+     */
+    private final BlockingQueue<WriteRequest> mQueue;
+
+    /**
+     * The directories that are known to exist.
+     */
+    private final Set<File> mDirectories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The number of writes that have been requested but not yet
+     * completed, which is guarded by "this".
+     */
+    private int mPending;
+
+    /**
+     * Statistics about the writes, which are guarded by "this".
+     */
+    private long mWrites;
+    private long mTotalWriteNanos;
+    private long mMaxWriteNanos;
+    private int mMaxQueueDepth;
+
+    /**
+     * The latency and failures of the writes, in the Metrics.
+     */
+    private final Metrics.Histogram mWriteNanos =
+        Metrics.instance().histogram("write.nanos");
+    private final Metrics.Counter mWriteFailures =
+        Metrics.instance().counter("write.failures");
+    private final Metrics.Counter mWriteCancelled =
+        Metrics.instance().counter("write.cancelled");
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized ImageWriter instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new ImageWriter(WRITER_THREADS,
+                                              QUEUE_CAPACITY);
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor starts @a writerThreads daemon Threads that take
+     * writes from a queue holding at most @a queueCapacity of them.
+     */
+    ImageWriter(int writerThreads,
+                int queueCapacity) {
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        for (int i = 0; i < writerThreads; ++i) {
+            Thread writer = new Thread(this::processWrites,
+                                       "ImageWriter-" + i);
+            // Don't keep the process alive just for the writers.
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Asynchronously write the @a content to the file named @a
+     * fileName in @a directory, which is created if need be, blocking
+     * while the queue is full.  The @a callback is then called on a
+     * writer Thread with the file that was written, or with null if
+     * it couldn't be written.  The write is cancelled (and the @a
+     * callback called with null) if the current Deadline expires
+     * before it starts.
+     */
+    public void write(File directory,
+                      String fileName,
+                      Content content,
+                      Consumer<File> callback) {
+        synchronized (this) {
+            ++mPending;
+        }
+
+        Deadline deadline = Deadline.current();
+        WriteRequest request = new WriteRequest(new File(directory, fileName),
+                                                content,
+                                                callback,
+                                                deadline);
+        try {
+            // Don't wait for room in the queue past the deadline.
+            if (deadline.isUnlimited())
+                mQueue.put(request);
+            else if (!mQueue.offer(request,
+                                   deadline.remainingMillis(),
+                                   TimeUnit.MILLISECONDS)) {
+                mWriteCancelled.increment();
+                complete(request, null, 0);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete(request, null, 0);
+            return;
+        }
+
+        int queueDepth = mQueue.size();
+        synchronized (this) {
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, queueDepth);
+        }
+    }
+
+    /**
+     * Block until all the writes requested so far have completed.
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (mPending > 0)
+            wait();
+    }
+
+    /**
+     * Returns the number of writes waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Returns the largest number of writes that have been waiting in
+     * the queue at once.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * Returns the number of files written.
+     */
+    public synchronized long getWrites() {
+        return mWrites;
+    }
+
+    /**
+     * Returns the mean time taken to write a file in nanoseconds.
+     */
+    public synchronized long getMeanWriteNanos() {
+        return mWrites == 0 ? 0 : mTotalWriteNanos / mWrites;
+    }
+
+    /**
+     * Returns the longest time taken to write a file in nanoseconds.
+     */
+    public synchronized long getMaxWriteNanos() {
+        return mMaxWriteNanos;
+    }
+
+    /**
+     * The loop run by each writer Thread, which takes a batch of
+     * writes from the queue at a time.
+     */
+    private void processWrites() {
+        List<WriteRequest> batch = new ArrayList<>(BATCH_SIZE);
+
+        for (;;) {
+            try {
+                // Wait for at least one write, then take whatever
+                // else is already pending, up to the batch size.
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (WriteRequest request : batch)
+                // Skip writes whose deadline expired while queued.
+                if (request.mDeadline.isExpired()) {
+                    mWriteCancelled.increment();
+                    complete(request, null, 0);
+                } else {
+                    long start = System.nanoTime();
+                    File file = writeFile(request);
+                    long writeNanos = System.nanoTime() - start;
+
+                    if (file != null)
+                        mWriteNanos.record(writeNanos);
+                    else
+                        mWriteFailures.increment();
+
+                    complete(request, file, writeNanos);
+                }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write the contents of the @a request to a temporary file and
+     * rename it to the requested file.
+     *
+     * @return The file that was written, or null if it couldn't be
+     * written.
+     */
+    private File writeFile(WriteRequest request) {
+        File directory = request.mFile.getParentFile();
+
+        // Only create each directory once.
+        if (!mDirectories.contains(directory)) {
+            directory.mkdirs();
+            mDirectories.add(directory);
+        }
+
+        // Make a temporary file whose name is unique, so another
+        // write of the same file can't write to it at the same time.
+        File temporaryFile;
+        try {
+            temporaryFile = File.createTempFile("." + request.mFile.getName() + ".",
+                                                ".tmp",
+                                                directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        // Store the contents using try-with-resources.
+        try (FileOutputStream outputFile =
+             new FileOutputStream(temporaryFile)) {
+            request.mContent.writeTo(outputFile);
+        } catch (Exception e) {
+            e.printStackTrace();
+            temporaryFile.delete();
+            return null;
+        }
+
+        // Atomically replace any previous version of the file.
+        if (!temporaryFile.renameTo(request.mFile)) {
+            temporaryFile.delete();
+            return null;
+        }
+
+        return request.mFile;
+    }
+
+    /**
+     * Call the callback of the @a request with the @a file that was
+     * written and record that the write took @a writeNanos.
+     */
+    private void complete(WriteRequest request,
+                          File file,
+                          long writeNanos) {
+        try {
+            request.mCallback.accept(file);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                if (file != null) {
+                    ++mWrites;
+                    mTotalWriteNanos += writeNanos;
+                    mMaxWriteNanos = Math.max(mMaxWriteNanos, writeNanos);
+                }
+
+                // Wake up flush() once the last write completes.
+                if (--mPending == 0)
+                    notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A memory cache that's bounded by the total size of its values (as
+ * measured by a sizer, e.g., in bytes) rather than by their number
+ * and evicts the least recently used values first.  Evicting a value
+ * only drops the cache's reference to it, so whoever got it from the
+ * cache can keep using it.
+ */
+public class LruMemoryCache<K, V> {
+    /**
+     * A cached value along with its size.
+     */
+    private static class Entry<V> {
+        final V mValue;
+        final long mSize;
+
+        Entry(V value, long size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    /**
+     * The maximum total size of the values in the cache.
+     */
+    private final long mMaxSize;
+
+    /**
+     * Measures the size of a value.
+     */
+    private final ToLongFunction<V> mSizer;
+
+    /**
+     * The entries of the cache, least recently used first.
+     */
+    private final LinkedHashMap<K, Entry<V>> mEntries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of the values in the cache.
+     */
+    private long mSize;
+
+    /**
+     * The number of lookups that found and didn't find a value, and
+     * the number of values evicted.
+     */
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * Constructor initializes the bound of the cache to @a maxSize,
+     * as measured by the @a sizer.
+     */
+    public LruMemoryCache(long maxSize,
+                          ToLongFunction<V> sizer) {
+        mMaxSize = maxSize;
+        mSizer = sizer;
+    }
+
+    /**
+     * @return The value cached for the @a key, or null if there is
+     * none.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = mEntries.get(key);
+
+        if (entry == null) {
+            ++mMisses;
+            return null;
+        }
+
+        ++mHits;
+        return entry.mValue;
+    }
+
+    /**
+     * Cache the @a value for the @a key, replacing any value cached
+     * for it, and evict the least recently used values (other than
+     * the new one) until the cache fits.  A value that's bigger than the whole cache isn't cached.
+     */
+    public synchronized void put(K key, V value) {
+        long size = mSizer.applyAsLong(value);
+        if (size > mMaxSize)
+            return;
+
+        Entry<V> entry = new Entry<>(value, size);
+        Entry<V> previous = mEntries.put(key, entry);
+        if (previous != null)
+            mSize -= previous.mSize;
+        mSize += size;
+
+        trim(key);
+    }
+
+    /**
+     * Remove the value cached for the @a key, if any.
+     */
+    public synchronized void remove(K key) {
+        Entry<V> entry = mEntries.remove(key);
+        if (entry != null)
+            mSize -= entry.mSize;
+    }
+
+    /**
+     * Returns the total size of the values in the cache.
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a value.
+     */
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of lookups that didn't find a value.
+     */
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the number of values evicted.
+     */
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Evict the least recently used values, other than the one for
+     * the @a keep key, until the cache fits.
+     */
+    private void trim(K keep) {
+        for (Iterator<Map.Entry<K, Entry<V>>> lru = mEntries.entrySet().iterator();
+             mSize > mMaxSize && lru.hasNext();
+             ) {
+            Map.Entry<K, Entry<V>> next = lru.next();
+            Entry<V> entry = next.getValue();
+
+            if (!next.getKey().equals(keep)) {
+                lru.remove();
+                mSize -= entry.mSize;
+                ++mEvictions;
+            }
+        }
+    }
+}
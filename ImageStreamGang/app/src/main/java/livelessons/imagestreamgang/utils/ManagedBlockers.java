@@ -0,0 +1,56 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Helpful methods for running blocking tasks, e.g., downloads, in a
+ * ForkJoinPool, such as the common pool used by parallel streams.
+ */
+public class ManagedBlockers {
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private ManagedBlockers() {
+    }
+
+    /**
+     * Run the blocking @a task via ForkJoinPool.managedBlock(), so a
+     * ForkJoinPool running it can add a spare Thread to keep its
+     * parallelism while the task blocks.  Outside a ForkJoinPool the
+     * task just runs on the calling Thread.
+     *
+     * @return The result of the @a task.
+     */
+    public static <T> T callBlocking(Supplier<T> task) {
+        /**
+         * Adapts the task to the ManagedBlocker interface.
+         */
+        class Blocker implements ForkJoinPool.ManagedBlocker {
+            T mResult;
+            boolean mDone;
+
+            @Override
+            public boolean block() {
+                mResult = task.get();
+                mDone = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return mDone;
+            }
+        }
+
+        Blocker blocker = new Blocker();
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            // block() never throws it, but keep the interrupt status.
+            Thread.currentThread().interrupt();
+        }
+
+        return blocker.mResult;
+    }
+}
@@ -0,0 +1,272 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of named metrics that's cheap enough to update on the
+ * hot path of the image pipeline: Counters and Histograms are
+ * updated without locks, and Gauges are only read when the metrics
+ * are dumped.  The metrics can be dumped as text at any time or
+ * exported to a file.  This class implements the Singleton pattern.
+ */
+public class Metrics {
+    /**
+     * A count that only goes up, e.g., of bytes or failures.
+     */
+    public static class Counter {
+        private final LongAdder mCount = new LongAdder();
+
+        /**
+         * Add one to the count.
+         */
+        public void increment() {
+            mCount.increment();
+        }
+
+        /**
+         * Add @a amount to the count.
+         */
+        public void add(long amount) {
+            mCount.add(amount);
+        }
+
+        /**
+         * Returns the count.
+         */
+        public long get() {
+            return mCount.sum();
+        }
+    }
+
+    /**
+     * The distribution of non-negative values, e.g., latencies in
+     * nanoseconds.  Like an HDR histogram, values are counted in
+     * buckets whose width grows with the value, so each value is
+     * recorded within about 6% of its actual size in a fixed amount
+     * of memory, whatever its range.
+     */
+    public static class Histogram {
+        /**
+         * Each power of 2 is split into 2^SUB_BUCKET_BITS / 2 linear
+         * sub-buckets, and values below 2^SUB_BUCKET_BITS each get a
+         * bucket of their own.
+         */
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+        /**
+         * The number of values recorded in each bucket.
+         */
+        private final AtomicLongArray mBuckets =
+            new AtomicLongArray(bucketIndex(Long.MAX_VALUE) + 1);
+
+        /**
+         * The number, sum, and maximum of the values recorded.
+         */
+        private final LongAdder mCount = new LongAdder();
+        private final LongAdder mSum = new LongAdder();
+        private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Record the @a value, with negative values recorded as 0.
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            mBuckets.incrementAndGet(bucketIndex(value));
+            mCount.increment();
+            mSum.add(value);
+            mMax.accumulate(value);
+        }
+
+        /**
+         * Record the nanoseconds since @a startNanos, as returned by
+         * System.nanoTime().
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Returns the number of values recorded.
+         */
+        public long getCount() {
+            return mCount.sum();
+        }
+
+        /**
+         * Returns the mean of the values recorded, or 0 if there are
+         * none.
+         */
+        public long getMean() {
+            long count = mCount.sum();
+            return count == 0 ? 0 : mSum.sum() / count;
+        }
+
+        /**
+         * Returns the largest value recorded.
+         */
+        public long getMax() {
+            return mMax.get();
+        }
+
+        /**
+         * @return The value that @a percentile percent of the
+         * recorded values are at or below, to within the precision of
+         * the buckets, or 0 if there are none.
+         */
+        public long getPercentile(double percentile) {
+            long count = mCount.sum();
+            if (count == 0)
+                return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length(); ++i) {
+                seen += mBuckets.get(i);
+                if (seen >= rank)
+                    return Math.min(highestValueIn(i), getMax());
+            }
+
+            return getMax();
+        }
+
+        /**
+         * @return The index of the bucket that counts the @a value.
+         */
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS)
+                return (int) value;
+
+            // Keep the SUB_BUCKET_BITS most significant bits.
+            int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+            return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        /**
+         * @return The largest value counted by the bucket at @a index.
+         */
+        static long highestValueIn(int index) {
+            if (index < SUB_BUCKETS)
+                return index;
+
+            int shift = index / HALF_SUB_BUCKETS - 1;
+            long lowest = (long) (index - shift * HALF_SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+
+    /** The singleton @a Metrics instance. */
+    private static Metrics mUniqueInstance = null;
+
+    /**
+     * The metrics, keyed by their names.
+     */
+    private final Map<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> mGauges = new ConcurrentHashMap<>();
+
+    /**
+     * Method to return the one and only singleton uniqueInstance.
+     */
+    public static synchronized Metrics instance() {
+        if (mUniqueInstance == null)
+            mUniqueInstance = new Metrics();
+
+        return mUniqueInstance;
+    }
+
+    /**
+     * Constructor is package-private so tests can make their own
+     * registry.
+     */
+    Metrics() {
+    }
+
+    /**
+     * @return The Counter named @a name, which is made on first use.
+     */
+    public Counter counter(String name) {
+        return mCounters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * @return The Histogram named @a name, which is made on first
+     * use.
+     */
+    public Histogram histogram(String name) {
+        return mHistograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Register a Gauge named @a name whose value is read from the @a
+     * supplier whenever the metrics are dumped, replacing any Gauge
+     * with that name.
+     */
+    public void gauge(String name,
+                      LongSupplier supplier) {
+        mGauges.put(name, supplier);
+    }
+
+    /**
+     * @return The current values of all the metrics as text, one
+     * metric per line, sorted by name.
+     */
+    public String dump() {
+        Map<String, String> lines = new TreeMap<>();
+
+        mCounters.forEach((name, counter) ->
+                          lines.put(name, "counter " + name + " " + counter.get()));
+        mGauges.forEach((name, gauge) ->
+                        lines.put(name, "gauge " + name + " " + gauge.getAsLong()));
+        mHistograms.forEach((name, histogram) ->
+                            lines.put(name,
+                                      "histogram " + name
+                                      + " count=" + histogram.getCount()
+                                      + " mean=" + histogram.getMean()
+                                      + " p50=" + histogram.getPercentile(50)
+                                      + " p90=" + histogram.getPercentile(90)
+                                      + " p99=" + histogram.getPercentile(99)
+                                      + " max=" + histogram.getMax()));
+
+        StringBuilder dump = new StringBuilder();
+        for (String line : lines.values())
+            dump.append(line).append('\n');
+        return dump.toString();
+    }
+
+    /**
+     * Export the current values of all the metrics to the @a file,
+     * writing a temporary file first so the @a file is either
+     * complete or unchanged.
+     */
+    public void export(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        File temporaryFile = new File(file.getParentFile(),
+                                      "." + file.getName() + ".tmp");
+
+        try (Writer writer =
+             new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8")) {
+            writer.write(dump());
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw e;
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("can't rename " + temporaryFile + " to " + file);
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package livelessons.imagestreamgang.utils;
 
 import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 
 import static livelessons.imagestreamgang.TheApp.getApp;
 
@@ -32,71 +36,185 @@ public final class NetUtils {
     }
     
     /**
-     * Download the contents found at the given URL and return them as
-     * a raw byte array.
+     * Decodes the raw bytes of the contents downloaded from a URL.
      */
-    public static byte[] downloadContent(URL url) {
-        // The size of the image downloading buffer.
-        final int BUFFER_SIZE = 4096;
-
-        // Creates a new ByteArrayOutputStream to write the downloaded
-        // contents to a byte array, which is a generic form of the
-        // image.
-        ByteArrayOutputStream ostream =
-            new ByteArrayOutputStream();
-        
-        // This is the buffer in which the input data will be stored
-        byte[] readBuffer = new byte[BUFFER_SIZE];
-        int bytes;
-        
-        // Creates an InputStream from the inputUrl from which to read
-    	// the image data.
-        try (InputStream istream = getInputStream(url)) {
-            // While there is unread data from the inputStream,
-            // continue writing data to the byte array.
-            while ((bytes = istream.read(readBuffer)) > 0) 
-                ostream.write(readBuffer, 0, bytes);
-
-            return ostream.toByteArray();
+    public interface ContentDecoder<T> {
+        /**
+         * Decode the contents stored in the first @a length bytes of
+         * the @a content buffer, which is only valid until this
+         * method returns.
+         */
+        T decode(byte[] content, int length);
+
+        /**
+         * Decode the @a length bytes (if known) of contents of a
+         * local file, which start at the current position of the @a
+         * file stream, which is only valid until this method
+         * returns.  By default the contents are read into a pooled
+         * buffer and passed to decode(byte[], int), so a decoder
+         * that can read the file itself, e.g., via its
+         * FileDescriptor, should override this method, so the
+         * contents are never copied onto the heap.
+         */
+        default T decode(FileInputStream file,
+                         long length) throws IOException {
+            ContentBuffer content = new ContentBuffer();
+
+            try {
+                content.read(file, length);
+                return decode(content.mBuffer, content.mLength);
+            } finally {
+                content.release();
+            }
+        }
+    }
+
+    /**
+     * Download the contents found at the given URL directly into a
+     * single pooled buffer, which is presized from the Content-Length
+     * (if known), and pass it to the @a decoder, so the contents are
+     * never copied.  Local files, and resources stored uncompressed
+     * in the APK, are instead passed to the @a decoder as open files,
+     * so it can decode them without reading them onto the heap at
+     * all.  Network URLs are downloaded via the shared
+     * DownloadClient, so their connections are reused, and HTTP(S)
+     * URLs are revalidated via the HttpCache rather than downloaded
+     * again if their originals are stored.
+     *
+     * @return The result of the decoder, or null if the download
+     * failed.
+     */
+    public static <T> T downloadContent(URL url,
+                                        ContentDecoder<T> decoder) {
+        ContentBuffer content = new ContentBuffer();
+
+        try {
+            if (isResourceUrl(url.toString())) {
+                Log.d(TAG, "Loading image from app resources");
+
+                // Decode the resource straight from the APK if it's
+                // stored uncompressed.
+                AssetFileDescriptor resource = getResourceFileDescriptor(url);
+                if (resource != null)
+                    try (FileInputStream file = resource.createInputStream()) {
+                        return decoder.decode(file,
+                                              resource.getLength());
+                    }
+
+                // The size of a resource isn't known up front.
+                try (InputStream istream = getResourceInputStream(url)) {
+                    content.read(istream, -1);
+                }
+            } else if (url.getProtocol().equals("file"))
+                return decodeFile(new File(url.getPath()), decoder);
+            else if (HttpCache.isCacheable(url))
+                // Reuse the stored original if it hasn't changed.
+                return HttpCache.instance().download(url, decoder);
+            else
+                DownloadClient.instance().download
+                    (url,
+                     NetUtils::limitTimeouts,
+                     (connection, istream) -> {
+                         content.read(istream,
+                                      connection.getContentLengthLong());
+                         return null;
+                     });
+
+            // Decode the contents while the buffer is still valid.
+            return decoder.decode(content.mBuffer, content.mLength);
         } catch (IOException e) {
             // "Try-with-resources" will clean up the istream
             // automatically.
             e.printStackTrace();
             return null;
+        } finally {
+            // Give the buffer back so the next download can use it.
+            content.release();
         }
     }
 
     /**
-     * Creates an input stream for the passed URL. This method will
-     * support both normal URLs and any URL located in the application
-     * resources.
+     * Pass the contents of the local @a file to the @a decoder as an
+     * open file, so it can decode them without copying them.
      *
-     * @param url     Any URL including a resource URL.
-     * @return An input stream.
+     * @return The result of the decoder.
+     */
+    public static <T> T decodeFile(File file,
+                                   ContentDecoder<T> decoder)
+        throws IOException {
+        try (FileInputStream istream = new FileInputStream(file)) {
+            return decoder.decode(istream, file.length());
+        }
+    }
+
+    /**
+     * Limit the connect and read timeouts of the @a connection to the
+     * time left before the current Deadline, so a hung server can't
+     * outlast it.
+     */
+    static void limitTimeouts(URLConnection connection) {
+        long remaining = Deadline.current().remainingMillis();
+        if (remaining == Long.MAX_VALUE)
+            return;
+
+        // A timeout of 0 means none, and so does Long.MAX_VALUE.
+        int limit = (int) Math.min(Integer.MAX_VALUE - 1, remaining);
+        if (connection.getConnectTimeout() == 0
+            || connection.getConnectTimeout() > limit)
+            connection.setConnectTimeout(limit);
+        if (connection.getReadTimeout() == 0
+            || connection.getReadTimeout() > limit)
+            connection.setReadTimeout(limit);
+    }
+
+    /**
+     * Opens an InputStream for the contents of a @a url located in
+     * the application resources.
+     *
+     * @param url     A resource URL.
+     * @return An InputStream for the contents of the resource.
      * @throws IOException
      */
-    private static InputStream getInputStream(URL url)
+    private static InputStream getResourceInputStream(URL url)
             throws IOException {
-        if (isResourceUrl(url.toString())) {
-            Log.d(TAG, "Loading image from app resources");
-
-            // Both URL and Uri classes will not accept a proper
-            // android resource scheme but will accept the prefix
-            // "file:///android_res/". To get an apk resource input
-            // stream, simply replace this prefix so that the
-            // resulting url can be passed to the application's
-            // content resolver.
-            String resUrl = 
-                url.toString().replace(RESOURCE_BASE,
-                                       ContentResolver.SCHEME_ANDROID_RESOURCE
-                                       + "://");
-            return getApp().getContentResolver().openInputStream(Uri.parse(resUrl));
-        } else {
-            // Normal URL.
-            return url.openStream();
+        return getApp().getContentResolver().openInputStream(getResourceUri(url));
+    }
+
+    /**
+     * Opens an AssetFileDescriptor for the contents of a @a url
+     * located in the application resources.
+     *
+     * @param url     A resource URL.
+     * @return An AssetFileDescriptor for the contents of the
+     * resource, or null if the resource is compressed, so it can
+     * only be read via getResourceInputStream().
+     */
+    private static AssetFileDescriptor getResourceFileDescriptor(URL url) {
+        try {
+            return getApp().getContentResolver()
+                .openAssetFileDescriptor(getResourceUri(url), "r");
+        } catch (FileNotFoundException e) {
+            return null;
         }
     }
 
+    /**
+     * @return The Uri the application's content resolver knows the
+     * resource @a url by.
+     */
+    private static Uri getResourceUri(URL url) {
+        // Both URL and Uri classes will not accept a proper android
+        // resource scheme but will accept the prefix
+        // "file:///android_res/". To get an apk resource input
+        // stream, simply replace this prefix so that the resulting
+        // url can be passed to the application's content resolver.
+        String resUrl = 
+            url.toString().replace(RESOURCE_BASE,
+                                   ContentResolver.SCHEME_ANDROID_RESOURCE
+                                   + "://");
+        return Uri.parse(resUrl);
+    }
+
     /**
      * @return True iff the url is a resource file.
      */
@@ -8,6 +8,8 @@ import android.support.annotation.AnyRes;
 import android.widget.AutoCompleteTextView;
 import android.widget.LinearLayout;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -39,16 +41,82 @@ public class Options {
     }
 
     /**
-     * Pathname for the file containing URLs to download.
+     * Pathname for the file containing URLs to download, which is
+     * relative to getDirectoryPath() unless it's absolute.
      */
     private String mPathname = "defaultUrls.txt";
 
+    /**
+     * URL of the feed that batches of URLs to download are requested
+     * from (no default).
+     */
+    private String mFeedUrl = null;
+
+    /**
+     * The number of URLs read from a file or feed for each cycle
+     * (defaults to 16).
+     */
+    private int mBatchSize = 16;
+
+    /**
+     * The number of batches of URLs read from a file ahead of the
+     * cycles that process them.
+     */
+    private static final int READ_AHEAD_BATCHES = 4;
+
+    /**
+     * The number of batches of URLs requested from a feed ahead of
+     * the cycles that process them, which overlaps fetching the next
+     * batch with processing the current one.
+     */
+    private static final int PREFETCH_BATCHES = 1;
+
     /**
      * Controls whether debugging output will be generated (defaults
      * to false).
      */
     private boolean mDiagnosticsEnabled = false;
 
+    /**
+     * The maximum number of URL Lists (cycles) that can be processed
+     * concurrently (defaults to 1, i.e., no overlap between cycles).
+     */
+    private int mCycleDepth = 1;
+
+    /**
+     * Images with at least this many pixels are split into bands
+     * that are filtered in parallel, or 0 (the default) if images are
+     * only tiled by filters whose setTiled() was called.  Tiling is
+     * opt-in since the bands run in the common fork-join pool, which
+     * competes for the cores with the Threads that filter other
+     * images.
+     */
+    private long mTilePixels = 0;
+
+    /**
+     * Encodes the filtered images into their output files (defaults
+     * to PNG via Bitmap.compress()).
+     */
+    private ImageEncoder mImageEncoder =
+        ImageEncoder.parse(ImageEncoder.DEFAULT_SPEC);
+
+    /**
+     * Controls whether cached images are revalidated with their
+     * servers via conditional GETs (defaults to false, since each
+     * revalidation blocks on the network once per cached URL per
+     * cycle).
+     */
+    private boolean mRevalidateCache = false;
+
+    /**
+     * The milliseconds each step of processing an image (its download
+     * and each filtering), each cycle, and the whole run may take
+     * before they're cancelled (defaults to 0, i.e., no limit).
+     */
+    private long mImageTimeoutMillis = 0;
+    private long mCycleTimeoutMillis = 0;
+    private long mRunTimeoutMillis = 0;
+
     /**
      * The path to the external storage directory in Android.
      */
@@ -123,6 +191,14 @@ public class Options {
     public Iterator<List<URL>> getUrlIterator(Context context,
                                               LinearLayout listUrlGroups,
                                               InputSource source) {
+        // A file may have too many URLs to hold in memory at once,
+        // so it's read lazily.
+        if (source == InputSource.FILE)
+            return getFileUrlIterator(context);
+        // Likewise, a feed is requested one batch at a time.
+        else if (source == InputSource.NETWORK)
+            return getFeedUrlIterator(context);
+
     	List<List<URL>> urlLists = getUrlLists(context,
                                                listUrlGroups,
                                                source);
@@ -131,6 +207,50 @@ public class Options {
             : null;
     }
 
+    /**
+     * Return an Iterator that lazily reads batches of getBatchSize()
+     * URLs from the file named by getURLFilePathname(), which may be
+     * gzipped, a few batches ahead of the cycles that process them.
+     */
+    protected Iterator<List<URL>> getFileUrlIterator(Context context) {
+        File file = new File(mPathname);
+        if (!file.isAbsolute())
+            file = new File(getDirectoryPath(), mPathname);
+
+        try {
+            return new ReadAheadIterator<>(new UrlFileReader(file, mBatchSize),
+                                           READ_AHEAD_BATCHES,
+                                           "UrlFileReader");
+        } catch (IOException e) {
+            e.printStackTrace();
+            UiUtils.showToast(context,
+                              "Invalid file");
+            return null;
+        }
+    }
+
+    /**
+     * Return an Iterator that requests batches of getBatchSize() URLs
+     * from the feed at getFeedUrl(), prefetching the next batch while
+     * the current one is processed.
+     */
+    protected Iterator<List<URL>> getFeedUrlIterator(Context context) {
+        try {
+            if (mFeedUrl == null)
+                throw new MalformedURLException("no feed URL");
+
+            return new ReadAheadIterator<>(new UrlFeedReader(new URL(mFeedUrl),
+                                                             mBatchSize),
+                                           PREFETCH_BATCHES,
+                                           "UrlFeedReader");
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            UiUtils.showToast(context,
+                              "Invalid feed");
+            return null;
+        }
+    }
+
     /**
      * Returns the appropriate list of URLs, i.e., either pointing to
      * the local device or to a remote server.
@@ -277,6 +397,78 @@ public class Options {
         return mDiagnosticsEnabled;
     }
 
+    /**
+     * Returns the maximum number of URL Lists (cycles) that can be
+     * processed concurrently.
+     */
+    public int getCycleDepth() {
+        return mCycleDepth;
+    }
+
+    /**
+     * Returns the number of pixels at which images are split into
+     * bands that are filtered in parallel, or 0 if they aren't split
+     * because of their size.
+     */
+    public long getTilePixels() {
+        return mTilePixels;
+    }
+
+    /**
+     * Returns the URL of the feed that batches of URLs are requested
+     * from, or null if there's none.
+     */
+    public String getFeedUrl() {
+        return mFeedUrl;
+    }
+
+    /**
+     * Returns the number of URLs read from a file or feed for each
+     * cycle.
+     */
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Returns the encoder of the filtered images.
+     */
+    public ImageEncoder getImageEncoder() {
+        return mImageEncoder;
+    }
+
+    /**
+     * Returns whether cached images are revalidated with their
+     * servers.
+     */
+    public boolean revalidateCache() {
+        return mRevalidateCache;
+    }
+
+    /**
+     * Returns the milliseconds each step of processing an image may
+     * take, or 0 if there's no limit.
+     */
+    public long getImageTimeoutMillis() {
+        return mImageTimeoutMillis;
+    }
+
+    /**
+     * Returns the milliseconds each cycle may take, or 0 if there's
+     * no limit.
+     */
+    public long getCycleTimeoutMillis() {
+        return mCycleTimeoutMillis;
+    }
+
+    /**
+     * Returns the milliseconds the whole run may take, or 0 if
+     * there's no limit.
+     */
+    public long getRunTimeoutMillis() {
+        return mRunTimeoutMillis;
+    }
+
     /**
      * Parse command-line arguments and set the appropriate values.
      */
@@ -285,6 +477,26 @@ public class Options {
             for (int argc = 0; argc < argv.length; argc += 2)
                 if (argv[argc].equals("-d"))
                     mDiagnosticsEnabled = argv[argc + 1].equals("true");
+                else if (argv[argc].equals("-c"))
+                    mCycleDepth = Math.max(1, Integer.parseInt(argv[argc + 1]));
+                else if (argv[argc].equals("-p"))
+                    mTilePixels = Math.max(0, Long.parseLong(argv[argc + 1]));
+                else if (argv[argc].equals("-e"))
+                    mImageEncoder = ImageEncoder.parse(argv[argc + 1]);
+                else if (argv[argc].equals("-r"))
+                    mRevalidateCache = argv[argc + 1].equals("true");
+                else if (argv[argc].equals("-ti"))
+                    mImageTimeoutMillis = Math.max(0, Long.parseLong(argv[argc + 1]));
+                else if (argv[argc].equals("-tc"))
+                    mCycleTimeoutMillis = Math.max(0, Long.parseLong(argv[argc + 1]));
+                else if (argv[argc].equals("-tr"))
+                    mRunTimeoutMillis = Math.max(0, Long.parseLong(argv[argc + 1]));
+                else if (argv[argc].equals("-f"))
+                    mPathname = argv[argc + 1];
+                else if (argv[argc].equals("-n"))
+                    mFeedUrl = argv[argc + 1];
+                else if (argv[argc].equals("-b"))
+                    mBatchSize = Math.max(1, Integer.parseInt(argv[argc + 1]));
                 else {
                     printUsage();
                     return false;
@@ -300,6 +512,16 @@ public class Options {
     public void printUsage() {
         System.out.println("Usage: ");
         System.out.println("-d [true|false]");
+        System.out.println("-c [cycleDepth]");
+        System.out.println("-p [tilePixels]");
+        System.out.println("-r [true|false]");
+        System.out.println("-ti [imageTimeoutMillis]");
+        System.out.println("-tc [cycleTimeoutMillis]");
+        System.out.println("-tr [runTimeoutMillis]");
+        System.out.println("-f [urlFilePathname]");
+        System.out.println("-n [feedUrl]");
+        System.out.println("-b [batchSize]");
+        System.out.println("-e [png|png-fast|png-small|jpeg|webp][:quality|:low|:medium|:high]");
     }
 
     /**
@@ -0,0 +1,167 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes ARGB pixels as a PNG file with a configurable deflate
+ * level.  Bitmap.compress() always compresses PNGs as hard as it can,
+ * which is slow, whereas a low level (e.g., Deflater.BEST_SPEED)
+ * trades a somewhat bigger file for much less CPU time.  Rows are
+ * written unfiltered, i.e., with PNG filter type 0.
+ */
+public class PngEncoder {
+    /**
+     * The PNG file signature.
+     */
+    private static final byte[] SIGNATURE = {
+        (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    /**
+     * The maximum number of bytes in each IDAT chunk.
+     */
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The PNG color types for RGB and RGBA pixels.
+     */
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * A utility class should always define a private constructor.
+     */
+    private PngEncoder() {
+    }
+
+    /**
+     * Encode the @a width x @a height ARGB @a pixels (which are not
+     * premultiplied) as a PNG, compressed with the given deflate @a
+     * level, and write it to the @a outputStream.  The alpha channel
+     * is only written if @a hasAlpha is true.
+     */
+    public static void encode(int[] pixels,
+                              int width,
+                              int height,
+                              boolean hasAlpha,
+                              int level,
+                              OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        int bytesPerPixel = hasAlpha ? 4 : 3;
+
+        output.write(SIGNATURE);
+
+        // Write the header.
+        ChunkOutputStream header = new ChunkOutputStream(output, "IHDR");
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8); // Bit depth.
+        headerData.writeByte(hasAlpha ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB);
+        headerData.writeByte(0); // Compression method.
+        headerData.writeByte(0); // Filter method.
+        headerData.writeByte(0); // No interlacing.
+        header.close();
+
+        // Write the compressed rows, one IDAT chunk at a time.
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream image =
+             new DeflaterOutputStream(new ChunkOutputStream(output, "IDAT"),
+                                      deflater,
+                                      MAX_CHUNK_SIZE)) {
+            byte[] row = new byte[1 + width * bytesPerPixel];
+
+            for (int y = 0; y < height; ++y) {
+                // The first byte of each row is its filter type.
+                int i = 1;
+                for (int x = y * width; x < (y + 1) * width; ++x) {
+                    int pixel = pixels[x];
+                    row[i++] = (byte) (pixel >> 16);
+                    row[i++] = (byte) (pixel >> 8);
+                    row[i++] = (byte) pixel;
+                    if (hasAlpha)
+                        row[i++] = (byte) (pixel >>> 24);
+                }
+                image.write(row);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        // Write the trailer.
+        new ChunkOutputStream(output, "IEND").close();
+        output.flush();
+    }
+
+    /**
+     * Writes the bytes written to it as PNG chunks of the given type,
+     * each of which holds at most MAX_CHUNK_SIZE bytes.  close()
+     * writes the last chunk, even if it's empty, but doesn't close
+     * the underlying stream.
+     */
+    private static class ChunkOutputStream
+            extends OutputStream {
+        private final DataOutputStream mOutput;
+        private final byte[] mType;
+        private final byte[] mBuffer = new byte[MAX_CHUNK_SIZE];
+        private int mLength;
+        private boolean mWritten;
+
+        ChunkOutputStream(DataOutputStream output, String type) {
+            mOutput = output;
+            mType = type.getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mLength == mBuffer.length)
+                writeChunk();
+            mBuffer[mLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+            throws IOException {
+            while (length > 0) {
+                if (mLength == mBuffer.length)
+                    writeChunk();
+
+                int copied = Math.min(length, mBuffer.length - mLength);
+                System.arraycopy(bytes, offset, mBuffer, mLength, copied);
+                mLength += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mLength > 0 || !mWritten)
+                writeChunk();
+        }
+
+        /**
+         * Write the buffered bytes as one chunk, i.e., its length,
+         * type, data, and the CRC of its type and data.
+         */
+        private void writeChunk() throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(mType);
+            crc.update(mBuffer, 0, mLength);
+
+            mOutput.writeInt(mLength);
+            mOutput.write(mType);
+            mOutput.write(mBuffer, 0, mLength);
+            mOutput.writeInt((int) crc.getValue());
+
+            mLength = 0;
+            mWritten = true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes a pool of Threads that run blocking tasks, e.g., downloads,
+ * from how long the tasks spend waiting versus computing, using the
+ * rule of thumb
+ *
+ *     threads = processors * (1 + wait time / compute time)
+ *
+ * which keeps the processors busy while the other Threads are
+ * blocked.  Until any times are recorded the initial size is used.
+ */
+public class PoolSizer {
+    /**
+     * The number of processors the pool runs on.
+     */
+    private final int mProcessors;
+
+    /**
+     * The smallest and largest size of the pool.
+     */
+    private final int mMinSize;
+    private final int mMaxSize;
+
+    /**
+     * The size of the pool until any times are recorded.
+     */
+    private final int mInitialSize;
+
+    /**
+     * The total time the tasks spent waiting and computing.
+     */
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mComputeNanos = new AtomicLong();
+
+    /**
+     * Constructor initializes the data members, so the pool sized for
+     * the given number of @a processors starts with @a initialSize
+     * Threads and has at least @a minSize and at most @a maxSize.
+     */
+    public PoolSizer(int processors,
+                     int minSize,
+                     int maxSize,
+                     int initialSize) {
+        mProcessors = processors;
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        mInitialSize = clamp(initialSize);
+    }
+
+    /**
+     * Record that a task spent @a waitNanos blocked, e.g., on the
+     * network, and @a computeNanos computing, e.g., decoding.
+     */
+    public void record(long waitNanos,
+                       long computeNanos) {
+        mWaitNanos.addAndGet(Math.max(0, waitNanos));
+        mComputeNanos.addAndGet(Math.max(0, computeNanos));
+    }
+
+    /**
+     * @return The size of the pool for the times recorded so far.
+     */
+    public int getPoolSize() {
+        long waitNanos = mWaitNanos.get();
+        long computeNanos = mComputeNanos.get();
+
+        if (waitNanos == 0 && computeNanos == 0)
+            return mInitialSize;
+        else if (computeNanos == 0)
+            // The tasks do nothing but wait.
+            return mMaxSize;
+        else
+            return clamp((int) Math.min(Integer.MAX_VALUE,
+                                        Math.round(mProcessors
+                                                   * (1.0 + (double) waitNanos
+                                                      / computeNanos))));
+    }
+
+    /**
+     * @return The @a size limited to the smallest and largest size.
+     */
+    private int clamp(int size) {
+        return Math.max(mMinSize, Math.min(mMaxSize, size));
+    }
+}
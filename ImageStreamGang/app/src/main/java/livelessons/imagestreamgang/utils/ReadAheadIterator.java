@@ -0,0 +1,143 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An Iterator that reads the elements of a source Iterator, which
+ * may block (e.g., on disk or network I/O), ahead of its consumer on
+ * a dedicated daemon Thread.  At most a given number of elements are
+ * read ahead, so memory stays bounded however many elements the
+ * source has, and the consumer only waits if it gets ahead of the
+ * source.  The source is closed, if it's Closeable, once it has no
+ * more elements or this Iterator is closed.
+ */
+public class ReadAheadIterator<T>
+       implements Iterator<T>, Closeable {
+    /**
+     * Queued after the last element of the source.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * The Iterator whose elements are read ahead.
+     */
+    private final Iterator<T> mSource;
+
+    /**
+     * The elements read ahead, followed by END.
+     */
+    private final BlockingQueue<Object> mQueue;
+
+    /**
+     * The Thread that reads ahead.
+     */
+    private final Thread mReader;
+
+    /**
+     * The element taken from the queue by hasNext() but not yet
+     * returned by next(), or null if there's none.
+     */
+    private Object mNext;
+
+    /**
+     * True once close() has been called.
+     */
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor starts a daemon Thread named @a name that reads
+     * at most @a readAhead elements of the @a source ahead.
+     */
+    public ReadAheadIterator(Iterator<T> source,
+                             int readAhead,
+                             String name) {
+        mSource = source;
+        mQueue = new ArrayBlockingQueue<>(readAhead);
+
+        mReader = new Thread(this::readAhead, name);
+        // Don't keep the process alive just for the reader.
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+    /**
+     * @return true if the source has another element, else false,
+     * waiting for it to be read if need be.
+     */
+    @Override
+    public boolean hasNext() {
+        if (mClosed)
+            return false;
+
+        if (mNext == null)
+            try {
+                mNext = mQueue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+        return mNext != END;
+    }
+
+    /**
+     * @return The next element of the source.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T next = (T) mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * Stop reading ahead and close the source, e.g., if the consumer
+     * stops before the source has no more elements.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        mReader.interrupt();
+    }
+
+    /**
+     * The loop run by the reader Thread, which blocks whenever it's
+     * as far ahead as it may get.
+     */
+    private void readAhead() {
+        try {
+            while (!mClosed && mSource.hasNext())
+                mQueue.put(mSource.next());
+        } catch (InterruptedException e) {
+            // close() was called.
+        } catch (RuntimeException e) {
+            // Treat a failing source as one with no more elements.
+            e.printStackTrace();
+        } finally {
+            if (mSource instanceof Closeable)
+                try {
+                    ((Closeable) mSource).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+
+            // Tell the consumer there are no more elements, unless
+            // it has gone away.
+            if (!mClosed)
+                try {
+                    mQueue.put(END);
+                } catch (InterruptedException e) {
+                    // close() was called.
+                }
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.util.stream.Collectors.joining;
+
+/**
+ * A journal of the progress of a run, so a run that dies or is
+ * cancelled partway through can be resumed where it left off.  Each
+ * filtered image that has been written is appended as a (cycle, URL,
+ * filter) record, and once every cycle up to some cycle is done and
+ * all its writes are on disk, that cycle is appended as a checkpoint.
+ * A restarted run skips the cycles up to the last checkpoint and
+ * takes the images recorded after it from the journal rather than
+ * looking for their files.  Records are synced to disk in batches
+ * rather than one at a time, and always at a checkpoint.  The journal
+ * is deleted once a run finishes completely, so the next run starts
+ * from the beginning.  The input of each cycle is journaled as a
+ * hash when the cycle begins, so a restarted run that's given
+ * different input can rewind the journal to the last cycle whose
+ * input matches rather than skipping input it never processed.
+ */
+public class RunJournal {
+    /**
+     * Prefixes of the records in the journal.
+     */
+    private static final String RUN = "R";
+    private static final String INPUT = "I";
+    private static final String PUT = "+";
+    private static final String CHECKPOINT = "C";
+
+    /**
+     * Records are synced to disk after at most this many of them or
+     * this many milliseconds, whichever comes first.
+     */
+    private static final int SYNC_RECORDS = 32;
+    private static final long SYNC_MILLIS = 1_000;
+
+    /**
+     * The journal file.
+     */
+    private final File mJournal;
+
+    /**
+     * Identifies the run, e.g., by its filters, so a journal left by
+     * a different run isn't resumed.
+     */
+    private final String mRunKey;
+
+    /**
+     * The sizes of the images journaled by an earlier run after its
+     * last checkpoint, keyed by the hash of their URL and the name of
+     * their filter.
+     */
+    private final Map<String, Long> mEarlierImages = new HashMap<>();
+
+    /**
+     * The hash of the input of each cycle, in order of the cycles.
+     */
+    private final Map<Long, String> mInputs = new TreeMap<>();
+
+    /**
+     * The last cycle such that it and all the cycles before it are
+     * done.
+     */
+    private long mCheckpoint;
+
+    /**
+     * The cycles that are done but not yet checkpointed, since a
+     * cycle before them isn't done or writes are still pending.
+     */
+    private final Set<Long> mDoneCycles = new HashSet<>();
+
+    /**
+     * The number of writes that have begun but not ended, keyed by
+     * the cycle they belong to.
+     */
+    private final Map<Long, Integer> mPendingWrites = new HashMap<>();
+
+    /**
+     * The first cycle in which a cycle or write failed, or
+     * Long.MAX_VALUE if none has, since it and the cycles after it
+     * are never checkpointed, so a restarted run redoes them.
+     */
+    private long mBrokenCycle = Long.MAX_VALUE;
+
+    /**
+     * Appends records to the journal, or null once it's finished.
+     */
+    private FileOutputStream mStream;
+    private Writer mWriter;
+
+    /**
+     * The number of records appended since the last sync, and when
+     * the last sync happened.
+     */
+    private int mUnsyncedRecords;
+    private long mLastSyncMillis = System.currentTimeMillis();
+
+    /**
+     * The time taken by each sync, in the Metrics.
+     */
+    private final Metrics.Histogram mSyncNanos =
+        Metrics.instance().histogram("journal.sync.nanos");
+
+    /**
+     * Constructor loads the progress of an earlier run of the run
+     * identified by @a runKey from the @a journal file, if there is
+     * one, and opens it for appending.
+     */
+    public RunJournal(File journal,
+                      String runKey) {
+        mJournal = journal;
+        mRunKey = runKey;
+        load();
+    }
+
+    /**
+     * @return The last cycle an earlier run checkpointed, i.e., the
+     * number of cycles of input to skip, or 0 if there's nothing to
+     * resume.
+     */
+    public synchronized long getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    /**
+     * @return The size of the image produced by the filter named @a
+     * filterName from the @a url if an earlier run journaled it, else
+     * -1.  The image is only returned once, since from then on the
+     * CacheIndex keeps track of it.
+     */
+    public long take(URL url,
+                     String filterName) {
+        return take(CacheIndex.hash(url), filterName);
+    }
+
+    /**
+     * @return The size of the image produced by the filter named @a
+     * filterName from the URL whose CacheIndex.hash() is @a urlHash
+     * if an earlier run journaled it, else -1.
+     */
+    public synchronized long take(String urlHash,
+                                  String filterName) {
+        Long size = mEarlierImages.remove(urlHash + '\t' + filterName);
+        return size != null ? size : -1;
+    }
+
+    /**
+     * @return True if the @a input is the input an earlier run
+     * journaled for @a cycle, else false.
+     */
+    public synchronized boolean matches(long cycle,
+                                        List<URL> input) {
+        return makeInputKey(input).equals(mInputs.get(cycle));
+    }
+
+    /**
+     * Rewind the journal to @a cycle, e.g., since the input of the
+     * cycle after it differs from that of the earlier run, so the
+     * cycles after it are redone and none of the images journaled
+     * after the checkpoint are taken.
+     */
+    public synchronized void rewind(long cycle) {
+        if (cycle >= mCheckpoint)
+            return;
+
+        mCheckpoint = cycle;
+        mEarlierImages.clear();
+        mInputs.keySet().removeIf(inputCycle -> inputCycle > cycle);
+        rewrite();
+    }
+
+    /**
+     * Note that @a cycle has begun with the given @a input.
+     */
+    public synchronized void beginCycle(long cycle,
+                                        List<URL> input) {
+        String inputKey = makeInputKey(input);
+        mInputs.put(cycle, inputKey);
+        append(INPUT + '\t' + cycle + '\t' + inputKey);
+    }
+
+    /**
+     * Note that @a cycle is done, which is @a complete if all its
+     * images were processed.  It's checkpointed once the cycles
+     * before it are too and none of their writes are pending.
+     */
+    public synchronized void endCycle(long cycle,
+                                      boolean complete) {
+        if (complete)
+            mDoneCycles.add(cycle);
+        else
+            mBrokenCycle = Math.min(mBrokenCycle, cycle);
+
+        checkpoint();
+    }
+
+    /**
+     * Note that a filtered image of @a cycle is about to be written.
+     */
+    public synchronized void beginWrite(long cycle) {
+        mPendingWrites.merge(cycle, 1, Integer::sum);
+    }
+
+    /**
+     * Note that the image of @a cycle produced by the filter named @a
+     * filterName from the @a url has been written to @a file, or
+     * couldn't be if it's null.
+     */
+    public synchronized void endWrite(long cycle,
+                                      URL url,
+                                      String filterName,
+                                      File file) {
+        // Forget the cycle once none of its writes are pending.
+        mPendingWrites.computeIfPresent(cycle,
+                                        (pendingCycle, writes) ->
+                                            writes > 1 ? writes - 1 : null);
+
+        if (file != null)
+            append(PUT
+                   + '\t'
+                   + cycle
+                   + '\t'
+                   + makeKey(url, filterName)
+                   + '\t'
+                   + file.length());
+        else
+            mBrokenCycle = Math.min(mBrokenCycle, cycle);
+
+        checkpoint();
+    }
+
+    /**
+     * Finish the journal at the end of a run, deleting it if the run
+     * is @a complete, since there's nothing left to resume, else
+     * syncing it.
+     */
+    public synchronized void finish(boolean complete) {
+        if (mWriter == null)
+            return;
+
+        try {
+            sync();
+            mWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mWriter = null;
+        mStream = null;
+
+        if (complete)
+            mJournal.delete();
+    }
+
+    /**
+     * Checkpoint the done cycles that follow the last checkpoint, up
+     * to the first one that failed or still has writes pending, which
+     * writes of later cycles don't hold up.
+     */
+    private void checkpoint() {
+        long checkpoint = mCheckpoint;
+        while (checkpoint + 1 < mBrokenCycle
+               && !mPendingWrites.containsKey(checkpoint + 1)
+               && mDoneCycles.remove(checkpoint + 1))
+            ++checkpoint;
+
+        if (checkpoint > mCheckpoint) {
+            mCheckpoint = checkpoint;
+            append(CHECKPOINT + '\t' + checkpoint);
+
+            // The checkpoint must be on disk before the cycles it
+            // covers can be skipped.
+            try {
+                sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The key of the image produced by the filter named @a
+     * filterName from the @a url.
+     */
+    private static String makeKey(URL url,
+                                  String filterName) {
+        return CacheIndex.hash(url) + '\t' + filterName;
+    }
+
+    /**
+     * @return The key of the @a input of a cycle, i.e., the hash of
+     * its URLs.
+     */
+    private static String makeInputKey(List<URL> input) {
+        return CacheIndex.hash(input
+                               .stream()
+                               .map(URL::toString)
+                               .collect(joining("\n")));
+    }
+
+    /**
+     * Load the progress of an earlier run from the journal, if it was
+     * the same run, and rewrite the journal with just that progress,
+     * which also drops a torn last record.
+     */
+    private void load() {
+        if (mJournal.exists())
+            try (BufferedReader reader =
+                 new BufferedReader(new InputStreamReader
+                                    (new FileInputStream(mJournal),
+                                     StandardCharsets.UTF_8))) {
+                String header = reader.readLine();
+
+                // Only resume the same run.
+                if (header != null && header.equals(RUN + '\t' + mRunKey))
+                    for (String line; (line = reader.readLine()) != null; ) {
+                        // A put is the cycle, the URL hash, the
+                        // filter name, and the size of the image, an
+                        // input is the cycle and the hash of its
+                        // URLs, and a checkpoint is just the cycle.
+                        String[] fields = line.split("\t", 5);
+
+                        if (fields.length == 3 && fields[0].equals(INPUT))
+                            mInputs.put(Long.parseLong(fields[1]), fields[2]);
+                        else if (fields.length == 5 && fields[0].equals(PUT))
+                            mEarlierImages.put(fields[2] + '\t' + fields[3],
+                                               Long.parseLong(fields[4]));
+                        else if (fields.length == 2 && fields[0].equals(CHECKPOINT))
+                            mCheckpoint = Math.max(mCheckpoint,
+                                                   Long.parseLong(fields[1]));
+                    }
+            } catch (IOException | NumberFormatException e) {
+                // A torn last record is expected if the process died
+                // while appending it, so just keep what was read.
+                e.printStackTrace();
+            }
+
+        // Only the inputs of the checkpointed cycles are needed to
+        // resume, since the cycles after them are redone.
+        mInputs.keySet().removeIf(cycle -> cycle > mCheckpoint);
+
+        rewrite();
+    }
+
+    /**
+     * Rewrite the journal with just the progress up to the last
+     * checkpoint and the images journaled after it, and keep it open
+     * for appending.
+     */
+    private void rewrite() {
+        try {
+            if (mWriter != null)
+                mWriter.close();
+
+            // Rewrite the journal to a temporary file that replaces
+            // it once it's on disk, so the earlier progress isn't
+            // lost if the process dies meanwhile.  The file stays
+            // open for appending after it's renamed.
+            File rewritten = new File(mJournal.getPath() + ".tmp");
+            mJournal.getParentFile().mkdirs();
+            mStream = new FileOutputStream(rewritten);
+            mWriter = new BufferedWriter(new OutputStreamWriter(mStream,
+                                                                StandardCharsets.UTF_8));
+
+            append(RUN + '\t' + mRunKey);
+            for (Map.Entry<Long, String> input : mInputs.entrySet())
+                append(INPUT
+                       + '\t'
+                       + input.getKey()
+                       + '\t'
+                       + input.getValue());
+            for (Map.Entry<String, Long> image : mEarlierImages.entrySet())
+                append(PUT
+                       + '\t'
+                       + mCheckpoint
+                       + '\t'
+                       + image.getKey()
+                       + '\t'
+                       + image.getValue());
+            if (mCheckpoint > 0)
+                append(CHECKPOINT + '\t' + mCheckpoint);
+            sync();
+
+            if (!rewritten.renameTo(mJournal))
+                throw new IOException("unable to replace " + mJournal);
+        } catch (IOException e) {
+            // Keep working without a journal.
+            e.printStackTrace();
+            mWriter = null;
+            mStream = null;
+        }
+    }
+
+    /**
+     * Append the @a record to the journal, syncing it to disk if
+     * enough records or time have accumulated since the last sync.
+     */
+    private void append(String record) {
+        if (mWriter != null)
+            try {
+                mWriter.write(record + '\n');
+
+                if (++mUnsyncedRecords >= SYNC_RECORDS
+                    || System.currentTimeMillis() - mLastSyncMillis >= SYNC_MILLIS)
+                    sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+
+    /**
+     * Flush the appended records and force them to disk.
+     */
+    private void sync() throws IOException {
+        if (mWriter == null)
+            return;
+
+        long start = System.nanoTime();
+        mWriter.flush();
+        mStream.getFD().sync();
+        mSyncNanos.recordSince(start);
+
+        mUnsyncedRecords = 0;
+        mLastSyncMillis = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,110 @@
+package livelessons.imagestreamgang.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent requests for the same key, so that while a
+ * task for a key is in flight every other request for that key
+ * shares its CompletableFuture rather than running the task again.
+ * Once the task completes the key is forgotten, so a later request
+ * runs the task anew.
+ */
+public class SingleFlight<K, V> {
+    /**
+     * The futures of the tasks in flight, keyed by their keys.
+     */
+    private final Map<K, CompletableFuture<V>> mInFlight =
+        new ConcurrentHashMap<>();
+
+    /**
+     * The number of requests that shared a task in flight.
+     */
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    /**
+     * Asynchronously run the task started by @a task for the @a key,
+     * unless one is already in flight.
+     *
+     * @return A future to the result of the task in flight for the
+     * @a key.
+     */
+    public CompletableFuture<V> execute(K key,
+                                        Supplier<CompletableFuture<V>> task) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = mInFlight.putIfAbsent(key, flight);
+
+        if (existing != null) {
+            mCoalesced.incrementAndGet();
+            return existing;
+        }
+
+        try {
+            task.get().whenComplete((result, exception) ->
+                                    land(key, flight, result, exception));
+        } catch (Throwable t) {
+            land(key, flight, null, t);
+        }
+
+        return flight;
+    }
+
+    /**
+     * Synchronously run the @a task for the @a key on the calling
+     * Thread, unless one is already in flight, in which case wait for
+     * it.
+     *
+     * @return The result of the task in flight for the @a key.
+     */
+    public V run(K key, Supplier<V> task) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = mInFlight.putIfAbsent(key, flight);
+
+        if (existing != null) {
+            mCoalesced.incrementAndGet();
+            return existing.join();
+        }
+
+        V result;
+        try {
+            result = task.get();
+        } catch (RuntimeException | Error e) {
+            land(key, flight, null, e);
+            throw e;
+        }
+
+        land(key, flight, result, null);
+        return result;
+    }
+
+    /**
+     * Returns the number of requests that shared a task in flight.
+     */
+    public long getCoalesced() {
+        return mCoalesced.get();
+    }
+
+    /**
+     * Forget the task in flight for the @a key and complete its @a
+     * flight with the @a result or @a exception.
+     */
+    private void land(K key,
+                      CompletableFuture<V> flight,
+                      V result,
+                      Throwable exception) {
+        // Forget the key before completing the flight, so no request
+        // joins a flight that has already landed.
+        mInFlight.remove(key, flight);
+
+        if (exception != null)
+            flight.completeExceptionally(exception instanceof CompletionException
+                                         ? exception.getCause()
+                                         : exception);
+        else
+            flight.complete(result);
+    }
+}
@@ -0,0 +1,168 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An Iterator that pulls batches of URLs from an HTTP feed, one
+ * request per batch.  Batch n (counting from 0) is requested by
+ * adding "batch=n&size=batchSize" to the query of the feed's URL, and
+ * its response is a delimited list of URLs in the format read by
+ * UrlFileReader.  An empty response (or 204 No Content) ends the
+ * feed.  A failed request is retried a few times before the feed is
+ * treated as ended.  Wrap it in a ReadAheadIterator so the next
+ * batch is fetched while the current one is processed.
+ */
+public class UrlFeedReader
+       implements Iterator<List<URL>> {
+    /**
+     * How often a batch is requested before giving up, and how long
+     * to wait between the attempts.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    /**
+     * The URL of the feed.
+     */
+    private final URL mFeedUrl;
+
+    /**
+     * The number of URLs requested for each batch.
+     */
+    private final int mBatchSize;
+
+    /**
+     * The number of the next batch to request.
+     */
+    private long mBatch;
+
+    /**
+     * The batch fetched by hasNext() but not yet returned by next(),
+     * or null if there's none.
+     */
+    private List<URL> mNext;
+
+    /**
+     * True once the feed has ended.
+     */
+    private boolean mEnded;
+
+    /**
+     * Constructor initializes the data members.
+     */
+    public UrlFeedReader(URL feedUrl,
+                         int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be >= 1");
+        mFeedUrl = feedUrl;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * @return true if the feed has another batch of URLs, else false.
+     */
+    @Override
+    public boolean hasNext() {
+        // Skip any batch whose URLs are all malformed.
+        while ((mNext == null || mNext.isEmpty()) && !mEnded) {
+            mNext = fetch(mBatch++);
+            mEnded = mNext == null;
+        }
+
+        return mNext != null;
+    }
+
+    /**
+     * @return The next batch of URLs.
+     */
+    @Override
+    public List<URL> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        List<URL> next = mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * @return The URL that requests the given @a batch.
+     */
+    URL makeBatchUrl(long batch) throws MalformedURLException {
+        String feedUrl = mFeedUrl.toString();
+        return new URL(feedUrl
+                       + (mFeedUrl.getQuery() == null ? '?' : '&')
+                       + "batch="
+                       + batch
+                       + "&size="
+                       + mBatchSize);
+    }
+
+    /**
+     * @return The URLs of the given @a batch, or null if the feed has
+     * ended or keeps failing.
+     */
+    private List<URL> fetch(long batch) {
+        for (int attempt = 1; ; ++attempt)
+            try {
+                List<URL> urls = DownloadClient
+                    .instance()
+                    .download(makeBatchUrl(batch),
+                              (connection, istream) -> {
+                                  if (connection instanceof HttpURLConnection
+                                      && ((HttpURLConnection) connection).getResponseCode()
+                                         == HttpURLConnection.HTTP_NO_CONTENT)
+                                      return null;
+
+                                  // A batch is small, so read it
+                                  // whole, which also leaves the
+                                  // stream open for the client.
+                                  ByteArrayOutputStream body =
+                                      new ByteArrayOutputStream();
+                                  byte[] buffer = new byte[4096];
+                                  for (int bytes; (bytes = istream.read(buffer)) > 0; )
+                                      body.write(buffer, 0, bytes);
+
+                                  return body.size() == 0
+                                      ? null
+                                      : parse(body.toString(StandardCharsets.UTF_8.name()));
+                              });
+
+                return urls;
+            } catch (IOException e) {
+                e.printStackTrace();
+
+                if (attempt == MAX_ATTEMPTS)
+                    return null;
+
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+    }
+
+    /**
+     * @return All the URLs in the @a body of a response.
+     */
+    private List<URL> parse(String body) {
+        List<URL> urls = new ArrayList<>();
+        UrlFileReader reader = new UrlFileReader(new StringReader(body),
+                                                 mBatchSize);
+        while (reader.hasNext())
+            urls.addAll(reader.next());
+        return urls;
+    }
+}
@@ -0,0 +1,241 @@
+package livelessons.imagestreamgang.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An Iterator that lazily reads the URLs in a delimited file, which
+ * may be gzipped, in batches of a given size, each of which is the
+ * input of one cycle.  URLs are separated by commas and/or
+ * whitespace (including newlines), and a '#' that starts a token
+ * comments out the rest of its line.  Only one batch is in memory at
+ * a time, so even files with millions of URLs are processed in
+ * constant memory, starting as soon as the first batch is read.  The
+ * file is closed once it's read, or by close().
+ */
+public class UrlFileReader
+       implements Iterator<List<URL>>, Closeable {
+    /**
+     * The size of the buffers the file is read and decompressed
+     * through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The first two bytes of a gzipped file.
+     */
+    private static final byte GZIP_MAGIC_0 = (byte) 0x1f;
+    private static final byte GZIP_MAGIC_1 = (byte) 0x8b;
+
+    /**
+     * Decodes the contents of the file.
+     */
+    private final Reader mReader;
+
+    /**
+     * The number of URLs in each batch.
+     */
+    private final int mBatchSize;
+
+    /**
+     * The characters decoded from the file but not yet tokenized.
+     */
+    private final char[] mChars = new char[BUFFER_SIZE / 2];
+    private int mPosition;
+    private int mLimit;
+
+    /**
+     * The batch read by hasNext() but not yet returned by next(), or
+     * null if there's none.
+     */
+    private List<URL> mNext;
+
+    /**
+     * True once the file has been read or closed.
+     */
+    private boolean mClosed;
+
+    /**
+     * Constructor opens the @a file, whose URLs are returned in
+     * batches of @a batchSize.
+     */
+    public UrlFileReader(File file,
+                         int batchSize) throws IOException {
+        this(open(file), batchSize);
+    }
+
+    /**
+     * Constructor reads the URLs from the @a reader, e.g., the body
+     * of a response, in batches of @a batchSize.
+     */
+    UrlFileReader(Reader reader,
+                  int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be >= 1");
+        mReader = reader;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * @return A Reader of the contents of the @a file, which are
+     * decompressed if it's gzipped.
+     */
+    private static Reader open(File file) throws IOException {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            InputStream istream = Channels.newInputStream(channel);
+            if (isGzipped(channel))
+                istream = new GZIPInputStream(istream, BUFFER_SIZE);
+
+            return new InputStreamReader(istream,
+                                         StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if there's another batch of URLs, else false.
+     */
+    @Override
+    public boolean hasNext() {
+        if (mNext == null && !mClosed)
+            try {
+                mNext = readBatch();
+            } catch (IOException e) {
+                // Treat the rest of the file as missing.
+                e.printStackTrace();
+            }
+
+        if (mNext == null)
+            close();
+        return mNext != null;
+    }
+
+    /**
+     * @return The next batch of URLs.
+     */
+    @Override
+    public List<URL> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        List<URL> next = mNext;
+        mNext = null;
+        return next;
+    }
+
+    /**
+     * Close the file.
+     */
+    @Override
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return true if the file read by the @a channel starts with the
+     * gzip magic number, else false.
+     */
+    private static boolean isGzipped(FileChannel channel) throws IOException {
+        // Read the first two bytes without moving the position of
+        // the channel.
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        channel.read(magic, 0);
+        return magic.position() == 2
+            && magic.get(0) == GZIP_MAGIC_0
+            && magic.get(1) == GZIP_MAGIC_1;
+    }
+
+    /**
+     * @return The next batch of at most mBatchSize URLs, or null if
+     * there are no more.
+     */
+    private List<URL> readBatch() throws IOException {
+        List<URL> batch = new ArrayList<>(mBatchSize);
+        StringBuilder token = new StringBuilder();
+
+        while (batch.size() < mBatchSize && readToken(token))
+            try {
+                // Create a new URL containing the next URL from the
+                // file.
+                batch.add(new URL(token.toString()));
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+            }
+
+        return batch.isEmpty() ? null : batch;
+    }
+
+    /**
+     * Read the next token, i.e., the next run of characters that
+     * aren't delimiters, into @a token.
+     *
+     * @return true if a token was read, else false at the end of the
+     * file.
+     */
+    private boolean readToken(StringBuilder token) throws IOException {
+        token.setLength(0);
+
+        for (int c; (c = read()) != -1; )
+            if (c == ',' || Character.isWhitespace(c)) {
+                if (token.length() > 0)
+                    return true;
+            } else if (c == '#' && token.length() == 0)
+                skipLine();
+            else
+                token.append((char) c);
+
+        return token.length() > 0;
+    }
+
+    /**
+     * Skip the rest of the current line.
+     */
+    private void skipLine() throws IOException {
+        int c;
+        do
+            c = read();
+        while (c != -1 && c != '\n');
+    }
+
+    /**
+     * @return The next character of the file, or -1 at its end.
+     */
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mReader.read(mChars, 0, mChars.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+
+        return mChars[mPosition++];
+    }
+}
@@ -0,0 +1,32 @@
+package livelessons.imagestreamgang.filters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for fusing several PixelKernels into one pass.
+ */
+public class FusedPixelPassTest {
+    @Test
+    public void fusedPass_matchesSeparatePasses() throws Exception {
+        Random random = new Random(42);
+        int[] source = new int[10_000];
+        for (int i = 0; i < source.length; ++i)
+            source[i] = random.nextInt();
+
+        PixelKernel invert = (pixel, hasTransparent) -> pixel ^ 0x00ffffff;
+        PixelKernel[] kernels = { GrayScalePixels::toGrayScale, invert };
+        int[][] outputs = { new int[source.length], new int[source.length] };
+
+        FusedPixelPass.apply(source, outputs, kernels, 0, source.length, true);
+
+        int[] grayScale = source.clone();
+        GrayScalePixels.toGrayScale(grayScale, 0, grayScale.length, true);
+        assertArrayEquals(grayScale, outputs[0]);
+        for (int i = 0; i < source.length; ++i)
+            assertEquals(source[i] ^ 0x00ffffff, outputs[1][i]);
+    }
+}
@@ -0,0 +1,53 @@
+package livelessons.imagestreamgang.filters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the GrayScalePixels conversion.
+ */
+public class GrayScalePixelsTest {
+    @Test
+    public void grayScale_matchesFloatingPointLuma() throws Exception {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; ++i) {
+            int pixel = random.nextInt() | 0xff000000;
+            int expected =
+                (int) (((pixel >> 16) & 0xff) * .299
+                       + ((pixel >> 8) & 0xff) * .587
+                       + (pixel & 0xff) * .114);
+            int gray = GrayScalePixels.toGrayScale(pixel, true) & 0xff;
+
+            assertTrue(Math.abs(gray - expected) <= 1);
+        }
+    }
+
+    @Test
+    public void grayScale_isOpaqueAndGray() throws Exception {
+        int gray = GrayScalePixels.toGrayScale(0x80ff0000, true);
+
+        assertEquals(0xff, gray >>> 24);
+        assertEquals(gray & 0xff, (gray >> 8) & 0xff);
+        assertEquals(gray & 0xff, (gray >> 16) & 0xff);
+        assertEquals(0xffffffff, GrayScalePixels.toGrayScale(0xffffffff, false));
+        assertEquals(0xff000000, GrayScalePixels.toGrayScale(0xff000000, false));
+    }
+
+    @Test
+    public void grayScale_skipsTransparentPixelsOnlyIfImageHasAlpha() throws Exception {
+        int[] pixels = { 0x00ff0000, 0xffff0000, 0x00123456 };
+
+        GrayScalePixels.toGrayScale(pixels, 0, 2, true);
+
+        assertEquals(0x00ff0000, pixels[0]);
+        assertEquals(GrayScalePixels.toGrayScale(0xffff0000, false), pixels[1]);
+        assertEquals(0x00123456, pixels[2]);
+
+        assertEquals(0xff000000 | 0x4c4c4c,
+                     GrayScalePixels.toGrayScale(0x00ff0000, false));
+    }
+}
@@ -0,0 +1,56 @@
+package livelessons.imagestreamgang.filters;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for splitting an image into bands of rows.
+ */
+public class PixelBandsTest {
+    @Test
+    public void tiledBands_coverEveryPixelExactlyOnce() throws Exception {
+        int width = 1000;
+        int height = 777;
+        AtomicIntegerArray visits = new AtomicIntegerArray(width * height);
+        AtomicInteger bands = new AtomicInteger();
+
+        PixelBands.forEachBand(width, height, true, (from, to) -> {
+                bands.incrementAndGet();
+                assertEquals(0, from % width);
+                for (int i = from; i < to; ++i)
+                    visits.incrementAndGet(i);
+            });
+
+        for (int i = 0; i < visits.length(); ++i)
+            assertEquals(1, visits.get(i));
+        assertTrue(bands.get() > 1);
+    }
+
+    @Test
+    public void largeImages_areTiledBySize() throws Exception {
+        long tilePixels = 256 * 1024;
+
+        assertTrue(PixelBands.shouldTile(512, 512, false, tilePixels));
+        assertFalse(PixelBands.shouldTile(511, 512, false, tilePixels));
+        assertTrue(PixelBands.shouldTile(10, 10, true, tilePixels));
+
+        // A threshold of 0 only tiles filters that ask for it.
+        assertFalse(PixelBands.shouldTile(4096, 4096, false, 0));
+    }
+
+    @Test
+    public void untiledOrSmallImages_areOneBand() throws Exception {
+        AtomicInteger bands = new AtomicInteger();
+
+        PixelBands.forEachBand(1000, 777, false,
+                               (from, to) -> bands.incrementAndGet());
+        PixelBands.forEachBand(10, 10, true,
+                               (from, to) -> bands.incrementAndGet());
+
+        assertEquals(2, bands.get());
+    }
+}
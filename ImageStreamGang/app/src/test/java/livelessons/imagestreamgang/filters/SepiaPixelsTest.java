@@ -0,0 +1,48 @@
+package livelessons.imagestreamgang.filters;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SepiaPixels toning.
+ */
+public class SepiaPixelsTest {
+    @Test
+    public void sepia_matchesFloatingPointMatrix() throws Exception {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; ++i) {
+            int pixel = random.nextInt() | 0xff000000;
+            int red = (pixel >> 16) & 0xff;
+            int green = (pixel >> 8) & 0xff;
+            int blue = pixel & 0xff;
+            int sepia = SepiaPixels.toSepia(pixel, true);
+
+            assertEquals(0xff, sepia >>> 24);
+            assertTrue(Math.abs(((sepia >> 16) & 0xff)
+                                - Math.min(255, (int) (red * .393 + green * .769 + blue * .189))) <= 1);
+            assertTrue(Math.abs(((sepia >> 8) & 0xff)
+                                - Math.min(255, (int) (red * .349 + green * .686 + blue * .168))) <= 1);
+            assertTrue(Math.abs((sepia & 0xff)
+                                - (int) (red * .272 + green * .534 + blue * .131)) <= 1);
+        }
+    }
+
+    @Test
+    public void sepia_fusesWithGrayScale() throws Exception {
+        int[] source = { 0x00ff0000, 0xffffffff, 0xff336699 };
+        PixelKernel[] kernels = { GrayScalePixels::toGrayScale, SepiaPixels::toSepia };
+        int[][] outputs = { new int[source.length], new int[source.length] };
+
+        FusedPixelPass.apply(source, outputs, kernels, 0, source.length, true);
+
+        int[] sepia = source.clone();
+        SepiaPixels.toSepia(sepia, 0, sepia.length, true);
+        assertArrayEquals(sepia, outputs[1]);
+        assertEquals(0x00ff0000, outputs[1][0]);
+        assertEquals(0xffffffee, outputs[1][1]);
+    }
+}
@@ -0,0 +1,131 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the AdaptiveExecutor.
+ */
+public class AdaptiveExecutorTest {
+    @Test
+    public void controller_climbsWhileThroughputRises() {
+        AdaptiveExecutor.Controller controller =
+            new AdaptiveExecutor.Controller(1, 10);
+
+        assertEquals(5, controller.decide(4, 100, true, 4, 0));
+        assertEquals("probe", controller.getReason());
+
+        assertEquals(6, controller.decide(5, 150, true, 5, 0));
+        assertEquals("throughput rose", controller.getReason());
+
+        // Growing to 6 hurt, so turn around.
+        assertEquals(5, controller.decide(6, 100, true, 6, 0));
+        assertEquals("throughput fell", controller.getReason());
+
+        // Never past the bounds.
+        AdaptiveExecutor.Controller bounded =
+            new AdaptiveExecutor.Controller(1, 10);
+        assertEquals(10, bounded.decide(10, 100, true, 10, 0));
+    }
+
+    @Test
+    public void controller_shrinksWhenIdleAndFollowsEstimateWhenFlat() {
+        AdaptiveExecutor.Controller controller =
+            new AdaptiveExecutor.Controller(1, 10);
+
+        // No backlog and a Thread to spare.
+        assertEquals(3, controller.decide(4, 100, false, 2, 0));
+        assertEquals("idle", controller.getReason());
+
+        // Flat throughput moves toward the estimate.
+        assertEquals(4, controller.decide(3, 101, true, 3, 8));
+        assertEquals("toward estimate", controller.getReason());
+
+        assertEquals(4, controller.decide(4, 100, true, 4, 4));
+        assertEquals("steady", controller.getReason());
+    }
+
+    @Test
+    public void controller_growsWhenStalled() {
+        AdaptiveExecutor.Controller controller =
+            new AdaptiveExecutor.Controller(1, 10);
+
+        assertEquals(5, controller.decide(4, 100, true, 4, 0));
+
+        // Nothing completed while work waited, so add a Thread
+        // rather than treating it as a fall in throughput.
+        assertEquals(6, controller.decide(5, 0, true, 5, 0));
+        assertEquals("stalled", controller.getReason());
+    }
+
+    @Test
+    public void executor_growsWhenNoTaskCompletes() throws Exception {
+        AdaptiveExecutor executor =
+            new AdaptiveExecutor(1, 4, 1, 20, null, null);
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            // None of these tasks completes until they've all
+            // started, so only the timer can grow the pool.
+            for (int i = 0; i < 4; ++i)
+                executor.execute(() -> {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(4, executor.getCorePoolSize());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void executor_growsUnderBlockingBacklog() throws Exception {
+        List<String> reasons = new ArrayList<>();
+        AdaptiveExecutor executor =
+            new AdaptiveExecutor(1, 16, 1, 20, () -> 16,
+                                 (oldSize, newSize, throughput, reason) -> {
+                                     synchronized (reasons) {
+                                         reasons.add(reason);
+                                     }
+                                 });
+
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 200; ++i)
+                tasks.add(executor.submit(() -> {
+                            try {
+                                Thread.sleep(5);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }));
+            for (Future<?> task : tasks)
+                task.get();
+
+            assertTrue(executor.getGrowths() > 0);
+            assertTrue(executor.getCorePoolSize() > 1);
+            synchronized (reasons) {
+                assertFalse(reasons.isEmpty());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the BoundedPipeline, which run pipelines the way
+ * ImageStreamPipelined runs its cycles, i.e., one per cycle on a
+ * shared cached thread pool.
+ */
+public class BoundedPipelineTest {
+    private final ExecutorService mStageExecutor =
+        Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        mStageExecutor.shutdownNow();
+    }
+
+    @Test
+    public void pipeline_consumesEveryOutput() throws Exception {
+        BoundedPipeline<Integer, Integer> pipeline = makePipeline(null);
+        pipeline.start(mStageExecutor);
+
+        for (int i = 0; i < 100; ++i)
+            pipeline.put(i);
+
+        // Each input has two outputs, of which the odd ones count.
+        assertEquals(100, pipeline.finish());
+    }
+
+    @Test
+    public void overlappingCycles_dontWaitOnEachOther() throws Exception {
+        // The store stage of cycle 1 stalls until cycle 2 is done,
+        // e.g., since it's writing a large image.
+        CountDownLatch cycle2Done = new CountDownLatch(1);
+        BoundedPipeline<Integer, Integer> cycle1 = makePipeline(cycle2Done);
+        BoundedPipeline<Integer, Integer> cycle2 = makePipeline(null);
+
+        cycle1.start(mStageExecutor);
+        CompletableFuture<Integer> stored1 =
+            CompletableFuture.supplyAsync(() -> run(cycle1));
+
+        // Cycle 2 starts while cycle 1 is backed up, and must still
+        // run to completion.
+        cycle2.start(mStageExecutor);
+        CompletableFuture<Integer> stored2 =
+            CompletableFuture.supplyAsync(() -> run(cycle2));
+
+        assertEquals(50, (int) stored2.get(5, TimeUnit.SECONDS));
+        cycle2Done.countDown();
+        assertEquals(50, (int) stored1.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @return A pipeline with small queues whose two transform
+     * workers make two outputs per input, and whose consume worker
+     * counts the odd ones, waiting for @a stall (if any) first.
+     */
+    private static BoundedPipeline<Integer, Integer> makePipeline(CountDownLatch stall) {
+        return new BoundedPipeline<>(2,
+                                     2,
+                                     (input, output) -> {
+                                         output.put(2 * input);
+                                         output.put(2 * input + 1);
+                                     },
+                                     output -> {
+                                         try {
+                                             if (stall != null)
+                                                 stall.await();
+                                         } catch (InterruptedException e) {
+                                             Thread.currentThread().interrupt();
+                                         }
+                                         return output % 2 == 1;
+                                     });
+    }
+
+    /**
+     * Put 50 inputs in the @a pipeline and finish it.
+     *
+     * @return The number of outputs consumed.
+     */
+    private static int run(BoundedPipeline<Integer, Integer> pipeline) {
+        try {
+            for (int i = 0; i < 50; ++i)
+                pipeline.put(i);
+            return pipeline.finish();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
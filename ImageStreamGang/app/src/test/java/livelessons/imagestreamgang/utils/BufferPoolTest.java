@@ -0,0 +1,61 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the BufferPool.
+ */
+public class BufferPoolTest {
+    @Test
+    public void acquire_roundsUpToPowerOfTwo() throws Exception {
+        BufferPool pool = new BufferPool();
+
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(100_000_000, pool.acquire(100_000_000).length);
+    }
+
+    @Test
+    public void releasedBuffers_areReused() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = pool.acquire(10_000);
+
+        pool.release(buffer);
+
+        assertSame(buffer, pool.acquire(9_000));
+        assertNotSame(buffer, pool.acquire(9_000));
+    }
+
+    @Test
+    public void foreignBuffers_areNotPooled() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] buffer = new byte[5000];
+
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire(5000));
+    }
+
+    @Test
+    public void release_keepsTheTotalBytesBounded() throws Exception {
+        BufferPool pool = new BufferPool(16 * 1024);
+        byte[] first = pool.acquire(8 * 1024);
+        byte[] second = pool.acquire(8 * 1024);
+        byte[] third = pool.acquire(8 * 1024);
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        // The third buffer didn't fit, but once a buffer is taken
+        // another one fits again.
+        assertSame(first, pool.acquire(8 * 1024));
+        pool.release(third);
+        assertSame(second, pool.acquire(8 * 1024));
+        assertSame(third, pool.acquire(8 * 1024));
+        assertNotSame(first, pool.acquire(8 * 1024));
+    }
+}
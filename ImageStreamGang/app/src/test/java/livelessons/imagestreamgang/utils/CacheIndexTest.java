@@ -0,0 +1,117 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CacheIndex and its manifest.
+ */
+public class CacheIndexTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void entries_surviveReload() throws Exception {
+        File manifest = new File(mFolder.getRoot(), "manifest");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        CacheIndex index = new CacheIndex(manifest);
+        index.put(url, "GrayScaleFilter", 1234, "\"etag\ttab\"");
+        index.put(url, "NullFilter", 42, null);
+        index.remove(url, "NullFilter");
+
+        CacheIndex reloaded = new CacheIndex(manifest);
+        assertTrue(reloaded.contains(url, "GrayScaleFilter"));
+        assertFalse(reloaded.contains(url, "NullFilter"));
+        assertEquals(1234, reloaded.get(url, "GrayScaleFilter").getSize());
+        assertEquals("\"etag\ttab\"", reloaded.get(url, "GrayScaleFilter").getETag());
+        assertNull(reloaded.get(new URL("http://www.dre.vanderbilt.edu/~schmidt/uci.png"),
+                                "GrayScaleFilter"));
+    }
+
+    @Test
+    public void manifest_isCompactedOnLoad() throws Exception {
+        File manifest = new File(mFolder.getRoot(), "manifest");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        CacheIndex index = new CacheIndex(manifest);
+        for (int i = 0; i < 10; ++i)
+            index.put(url, "GrayScaleFilter", i, null);
+
+        CacheIndex reloaded = new CacheIndex(manifest);
+        assertEquals(1, Files.readAllLines(manifest.toPath()).size());
+        assertEquals(9, reloaded.get(url, "GrayScaleFilter").getSize());
+    }
+
+    @Test
+    public void tornRecord_isIgnored() throws Exception {
+        File manifest = new File(mFolder.getRoot(), "manifest");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        new CacheIndex(manifest).put(url, "GrayScaleFilter", 1, null);
+        Files.write(manifest.toPath(),
+                    "+\tabc\tNullFil".getBytes(),
+                    java.nio.file.StandardOpenOption.APPEND);
+
+        CacheIndex reloaded = new CacheIndex(manifest);
+        assertTrue(reloaded.contains(url, "GrayScaleFilter"));
+        assertEquals(1, reloaded.size());
+
+        reloaded.put(url, "NullFilter", 2, null);
+        assertTrue(new CacheIndex(manifest).contains(url, "NullFilter"));
+    }
+
+    @Test
+    public void corruptRecord_onlyLosesItself() throws Exception {
+        File manifest = new File(mFolder.getRoot(), "manifest");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        CacheIndex index = new CacheIndex(manifest);
+        index.put(url, "GrayScaleFilter", 1, null);
+        Files.write(manifest.toPath(),
+                    "+\tabc\tNullFilter\tsize\t0\t0\t\n".getBytes(),
+                    java.nio.file.StandardOpenOption.APPEND);
+        index.put(url, "SepiaFilter", 2, null);
+
+        CacheIndex reloaded = new CacheIndex(manifest);
+        assertTrue(reloaded.contains(url, "GrayScaleFilter"));
+        assertTrue(reloaded.contains(url, "SepiaFilter"));
+        assertEquals(2, reloaded.size());
+    }
+
+    @Test
+    public void load_checksStoredFilesOnce() throws Exception {
+        File manifest = new File(mFolder.getRoot(), "manifest");
+        URL ka = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+        URL uci = new URL("http://www.dre.vanderbilt.edu/~schmidt/uci.png");
+        File filterDirectory = mFolder.newFolder("GrayScaleFilter");
+        File kaFile = new File(filterDirectory, "ka.png");
+        Files.write(kaFile.toPath(), new byte[42]);
+
+        CacheIndex index = new CacheIndex(manifest);
+        index.putFile(ka, "GrayScaleFilter", "ka.png", 42);
+        index.putFile(uci, "GrayScaleFilter", "uci.png", 7);
+
+        // The file of uci.png was never stored, so its entry is
+        // dropped, and a file stored without an entry is found.
+        Files.write(new File(filterDirectory, "old.png").toPath(), new byte[3]);
+        CacheIndex reloaded = new CacheIndex(manifest);
+        assertTrue(reloaded.contains(CacheIndex.hash(ka), "GrayScaleFilter"));
+        assertFalse(reloaded.contains(uci, "GrayScaleFilter"));
+        assertFalse(reloaded.putUnindexedFile(uci, "GrayScaleFilter", "uci.png"));
+        assertTrue(reloaded.putUnindexedFile(uci, "GrayScaleFilter", "old.png"));
+        assertEquals(3, reloaded.get(uci, "GrayScaleFilter").getSize());
+
+        // Deleting the file behind the index's back is noticed at
+        // the next load.
+        assertTrue(kaFile.delete());
+        assertFalse(new CacheIndex(manifest).contains(ka, "GrayScaleFilter"));
+    }
+}
@@ -0,0 +1,69 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the Deadline and FutureUtils.within().
+ */
+public class DeadlineTest {
+    @Test
+    public void cancel_expiresNestedDeadlines() {
+        Deadline run = Deadline.after(0);
+        Deadline cycle = run.child(60_000);
+        Deadline image = cycle.child(0);
+
+        assertTrue(run.isUnlimited());
+        assertFalse(image.isUnlimited());
+        assertFalse(image.isExpired());
+        assertTrue(image.remainingMillis() <= 60_000);
+
+        // Cancelling the run cancels everything nested in it, but
+        // not the other way around.
+        run.cancel();
+        assertTrue(cycle.isExpired());
+        assertTrue(image.isExpired());
+        assertEquals(0, image.remainingMillis());
+
+        Deadline other = Deadline.after(0);
+        other.child(0).cancel();
+        assertFalse(other.isExpired());
+
+        // NONE can't be cancelled.
+        Deadline.NONE.cancel();
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remainingMillis());
+    }
+
+    @Test
+    public void call_setsAndRestoresCurrentDeadline() {
+        Deadline outer = Deadline.after(60_000);
+        Deadline inner = outer.child(1);
+
+        assertSame(Deadline.NONE, Deadline.current());
+        outer.run(() -> {
+                assertSame(outer, Deadline.current());
+                assertSame(inner, inner.call(Deadline::current));
+                assertSame(outer, Deadline.current());
+            });
+        assertSame(Deadline.NONE, Deadline.current());
+    }
+
+    @Test
+    public void within_completesWithExpiredValue() throws Exception {
+        CompletableFuture<String> never = new CompletableFuture<>();
+        assertEquals("expired",
+                     FutureUtils.within(never, Deadline.after(20), "expired")
+                     .get(5, TimeUnit.SECONDS));
+
+        // A future that's already done or has no deadline is returned
+        // as is.
+        CompletableFuture<String> done = CompletableFuture.completedFuture("done");
+        assertSame(done, FutureUtils.within(done, Deadline.after(20), "expired"));
+        assertSame(never, FutureUtils.within(never, Deadline.NONE, "expired"));
+    }
+}
@@ -0,0 +1,161 @@
+package livelessons.imagestreamgang.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DownloadClient, which run against a loopback
+ * HTTP server.
+ */
+public class DownloadClientTest {
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicInteger mMaxActive = new AtomicInteger();
+    private String mBase;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create
+            (new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", exchange -> {
+                int active = mActive.incrementAndGet();
+                mMaxActive.accumulateAndGet(active, Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mActive.decrementAndGet();
+
+                byte[] body = exchange.getRequestURI().getPath().getBytes();
+                exchange.sendResponseHeaders
+                    (exchange.getRequestURI().getPath().equals("/missing")
+                     ? 404
+                     : 200,
+                     body.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(body);
+                }
+            });
+        mServerExecutor = Executors.newFixedThreadPool(8);
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+        mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void download_readsBody() throws Exception {
+        DownloadClient client = new DownloadClient(1000, 1000, 2);
+
+        assertEquals("/image.png",
+                     client.download(new URL(mBase + "/image.png"),
+                                     (connection, inputStream) ->
+                                     readAll(inputStream)));
+    }
+
+    @Test(expected = IOException.class)
+    public void download_failsOnErrorResponse() throws Exception {
+        DownloadClient client = new DownloadClient(1000, 1000, 2);
+
+        client.download(new URL(mBase + "/missing"),
+                        (connection, inputStream) -> readAll(inputStream));
+    }
+
+    @Test
+    public void download_capsConcurrencyPerHost() throws Exception {
+        DownloadClient client = new DownloadClient(1000, 1000, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<String>> downloads = new ArrayList<>();
+
+        for (int i = 0; i < 8; ++i) {
+            URL url = new URL(mBase + "/image" + i + ".png");
+            downloads.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return client.download
+                                (url,
+                                 (connection, inputStream) ->
+                                 readAll(inputStream));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, executor));
+        }
+
+        for (int i = 0; i < 8; ++i)
+            assertEquals("/image" + i + ".png", downloads.get(i).join());
+        assertTrue(mMaxActive.get() <= 2);
+        executor.shutdown();
+    }
+
+    @Test
+    public void getPermitWaitNanos_countsTimeQueuedForTheHost() throws Exception {
+        DownloadClient client = new DownloadClient(1000, 1000, 1);
+        URL url = new URL(mBase + "/image.png");
+        CountDownLatch holding = new CountDownLatch(1);
+
+        // Hold the host's only permit for a while on another Thread.
+        CompletableFuture<String> holder = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.download(url, (connection, inputStream) -> {
+                            holding.countDown();
+                            try {
+                                Thread.sleep(200);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return readAll(inputStream);
+                        });
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        holding.await();
+
+        long permitWaitStart = client.getPermitWaitNanos();
+        assertEquals("/image.png",
+                     client.download(url,
+                                     (connection, inputStream) ->
+                                     readAll(inputStream)));
+
+        assertTrue(client.getPermitWaitNanos() - permitWaitStart
+                   >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals("/image.png", holder.join());
+    }
+
+    private static String readAll(InputStream inputStream)
+        throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int bytes; (bytes = inputStream.read(buffer)) > 0; )
+            output.write(buffer, 0, bytes);
+        return output.toString();
+    }
+}
@@ -0,0 +1,221 @@
+package livelessons.imagestreamgang.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the HttpCache, which run against a loopback HTTP
+ * server that supports conditional GETs via ETags.
+ */
+public class HttpCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private volatile String mBody = "version 1";
+    private volatile String mCacheControl = null;
+    private volatile boolean mValidators = true;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create
+            (new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", exchange -> {
+                mRequests.incrementAndGet();
+                String body = mBody;
+                String eTag = '"' + Integer.toHexString(body.hashCode()) + '"';
+
+                if (mValidators)
+                    exchange.getResponseHeaders().set("ETag", eTag);
+                if (mCacheControl != null)
+                    exchange.getResponseHeaders().set("Cache-Control",
+                                                      mCacheControl);
+                if (mValidators
+                    && eTag.equals(exchange.getRequestHeaders()
+                                .getFirst("If-None-Match"))) {
+                    mNotModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(bytes);
+                }
+            });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:"
+                       + mServer.getAddress().getPort()
+                       + "/images/image.png");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private HttpCache makeCache(CacheIndex index) {
+        return new HttpCache(index,
+                             mFolder.getRoot(),
+                             new DownloadClient(1000, 1000, 2));
+    }
+
+    private static String download(HttpCache cache, URL url) throws Exception {
+        return cache.download(url,
+                              (content, length) ->
+                              new String(content, 0, length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void notModified_reusesStoredOriginal() throws Exception {
+        CacheIndex index = new CacheIndex(mFolder.newFile("manifest"));
+        HttpCache cache = makeCache(index);
+
+        assertEquals("version 1", download(cache, mUrl));
+        assertEquals("version 1", download(cache, mUrl));
+
+        assertEquals(2, mRequests.get());
+        assertEquals(1, mNotModified.get());
+        assertEquals(1, cache.getNotModified());
+        assertEquals(1, cache.getModified());
+        assertNotNull(index.get(mUrl, HttpCache.ORIGINALS).getETag());
+    }
+
+    @Test
+    public void notModified_decodesStoredOriginalAsFile() throws Exception {
+        HttpCache cache = makeCache(new CacheIndex(mFolder.newFile("manifest")));
+        download(cache, mUrl);
+
+        // A decoder that reads files itself is passed the original.
+        long[] fileLength = {-1};
+        String body = cache.download(mUrl, new NetUtils.ContentDecoder<String>() {
+                @Override
+                public String decode(byte[] content, int length) {
+                    return null;
+                }
+
+                @Override
+                public String decode(FileInputStream file, long length)
+                    throws IOException {
+                    fileLength[0] = length;
+                    byte[] content = new byte[(int) length];
+                    new DataInputStream(file).readFully(content);
+                    return new String(content, StandardCharsets.UTF_8);
+                }
+            });
+
+        assertEquals("version 1", body);
+        assertEquals("version 1".length(), fileLength[0]);
+        assertEquals(1, cache.getNotModified());
+    }
+
+    @Test
+    public void revalidate_invalidatesChangedImages() throws Exception {
+        CacheIndex index = new CacheIndex(mFolder.newFile("manifest"));
+        HttpCache cache = makeCache(index);
+
+        // Download the image and "filter" it.
+        download(cache, mUrl);
+        File filtered = new File(mFolder.newFolder("GrayScaleFilter"),
+                                 NetUtils.getFileNameForUrl(mUrl));
+        assertTrue(filtered.createNewFile());
+        index.put(mUrl, "GrayScaleFilter", 0, null);
+
+        // Nothing has changed yet.
+        assertTrue(cache.revalidate(mUrl));
+        assertTrue(filtered.exists());
+
+        // Change the image on the server.
+        mBody = "version 2";
+        assertFalse(cache.revalidate(mUrl));
+        assertFalse(filtered.exists());
+        assertFalse(index.contains(mUrl, "GrayScaleFilter"));
+
+        // The new original is used without asking the server again.
+        int requests = mRequests.get();
+        assertEquals("version 2", download(cache, mUrl));
+        assertEquals(requests, mRequests.get());
+    }
+
+    @Test
+    public void revalidate_dropsOriginalReplacedWithoutValidators() throws Exception {
+        CacheIndex index = new CacheIndex(mFolder.newFile("manifest"));
+        HttpCache cache = makeCache(index);
+        download(cache, mUrl);
+        File filtered = new File(mFolder.newFolder("GrayScaleFilter"),
+                                 NetUtils.getFileNameForUrl(mUrl));
+
+        // The changed image comes without validators, so it can't be
+        // stored, and neither can the old original be kept.
+        mBody = "version 2";
+        mValidators = false;
+        assertFalse(cache.revalidate(mUrl));
+        assertNull(index.get(mUrl, HttpCache.ORIGINALS));
+
+        // So the filtered images made from now on aren't invalidated
+        // by the next revalidation.
+        assertTrue(filtered.createNewFile());
+        index.put(mUrl, "GrayScaleFilter", 0, null);
+        assertTrue(cache.revalidate(mUrl));
+        assertTrue(filtered.exists());
+    }
+
+    @Test
+    public void revalidate_skipsFreshOriginals() throws Exception {
+        HttpCache cache = makeCache(new CacheIndex(mFolder.newFile("manifest")));
+
+        // The original is fresh for an hour, so it's current even
+        // though the image has changed on the server.
+        mCacheControl = "public, max-age=3600";
+        download(cache, mUrl);
+        mBody = "version 2";
+        int requests = mRequests.get();
+        assertTrue(cache.revalidate(mUrl));
+        assertEquals(requests, mRequests.get());
+    }
+
+    @Test
+    public void revalidate_asksServerOnceOriginalIsStale() throws Exception {
+        HttpCache cache = makeCache(new CacheIndex(mFolder.newFile("manifest")));
+
+        mCacheControl = "max-age=0";
+        download(cache, mUrl);
+        int requests = mRequests.get();
+        assertTrue(cache.revalidate(mUrl));
+        assertTrue(cache.revalidate(mUrl));
+        assertEquals(requests + 2, mRequests.get());
+    }
+
+    @Test
+    public void validators_surviveReload() throws Exception {
+        File manifest = mFolder.newFile("manifest");
+        download(makeCache(new CacheIndex(manifest)), mUrl);
+
+        HttpCache cache = makeCache(new CacheIndex(manifest));
+        assertEquals("version 1", download(cache, mUrl));
+        assertEquals(1, cache.getNotModified());
+    }
+}
@@ -0,0 +1,26 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ImageEncoder.
+ */
+public class ImageEncoderTest {
+    @Test
+    public void getFileName_keepsUrlsThatDifferByExtensionApart() throws Exception {
+        ImageEncoder encoder = ImageEncoder.parse("png-fast");
+
+        String png = encoder.getFileName(new URL("http://host/a.png"));
+        String jpg = encoder.getFileName(new URL("http://host/a.jpg"));
+        String gif = encoder.getFileName(new URL("http://host/a.gif"));
+
+        // The name of a URL that already has the extension is kept.
+        assertEquals("host_a.png", png);
+        assertEquals("host_a.jpg.png", jpg);
+        assertEquals("host_a.gif.png", gif);
+    }
+}
@@ -0,0 +1,106 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ImageWriter.
+ */
+public class ImageWriterTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_createsDirectoryAndFile() throws Exception {
+        ImageWriter writer = new ImageWriter(2, 4);
+        File directory = new File(mFolder.getRoot(), "GrayScaleFilter");
+        List<File> written = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 20; ++i) {
+            byte[] content = {(byte) i};
+            writer.write(directory,
+                         "image" + i + ".png",
+                         outputStream -> outputStream.write(content),
+                         written::add);
+        }
+        writer.flush();
+
+        assertEquals(20, written.size());
+        assertEquals(20, writer.getWrites());
+        assertTrue(writer.getMaxQueueDepth() <= 4);
+        assertArrayEquals(new byte[] {7},
+                          Files.readAllBytes(new File(directory, "image7.png")
+                                             .toPath()));
+        // No temporary files are left behind.
+        assertEquals(20, directory.list().length);
+    }
+
+    @Test
+    public void concurrentWritesOfSameFile_dontMix() throws Exception {
+        ImageWriter writer = new ImageWriter(2, 1);
+        File directory = mFolder.getRoot();
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch secondWritten = new CountDownLatch(1);
+
+        // The first write stalls halfway until the second one has
+        // been written, e.g., since its image is larger.
+        writer.write(directory,
+                     "image.png",
+                     outputStream -> {
+                         outputStream.write(new byte[] {1, 1});
+                         firstStarted.countDown();
+                         try {
+                             secondWritten.await(5, TimeUnit.SECONDS);
+                         } catch (InterruptedException e) {
+                             throw new IOException(e);
+                         }
+                         outputStream.write(new byte[] {1, 1});
+                     },
+                     file -> {});
+        firstStarted.await();
+        writer.write(directory,
+                     "image.png",
+                     outputStream -> outputStream.write(2),
+                     file -> secondWritten.countDown());
+        writer.flush();
+
+        // The file is the whole contents of the write that finished
+        // last.
+        assertArrayEquals(new byte[] {1, 1, 1, 1},
+                          Files.readAllBytes(new File(directory, "image.png")
+                                             .toPath()));
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void failedWrite_leavesNoFile() throws Exception {
+        ImageWriter writer = new ImageWriter(1, 1);
+        File directory = mFolder.getRoot();
+        List<File> written = new CopyOnWriteArrayList<>();
+
+        writer.write(directory,
+                     "broken.png",
+                     outputStream -> {
+                         outputStream.write(1);
+                         throw new IOException("broken");
+                     },
+                     written::add);
+        writer.flush();
+
+        assertEquals(1, written.size());
+        assertNull(written.get(0));
+        assertEquals(0, writer.getWrites());
+        assertEquals(0, directory.list().length);
+    }
+}
@@ -0,0 +1,62 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the LruMemoryCache.
+ */
+public class LruMemoryCacheTest {
+    /**
+     * A cache of byte arrays bounded by their total length.
+     */
+    private static LruMemoryCache<String, byte[]> makeCache(long maxBytes) {
+        return new LruMemoryCache<>(maxBytes, value -> value.length);
+    }
+
+    @Test
+    public void cache_isBoundedByBytes() throws Exception {
+        LruMemoryCache<String, byte[]> cache = makeCache(100);
+
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        assertNotNull(cache.get("a"));
+
+        // "b" is now the least recently used.
+        cache.put("c", new byte[40]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void oversizedValues_areNotCached() throws Exception {
+        LruMemoryCache<String, byte[]> cache = makeCache(100);
+
+        cache.put("big", new byte[101]);
+
+        assertNull(cache.get("big"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void replacingValue_keepsSize() throws Exception {
+        LruMemoryCache<String, byte[]> cache = makeCache(100);
+
+        cache.put("a", new byte[30]);
+        cache.put("a", new byte[50]);
+        cache.put("b", new byte[40]);
+
+        assertEquals(50, cache.get("a").length);
+        assertEquals(90, cache.size());
+
+        cache.remove("a");
+        assertEquals(40, cache.size());
+    }
+}
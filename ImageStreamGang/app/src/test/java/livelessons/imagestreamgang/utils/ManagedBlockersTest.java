@@ -0,0 +1,26 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the ManagedBlockers.
+ */
+public class ManagedBlockersTest {
+    @Test
+    public void callBlocking_returnsResultInAndOutOfForkJoinPool() {
+        assertEquals("plain", ManagedBlockers.callBlocking(() -> "plain"));
+
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            assertEquals("forked",
+                         pool.submit(() -> ManagedBlockers.callBlocking(() -> "forked"))
+                         .join());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
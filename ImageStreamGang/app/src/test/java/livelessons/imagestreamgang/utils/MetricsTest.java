@@ -0,0 +1,63 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the Metrics.
+ */
+public class MetricsTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void histogram_percentilesWithinBucketPrecision() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value = 1; value <= 1000; ++value)
+            histogram.record(value * 1_000);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 * 0.07);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 * 0.07);
+        assertEquals(1_000_000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void histogram_bucketsCoverEveryValue() {
+        for (long value : new long[] { 0, 1, 31, 32, 33, 1_000, 123_456_789, Long.MAX_VALUE }) {
+            int index = Metrics.Histogram.bucketIndex(value);
+            assertTrue(Metrics.Histogram.highestValueIn(index) >= value);
+            assertTrue(index == 0
+                       || Metrics.Histogram.highestValueIn(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void dump_listsEveryMetricAndExports() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.counter("download.bytes").add(42);
+        metrics.counter("download.bytes").increment();
+        metrics.gauge("write.queueDepth", () -> 7);
+        metrics.histogram("write.nanos").record(100);
+
+        String dump = metrics.dump();
+        assertTrue(dump.contains("counter download.bytes 43\n"));
+        assertTrue(dump.contains("gauge write.queueDepth 7\n"));
+        assertTrue(dump.contains("histogram write.nanos count=1 mean=100"));
+
+        File file = new File(mFolder.getRoot(), "metrics/.metrics.txt");
+        metrics.export(file);
+        assertEquals(dump,
+                     new String(Files.readAllBytes(file.toPath()),
+                                StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,74 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PngEncoder.
+ */
+public class PngEncoderTest {
+    @Test
+    public void encode_roundTripsPixels() throws Exception {
+        int width = 300;
+        int height = 250;
+        int[] pixels = randomPixels(width * height);
+
+        for (boolean hasAlpha : new boolean[] {false, true}) {
+            BufferedImage image = ImageIO.read
+                (new ByteArrayInputStream(encode(pixels,
+                                                 width,
+                                                 height,
+                                                 hasAlpha,
+                                                 Deflater.BEST_SPEED)));
+
+            assertEquals(width, image.getWidth());
+            assertEquals(height, image.getHeight());
+            for (int y = 0; y < height; ++y)
+                for (int x = 0; x < width; ++x) {
+                    int pixel = pixels[y * width + x];
+                    assertEquals(hasAlpha ? pixel : pixel | 0xff000000,
+                                 image.getRGB(x, y));
+                }
+        }
+    }
+
+    @Test
+    public void higherLevel_isNoBigger() throws Exception {
+        // A smooth gradient compresses well.
+        int[] pixels = new int[512 * 512];
+        for (int i = 0; i < pixels.length; ++i)
+            pixels[i] = 0xff000000 | (i / 512) << 8 | (i % 512) / 2;
+
+        int fast = encode(pixels, 512, 512, false, Deflater.BEST_SPEED).length;
+        int small = encode(pixels, 512, 512, false, Deflater.BEST_COMPRESSION).length;
+
+        assertTrue(small <= fast);
+    }
+
+    private static byte[] encode(int[] pixels,
+                                 int width,
+                                 int height,
+                                 boolean hasAlpha,
+                                 int level) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PngEncoder.encode(pixels, width, height, hasAlpha, level, output);
+        return output.toByteArray();
+    }
+
+    private static int[] randomPixels(int count) {
+        Random random = new Random(42);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; ++i)
+            pixels[i] = random.nextInt();
+        return pixels;
+    }
+}
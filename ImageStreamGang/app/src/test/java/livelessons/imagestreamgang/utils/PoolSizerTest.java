@@ -0,0 +1,41 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the PoolSizer.
+ */
+public class PoolSizerTest {
+    @Test
+    public void getPoolSize_followsWaitToComputeRatio() {
+        PoolSizer sizer = new PoolSizer(4, 1, 64, 8);
+
+        // Nothing measured yet.
+        assertEquals(8, sizer.getPoolSize());
+
+        // Waiting 3 times as long as computing keeps 4 processors
+        // busy with 4 * (1 + 3) Threads.
+        sizer.record(300, 100);
+        assertEquals(16, sizer.getPoolSize());
+
+        // Pure computation needs a Thread per processor.
+        PoolSizer cpuBound = new PoolSizer(4, 1, 64, 8);
+        cpuBound.record(0, 100);
+        assertEquals(4, cpuBound.getPoolSize());
+    }
+
+    @Test
+    public void getPoolSize_staysWithinBounds() {
+        PoolSizer sizer = new PoolSizer(4, 2, 10, 100);
+        assertEquals(10, sizer.getPoolSize());
+
+        sizer.record(1_000_000, 1);
+        assertEquals(10, sizer.getPoolSize());
+
+        PoolSizer waitOnly = new PoolSizer(4, 2, 10, 8);
+        waitOnly.record(100, 0);
+        assertEquals(10, waitOnly.getPoolSize());
+    }
+}
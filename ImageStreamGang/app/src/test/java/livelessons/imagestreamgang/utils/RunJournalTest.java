@@ -0,0 +1,167 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the RunJournal.
+ */
+public class RunJournalTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void checkpoint_waitsForEarlierCyclesAndWrites() throws Exception {
+        File file = new File(mFolder.getRoot(), "journal");
+        File image = mFolder.newFile("ka.png");
+        Files.write(image.toPath(), new byte[42]);
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        RunJournal journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(1, input(1));
+        journal.beginWrite(1);
+        journal.beginCycle(2, input(2));
+        journal.endCycle(2, true);
+        assertEquals(0, journal.getCheckpoint());
+        journal.endCycle(1, true);
+
+        // A write is still pending, so nothing is checkpointed yet.
+        assertEquals(0, journal.getCheckpoint());
+
+        journal.endWrite(1, url, "NullFilter", image);
+        assertEquals(2, journal.getCheckpoint());
+        assertEquals(2, new RunJournal(file, "NullFilter").getCheckpoint());
+    }
+
+    @Test
+    public void checkpoint_isntHeldUpByWritesOfLaterCycles() throws Exception {
+        File file = new File(mFolder.getRoot(), "journal");
+        File image = mFolder.newFile("ka.png");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        // Cycles overlap, so cycle 2 is still writing when cycle 1
+        // is done.
+        RunJournal journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(1, input(1));
+        journal.beginCycle(2, input(2));
+        journal.beginWrite(1);
+        journal.beginWrite(2);
+        journal.endWrite(1, url, "NullFilter", image);
+        journal.endCycle(1, true);
+        assertEquals(1, journal.getCheckpoint());
+
+        journal.endCycle(2, true);
+        assertEquals(1, journal.getCheckpoint());
+        journal.endWrite(2, url, "GrayScaleFilter", image);
+        assertEquals(2, journal.getCheckpoint());
+    }
+
+    @Test
+    public void resume_skipsCheckpointedCyclesAndTakesImagesOnce() throws Exception {
+        File file = new File(mFolder.getRoot(), "journal");
+        File image = mFolder.newFile("ka.png");
+        Files.write(image.toPath(), new byte[42]);
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        RunJournal journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(1, input(1));
+        journal.endCycle(1, true);
+        journal.beginCycle(2, input(2));
+        journal.beginWrite(2);
+        journal.endWrite(2, url, "NullFilter", image);
+
+        // The checkpoint is synced at once, whereas the image is
+        // synced with the next batch or when the run is cancelled.
+        assertEquals(1, new RunJournal(file, "NullFilter").getCheckpoint());
+        journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(2, input(2));
+        journal.beginWrite(2);
+        journal.endWrite(2, url, "NullFilter", image);
+        journal.finish(false);
+
+        RunJournal resumed = new RunJournal(file, "NullFilter");
+        assertEquals(1, resumed.getCheckpoint());
+        assertEquals(42, resumed.take(url, "NullFilter"));
+        assertEquals(-1, resumed.take(url, "NullFilter"));
+        assertEquals(-1, resumed.take(url, "GrayScaleFilter"));
+
+        // A run with other filters doesn't resume it.
+        assertEquals(0, new RunJournal(file, "GrayScaleFilter").getCheckpoint());
+    }
+
+    @Test
+    public void failure_stopsCheckpointsAndCompleteRunDeletesJournal() throws Exception {
+        File file = new File(mFolder.getRoot(), "journal");
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        RunJournal journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(1, input(1));
+        journal.endCycle(1, true);
+        journal.beginCycle(2, input(2));
+        journal.beginWrite(2);
+        journal.endWrite(2, url, "NullFilter", null);
+        journal.beginCycle(3, input(3));
+        journal.endCycle(2, true);
+        journal.endCycle(3, true);
+        journal.finish(false);
+
+        // Cycle 2 has to be redone, so the checkpoint stays at 1.
+        RunJournal resumed = new RunJournal(file, "NullFilter");
+        assertEquals(1, resumed.getCheckpoint());
+
+        resumed.finish(true);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void rewind_redoesCyclesWhoseInputDiffers() throws Exception {
+        File file = new File(mFolder.getRoot(), "journal");
+        File image = mFolder.newFile("ka.png");
+        Files.write(image.toPath(), new byte[42]);
+        URL url = new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png");
+
+        RunJournal journal = new RunJournal(file, "NullFilter");
+        journal.beginCycle(1, input(1));
+        journal.endCycle(1, true);
+        journal.beginCycle(2, input(2));
+        journal.endCycle(2, true);
+        journal.beginCycle(3, input(3));
+        journal.beginWrite(3);
+        journal.endWrite(3, url, "NullFilter", image);
+        journal.finish(false);
+
+        RunJournal resumed = new RunJournal(file, "NullFilter");
+        assertEquals(2, resumed.getCheckpoint());
+        assertTrue(resumed.matches(1, input(1)));
+
+        // The input of cycle 2 changed, so it has to be redone, and
+        // none of the images journaled after it are taken.
+        assertFalse(resumed.matches(2, input(3)));
+        resumed.rewind(1);
+        assertEquals(1, resumed.getCheckpoint());
+        assertEquals(-1, resumed.take(url, "NullFilter"));
+        resumed.finish(false);
+
+        RunJournal rewound = new RunJournal(file, "NullFilter");
+        assertEquals(1, rewound.getCheckpoint());
+        assertTrue(rewound.matches(1, input(1)));
+        assertFalse(rewound.matches(2, input(2)));
+    }
+
+    /**
+     * @return The input of the given @a cycle.
+     */
+    private static List<URL> input(int cycle) throws Exception {
+        return Collections.singletonList
+            (new URL("http://www.dre.vanderbilt.edu/~schmidt/" + cycle + ".png"));
+    }
+}
@@ -0,0 +1,87 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the SingleFlight.
+ */
+public class SingleFlightTest {
+    @Test
+    public void execute_sharesFlightInProgress() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> task = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        CompletableFuture<String> first =
+            flights.execute("url", () -> { started.incrementAndGet(); return task; });
+        CompletableFuture<String> second =
+            flights.execute("url", () -> { started.incrementAndGet(); return task; });
+        CompletableFuture<String> other =
+            flights.execute("other", () -> CompletableFuture.completedFuture("o"));
+
+        assertSame(first, second);
+        assertEquals(1, started.get());
+        assertEquals("o", other.join());
+
+        task.complete("image");
+        assertEquals("image", second.join());
+        assertEquals(1, flights.getCoalesced());
+
+        // Once it has landed a new request starts a new flight.
+        assertEquals("again",
+                     flights.execute("url",
+                                     () -> CompletableFuture.completedFuture("again"))
+                     .join());
+    }
+
+    @Test
+    public void run_waitsForFlightInProgress() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch land = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync
+            (() -> flights.run("url", () -> {
+                        inFlight.countDown();
+                        try {
+                            land.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return runs.incrementAndGet();
+                    }));
+
+        inFlight.await();
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync
+            (() -> flights.run("url", runs::incrementAndGet));
+
+        // Wait until the second request has joined the flight.
+        while (flights.getCoalesced() == 0)
+            Thread.sleep(1);
+        land.countDown();
+
+        assertEquals(1, (int) first.join());
+        assertEquals(1, (int) second.join());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void failures_arePropagatedAndForgotten() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> task = new CompletableFuture<>();
+
+        CompletableFuture<String> flight = flights.execute("url", () -> task);
+        task.completeExceptionally(new IllegalStateException("broken"));
+
+        assertTrue(flight.isCompletedExceptionally());
+        assertEquals("ok",
+                     flights.run("url", () -> "ok"));
+    }
+}
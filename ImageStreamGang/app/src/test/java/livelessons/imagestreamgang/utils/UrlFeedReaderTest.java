@@ -0,0 +1,124 @@
+package livelessons.imagestreamgang.utils;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the UrlFeedReader, which run against a loopback
+ * HTTP server that serves a feed of three batches.
+ */
+public class UrlFeedReaderTest {
+    private HttpServer mServer;
+    private final List<String> mQueries =
+        Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private String mBase;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create
+            (new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/feed", exchange -> {
+                String query = exchange.getRequestURI().getQuery();
+                mQueries.add(query);
+
+                // Fail as often as asked to, then serve batches 0 to
+                // 2, each with one malformed URL, then nothing.
+                int batch = Integer.parseInt(query.replaceAll(".*batch=(\\d+).*", "$1"));
+                byte[] body = batch < 3
+                    ? ("http://example.com/" + batch + "a.png,not-a-url\n"
+                       + "http://example.com/" + batch + "b.png")
+                      .getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+                int code = mFailures.getAndDecrement() > 0
+                    ? 503
+                    : body.length > 0 ? 200 : 204;
+
+                exchange.sendResponseHeaders(code,
+                                             code == 204 ? -1 : body.length);
+                try (OutputStream responseBody = exchange.getResponseBody()) {
+                    if (code == 200)
+                        responseBody.write(body);
+                }
+            });
+        mServer.start();
+        mBase = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void feed_isReadInBatchesUntilEmpty() throws Exception {
+        List<List<URL>> batches = readAll(new UrlFeedReader(new URL(mBase + "/feed?key=k"),
+                                                            2));
+
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList(new URL("http://example.com/1a.png"),
+                                   new URL("http://example.com/1b.png")),
+                     batches.get(1));
+        assertEquals(Arrays.asList("key=k&batch=0&size=2",
+                                   "key=k&batch=1&size=2",
+                                   "key=k&batch=2&size=2",
+                                   "key=k&batch=3&size=2"),
+                     mQueries);
+    }
+
+    @Test
+    public void failedRequest_isRetried() throws Exception {
+        mFailures.set(1);
+
+        List<List<URL>> batches = readAll(new UrlFeedReader(new URL(mBase + "/feed"),
+                                                            2));
+
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList("batch=0&size=2",
+                                   "batch=0&size=2"),
+                     mQueries.subList(0, 2));
+    }
+
+    @Test
+    public void nextBatch_isPrefetched() throws Exception {
+        ReadAheadIterator<List<URL>> iterator =
+            new ReadAheadIterator<>(new UrlFeedReader(new URL(mBase + "/feed"), 2),
+                                    1,
+                                    "test");
+        assertEquals(new URL("http://example.com/0a.png"),
+                     iterator.next().get(0));
+
+        // While batch 0 is "processed" batch 1 is fetched.
+        for (int i = 0; i < 100 && mQueries.size() < 2; ++i)
+            Thread.sleep(10);
+        assertTrue(mQueries.contains("batch=1&size=2"));
+
+        iterator.close();
+    }
+
+    /**
+     * @return All the batches returned by the @a iterator.
+     */
+    private static List<List<URL>> readAll(UrlFeedReader iterator) {
+        List<List<URL>> batches = new ArrayList<>();
+        while (iterator.hasNext())
+            batches.add(iterator.next());
+        return batches;
+    }
+}
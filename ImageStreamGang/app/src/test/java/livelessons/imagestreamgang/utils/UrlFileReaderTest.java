@@ -0,0 +1,113 @@
+package livelessons.imagestreamgang.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the UrlFileReader and the ReadAheadIterator.
+ */
+public class UrlFileReaderTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * The contents of the test files, which mix the delimiters.
+     */
+    private static final String URLS =
+        "# Images to download\n"
+        + "http://www.dre.vanderbilt.edu/~schmidt/ka.png,"
+        + "http://www.dre.vanderbilt.edu/~schmidt/uci.png\n"
+        + "\n"
+        + "not-a-url  http://www.cs.wustl.edu/~schmidt/gifs/wm.jpg\r\n"
+        + "http://www.cs.wustl.edu/~schmidt/gifs/ironbound.jpg";
+
+    @Test
+    public void plainFile_isReadInBatches() throws Exception {
+        File file = mFolder.newFile("urls.txt");
+        Files.write(file.toPath(), URLS.getBytes(StandardCharsets.UTF_8));
+
+        List<List<URL>> batches = readAll(new UrlFileReader(file, 3));
+
+        assertEquals(2, batches.size());
+        assertEquals(Arrays.asList(new URL("http://www.dre.vanderbilt.edu/~schmidt/ka.png"),
+                                   new URL("http://www.dre.vanderbilt.edu/~schmidt/uci.png"),
+                                   new URL("http://www.cs.wustl.edu/~schmidt/gifs/wm.jpg")),
+                     batches.get(0));
+        assertEquals(Arrays.asList(new URL("http://www.cs.wustl.edu/~schmidt/gifs/ironbound.jpg")),
+                     batches.get(1));
+    }
+
+    @Test
+    public void gzippedFile_isReadAhead() throws Exception {
+        File file = mFolder.newFile("urls.txt.gz");
+        try (OutputStream ostream =
+             new GZIPOutputStream(new FileOutputStream(file))) {
+            ostream.write(URLS.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ReadAheadIterator<List<URL>> iterator =
+            new ReadAheadIterator<>(new UrlFileReader(file, 2), 1, "test");
+        List<List<URL>> batches = readAll(iterator);
+
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(new URL("http://www.cs.wustl.edu/~schmidt/gifs/ironbound.jpg"),
+                     batches.get(1).get(1));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void readAhead_isBoundedAndStopsWhenClosed() throws Exception {
+        // A source that counts how many elements have been read.
+        int[] read = {0};
+        Iterator<Integer> source = new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public Integer next() {
+                    return ++read[0];
+                }
+            };
+
+        ReadAheadIterator<Integer> iterator =
+            new ReadAheadIterator<>(source, 2, "test");
+        assertEquals(1, (int) iterator.next());
+        assertEquals(2, (int) iterator.next());
+
+        // The reader gets at most 2 elements ahead, plus the one it's
+        // waiting to queue.
+        Thread.sleep(100);
+        assertTrue(read[0] <= 5);
+
+        iterator.close();
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * @return All the batches returned by the @a iterator.
+     */
+    private static List<List<URL>> readAll(Iterator<List<URL>> iterator) {
+        List<List<URL>> batches = new ArrayList<>();
+        while (iterator.hasNext())
+            batches.add(iterator.next());
+        return batches;
+    }
+}
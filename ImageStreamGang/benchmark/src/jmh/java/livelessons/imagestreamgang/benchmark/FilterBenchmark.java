@@ -0,0 +1,182 @@
+package livelessons.imagestreamgang.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import livelessons.imagestreamgang.filters.FusedPixelPass;
+import livelessons.imagestreamgang.filters.GrayScalePixels;
+import livelessons.imagestreamgang.filters.PixelBands;
+import livelessons.imagestreamgang.filters.PixelKernel;
+import livelessons.imagestreamgang.filters.SepiaPixels;
+
+/**
+ * Benchmarks each Filter on a square image of random pixels.  Every
+ * benchmark except nullFilter() copies the source pixels first, just
+ * like the filters do, so the results are directly comparable.
+ */
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+    /**
+     * The width and height of the image in pixels.
+     */
+    @Param({"250", "1024", "4096"})
+    public int size;
+
+    /**
+     * The pixels of the image, which are never modified.
+     */
+    private int[] mSourcePixels;
+
+    /**
+     * Create an image of random pixels, some of which are
+     * transparent.
+     */
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+
+        mSourcePixels = new int[size * size];
+        for (int i = 0; i < mSourcePixels.length; ++i)
+            mSourcePixels[i] = random.nextInt();
+    }
+
+    /**
+     * The NullFilter returns the image unchanged.
+     */
+    @Benchmark
+    public int[] nullFilter() {
+        return mSourcePixels;
+    }
+
+    /**
+     * The original GrayScaleFilter algorithm, which uses
+     * double-precision math per pixel.
+     */
+    @Benchmark
+    public int[] grayScaleFilterFloatingPoint() {
+        int[] pixels = mSourcePixels.clone();
+
+        for (int i = 0; i < pixels.length; ++i) {
+            int pixel = pixels[i];
+            if ((pixel & 0xff000000) == 0)
+                continue;
+
+            int grayScale =
+                (int) (((pixel >> 16) & 0xff) * .299
+                       + ((pixel >> 8) & 0xff) * .587
+                       + (pixel & 0xff) * .114);
+            pixels[i] = 0xff000000
+                | (grayScale << 16)
+                | (grayScale << 8)
+                | grayScale;
+        }
+
+        return pixels;
+    }
+
+    /**
+     * The GrayScaleFilter with tiling disabled.
+     */
+    @Benchmark
+    public int[] grayScaleFilter() {
+        int[] pixels = mSourcePixels.clone();
+
+        GrayScalePixels.toGrayScale(pixels, 0, pixels.length, true);
+        return pixels;
+    }
+
+    /**
+     * The GrayScaleFilter with tiling enabled.
+     */
+    @Benchmark
+    public int[] grayScaleFilterTiled() {
+        int[] pixels = mSourcePixels.clone();
+
+        PixelBands.forEachBand(size,
+                               size,
+                               true,
+                               (from, to) ->
+                               GrayScalePixels.toGrayScale(pixels, from, to, true));
+        return pixels;
+    }
+
+    /**
+     * Two GrayScaleFilters applied separately, i.e., in two passes.
+     */
+    @Benchmark
+    public int[][] grayScaleFilterTwice() {
+        return new int[][] { grayScaleFilter(), grayScaleFilter() };
+    }
+
+    /**
+     * Two GrayScaleFilters fused into a single pass.
+     */
+    @Benchmark
+    public int[][] grayScaleFilterTwiceFused() {
+        PixelKernel[] kernels = {
+            GrayScalePixels::toGrayScale,
+            GrayScalePixels::toGrayScale
+        };
+        int[][] outputs = {
+            new int[mSourcePixels.length],
+            new int[mSourcePixels.length]
+        };
+
+        FusedPixelPass.apply(mSourcePixels,
+                             outputs,
+                             kernels,
+                             0,
+                             mSourcePixels.length,
+                             true);
+        return outputs;
+    }
+
+    /**
+     * The SepiaFilter with tiling disabled.
+     */
+    @Benchmark
+    public int[] sepiaFilter() {
+        int[] pixels = mSourcePixels.clone();
+
+        SepiaPixels.toSepia(pixels, 0, pixels.length, true);
+        return pixels;
+    }
+
+    /**
+     * The GrayScaleFilter and the SepiaFilter applied separately,
+     * i.e., in two passes.
+     */
+    @Benchmark
+    public int[][] grayScaleAndSepiaFilters() {
+        return new int[][] { grayScaleFilter(), sepiaFilter() };
+    }
+
+    /**
+     * The GrayScaleFilter and the SepiaFilter fused into a single
+     * pass, which is how the app applies them.
+     */
+    @Benchmark
+    public int[][] grayScaleAndSepiaFiltersFused() {
+        PixelKernel[] kernels = {
+            GrayScalePixels::toGrayScale,
+            SepiaPixels::toSepia
+        };
+        int[][] outputs = {
+            new int[mSourcePixels.length],
+            new int[mSourcePixels.length]
+        };
+
+        FusedPixelPass.apply(mSourcePixels,
+                             outputs,
+                             kernels,
+                             0,
+                             mSourcePixels.length,
+                             true);
+        return outputs;
+    }
+}
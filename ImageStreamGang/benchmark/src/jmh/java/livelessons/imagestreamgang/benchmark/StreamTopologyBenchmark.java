@@ -0,0 +1,496 @@
+package livelessons.imagestreamgang.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import livelessons.imagestreamgang.filters.GrayScalePixels;
+import livelessons.imagestreamgang.filters.SepiaPixels;
+import livelessons.imagestreamgang.utils.AdaptiveExecutor;
+import livelessons.imagestreamgang.utils.BoundedPipeline;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Benchmarks hand-written models of the stream topologies of
+ * ImageStreamSequential, ImageStreamParallel, the
+ * ImageStreamCompletableFuture strategies, and ImageStreamPipelined
+ * off-device, i.e., how each one arranges the download, decode,
+ * filter, and store steps across Threads.  It doesn't run the
+ * strategy classes themselves, which depend on Android (Bitmap,
+ * BitmapFactory, Log, and the ContentResolver), so its numbers
+ * compare the topologies and thread pools, not the code that ships.
+ * The parts that are platform-independent are the shipped classes
+ * rather than copies, i.e., the pixel loops of the filters, the
+ * AdaptiveExecutor, and the BoundedPipeline, so only the download,
+ * decode, and store steps are stand-ins, and a change to a strategy's
+ * topology must be mirrored in its model here.  Images are served
+ * either from local files or by a loopback HTTP server.
+ */
+@State(Scope.Benchmark)
+public class StreamTopologyBenchmark {
+    /**
+     * Where the images are downloaded from, i.e., "file" or "http".
+     */
+    @Param({"file", "http"})
+    public String source;
+
+    /**
+     * The number of URLs in the input List.
+     */
+    @Param({"6", "48"})
+    public int imageCount;
+
+    /**
+     * The thread pool the CompletableFuture benchmarks run on, i.e.,
+     * "fixed" for a fixed-size pool of MAX_THREADS or "adaptive" for
+     * the AdaptiveExecutor used by ImageStream.
+     */
+    @Param({"fixed", "adaptive"})
+    public String pool;
+
+    /**
+     * The width and height of each image, which matches the size
+     * images are scaled to by the app.
+     */
+    private static final int IMAGE_SIZE = 250;
+
+    /**
+     * Number of Threads in the fixed-size thread pool, and the size
+     * the adaptive pool starts at.
+     */
+    private static final int MAX_THREADS = 8;
+
+    /**
+     * Most Threads in the adaptive pool, which matches ImageStream.
+     */
+    private static final int MAX_ADAPTIVE_THREADS = 64;
+
+    /**
+     * Number of filter workers in the pipelined model, which matches
+     * ImageStreamPipelined, as does the capacity of its queues.
+     */
+    private static final int FILTER_THREADS =
+        Runtime.getRuntime().availableProcessors();
+    private static final int QUEUE_CAPACITY = 2 * FILTER_THREADS;
+
+    /**
+     * The filters applied to each image.
+     */
+    private enum BenchmarkFilter {
+        NULL_FILTER("NullFilter") {
+            @Override
+            int[] apply(int[] pixels) {
+                return pixels;
+            }
+        },
+        GRAY_SCALE_FILTER("GrayScaleFilter") {
+            @Override
+            int[] apply(int[] pixels) {
+                int[] grayScalePixels = pixels.clone();
+                GrayScalePixels.toGrayScale(grayScalePixels,
+                                            0,
+                                            grayScalePixels.length,
+                                            true);
+                return grayScalePixels;
+            }
+        },
+        SEPIA_FILTER("SepiaFilter") {
+            @Override
+            int[] apply(int[] pixels) {
+                int[] sepiaPixels = pixels.clone();
+                SepiaPixels.toSepia(sepiaPixels,
+                                    0,
+                                    sepiaPixels.length,
+                                    true);
+                return sepiaPixels;
+            }
+        };
+
+        final String mName;
+
+        BenchmarkFilter(String name) {
+            mName = name;
+        }
+
+        abstract int[] apply(int[] pixels);
+    }
+
+    /**
+     * A decoded image.
+     */
+    private static class DecodedImage {
+        final String mFileName;
+        final int[] mPixels;
+
+        DecodedImage(String fileName, int[] pixels) {
+            mFileName = fileName;
+            mPixels = pixels;
+        }
+    }
+
+    /**
+     * A filtered image on its way to the store stage of the pipelined
+     * model.
+     */
+    private static class FilteredImage {
+        final BenchmarkFilter mFilter;
+        final String mFileName;
+        final int[] mPixels;
+
+        FilteredImage(BenchmarkFilter filter,
+                      String fileName,
+                      int[] pixels) {
+            mFilter = filter;
+            mFileName = fileName;
+            mPixels = pixels;
+        }
+    }
+
+    /**
+     * The directory containing the images to download.
+     */
+    private File mInputDirectory;
+
+    /**
+     * The directory the filtered images are stored in.
+     */
+    private File mOutputDirectory;
+
+    /**
+     * The loopback HTTP server, which is only used if the source is
+     * "http".
+     */
+    private HttpServer mServer;
+
+    /**
+     * Executes the requests of the loopback HTTP server.
+     */
+    private ExecutorService mServerExecutor;
+
+    /**
+     * The URLs of the images to download.
+     */
+    private List<URL> mUrls;
+
+    /**
+     * Executes the CompletableFuture tasks.
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * Runs the filter and store workers of the pipelined model.
+     */
+    private ExecutorService mStageExecutor;
+
+    /**
+     * Create the images and start serving them.
+     */
+    @Setup
+    public void setup() throws IOException {
+        mInputDirectory = Files.createTempDirectory("input").toFile();
+        mOutputDirectory = Files.createTempDirectory("output").toFile();
+
+        // Store each image as its size followed by its pixels.
+        Random random = new Random(42);
+        ByteBuffer image = ByteBuffer.allocate(4 + 4 * IMAGE_SIZE * IMAGE_SIZE);
+        image.putInt(IMAGE_SIZE);
+        while (image.hasRemaining())
+            image.putInt(random.nextInt());
+
+        for (int i = 0; i < imageCount; ++i)
+            Files.write(new File(mInputDirectory, "image" + i + ".raw").toPath(),
+                        image.array());
+
+        String base;
+        if (source.equals("http")) {
+            mServer = HttpServer.create
+                (new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            mServer.createContext("/", exchange -> {
+                    byte[] body =
+                        Files.readAllBytes(new File(mInputDirectory,
+                                                    exchange.getRequestURI().getPath())
+                                           .toPath());
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream responseBody = exchange.getResponseBody()) {
+                        responseBody.write(body);
+                    }
+                });
+            mServerExecutor = Executors.newFixedThreadPool(MAX_THREADS);
+            mServer.setExecutor(mServerExecutor);
+            mServer.start();
+            base = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+        } else
+            base = mInputDirectory.toURI().toString();
+
+        mUrls = new ArrayList<>();
+        for (int i = 0; i < imageCount; ++i)
+            mUrls.add(new URL(base + "image" + i + ".raw"));
+
+        mExecutor = pool.equals("adaptive")
+            ? new AdaptiveExecutor(1, MAX_ADAPTIVE_THREADS, MAX_THREADS, 100, null, null)
+            : Executors.newFixedThreadPool(MAX_THREADS);
+        mStageExecutor = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Stop serving the images and delete all the files.
+     */
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mStageExecutor.shutdownNow();
+        if (mServer != null) {
+            mServer.stop(0);
+            mServerExecutor.shutdownNow();
+        }
+        delete(mInputDirectory);
+        delete(mOutputDirectory);
+    }
+
+    /**
+     * A model of the stream of ImageStreamSequential.
+     */
+    @Benchmark
+    public int sequential() {
+        return mUrls
+            .stream()
+            .map(this::makeImage)
+            .flatMap(image -> Arrays
+                     .stream(BenchmarkFilter.values())
+                     .map(filter -> filterAndStore(filter, image)))
+            .collect(toList())
+            .size();
+    }
+
+    /**
+     * A model of the stream of ImageStreamParallel.
+     */
+    @Benchmark
+    public int parallel() {
+        return mUrls
+            .parallelStream()
+            .map(this::makeImage)
+            .flatMap(image -> Arrays
+                     .stream(BenchmarkFilter.values())
+                     .parallel()
+                     .map(filter -> filterAndStore(filter, image)))
+            .collect(toList())
+            .size();
+    }
+
+    /**
+     * A model of the stream of ImageStreamCompletableFuture1.
+     */
+    @Benchmark
+    public int completableFuture1() {
+        return mUrls
+            .stream()
+            .map(url -> CompletableFuture.supplyAsync(() -> makeImage(url),
+                                                      mExecutor))
+            .map(CompletableFuture::join)
+            .flatMap(this::filterAndStoreAsync)
+            .map(CompletableFuture::join)
+            .collect(toList())
+            .size();
+    }
+
+    /**
+     * A model of the stream of ImageStreamCompletableFuture2.
+     */
+    @Benchmark
+    public int completableFuture2() {
+        List<CompletableFuture<List<CompletableFuture<File>>>> futures = mUrls
+            .parallelStream()
+            .map(url -> CompletableFuture.supplyAsync(() -> makeImage(url),
+                                                      mExecutor))
+            .map(imageFuture -> imageFuture
+                 .thenApply(image -> filterAndStoreAsync(image)
+                            .collect(toList())))
+            .collect(toList());
+
+        return futures
+            .stream()
+            .map(CompletableFuture::join)
+            .flatMap(List::stream)
+            .map(CompletableFuture::join)
+            .collect(toList())
+            .size();
+    }
+
+    /**
+     * A model of the stream of ImageStreamCompletableFuture3, which
+     * only waits once for the future composed from all the others.
+     */
+    @Benchmark
+    public int completableFuture3() {
+        List<CompletableFuture<Integer>> futures = mUrls
+            .stream()
+            .map(url -> CompletableFuture
+                 .supplyAsync(() -> makeImage(url), mExecutor)
+                 .thenCompose(image -> {
+                         List<CompletableFuture<File>> filtered =
+                             filterAndStoreAsync(image).collect(toList());
+                         return CompletableFuture
+                             .allOf(filtered.toArray(new CompletableFuture<?>[0]))
+                             .thenApply(ignored -> filtered.size());
+                     }))
+            .collect(toList());
+
+        return CompletableFuture
+            .allOf(futures.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> futures
+                       .stream()
+                       .mapToInt(CompletableFuture::join)
+                       .sum())
+            .join();
+    }
+
+    /**
+     * A model of the pipeline of ImageStreamPipelined, whose download
+     * stage runs on the I/O pool and puts each image in the bounded
+     * queue of the filter workers, which put the filtered images in
+     * the bounded queue of the single store worker.
+     */
+    @Benchmark
+    public int pipelined() throws InterruptedException {
+        BoundedPipeline<DecodedImage, FilteredImage> pipeline =
+            new BoundedPipeline<>(QUEUE_CAPACITY,
+                                  FILTER_THREADS,
+                                  (image, filteredImages) -> {
+                                      for (BenchmarkFilter filter
+                                               : BenchmarkFilter.values())
+                                          filteredImages.put
+                                              (new FilteredImage(filter,
+                                                                 image.mFileName,
+                                                                 filter.apply(image.mPixels)));
+                                  },
+                                  filteredImage ->
+                                      store(filteredImage.mFilter,
+                                            filteredImage.mFileName,
+                                            filteredImage.mPixels) != null);
+        pipeline.start(mStageExecutor);
+
+        List<CompletableFuture<Void>> downloads = mUrls
+            .stream()
+            .map(url -> CompletableFuture
+                 .runAsync(() -> {
+                         try {
+                             pipeline.put(makeImage(url));
+                         } catch (InterruptedException e) {
+                             Thread.currentThread().interrupt();
+                         }
+                     },
+                     mExecutor))
+            .collect(toList());
+
+        downloads.forEach(CompletableFuture::join);
+        return pipeline.finish();
+    }
+
+    /**
+     * Download the image at @a url the same way NetUtils does and
+     * decode it.
+     */
+    private DecodedImage makeImage(URL url) {
+        ByteArrayOutputStream ostream = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[4096];
+        int bytes;
+
+        try (InputStream istream = url.openStream()) {
+            while ((bytes = istream.read(readBuffer)) > 0)
+                ostream.write(readBuffer, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ByteBuffer image = ByteBuffer.wrap(ostream.toByteArray());
+        int[] pixels = new int[image.getInt() * IMAGE_SIZE];
+        image.asIntBuffer().get(pixels);
+
+        String path = url.getPath();
+        return new DecodedImage(path.substring(path.lastIndexOf('/') + 1),
+                                pixels);
+    }
+
+    /**
+     * Asynchronously apply all the filters to the @a image.
+     */
+    private Stream<CompletableFuture<File>> filterAndStoreAsync(DecodedImage image) {
+        return Arrays
+            .stream(BenchmarkFilter.values())
+            .map(filter -> CompletableFuture
+                 .supplyAsync(() -> filterAndStore(filter, image),
+                              mExecutor));
+    }
+
+    /**
+     * Apply the @a filter to the @a image and store the results.
+     */
+    private File filterAndStore(BenchmarkFilter filter,
+                                DecodedImage image) {
+        return store(filter,
+                     image.mFileName,
+                     filter.apply(image.mPixels));
+    }
+
+    /**
+     * Store the @a pixels filtered by the @a filter in the file named
+     * @a fileName the same way OutputFilterDecorator does.
+     */
+    private File store(BenchmarkFilter filter,
+                       String fileName,
+                       int[] pixels) {
+        File directory = new File(mOutputDirectory, filter.mName);
+        directory.mkdirs();
+
+        File imageFile = new File(directory, fileName);
+        ByteBuffer encoded = ByteBuffer.allocate(4 * pixels.length);
+        encoded.asIntBuffer().put(pixels);
+
+        try (FileOutputStream outputFile = new FileOutputStream(imageFile)) {
+            outputFile.write(encoded.array());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return imageFile;
+    }
+
+    /**
+     * Recursively delete the @a file.
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+}